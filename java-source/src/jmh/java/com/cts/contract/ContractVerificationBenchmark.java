@@ -0,0 +1,106 @@
+package com.cts.contract;
+
+import com.cts.state.ETFBookState;
+import com.cts.state.ETFResultState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.AlwaysAcceptAttachmentConstraint;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.CommandWithParties;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.PrivacySalt;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of contract verification on synthetic transactions.
+ *
+ * [BookContract] and [CreateContract] only accept single-output issuances, so each is measured on one, of an
+ * [ETFBookState] and an [ETFResultState] respectively. [ETFundBookContract] is not measured: the trade and fund states
+ * it groups are not part of this tree.
+ *
+ * Run with ./gradlew benchmark, which adds the GC profiler to report allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContractVerificationBenchmark {
+    private static final Party notary = party("Controller", "London", "GB");
+    private static final Party sponsor = party("ETFSponsor", "London", "GB");
+    private static final Party ap = party("AP", "New York", "US");
+
+    @State(Scope.Benchmark)
+    public static class Transactions {
+        LedgerTransaction book;
+        LedgerTransaction create;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            book = transaction(
+                    ImmutableList.of(transactionState(new ETFBookState(100, sponsor, ap), BookContract.IOU_CONTRACT_ID)),
+                    new BookContract.Commands.Create());
+            create = transaction(
+                    ImmutableList.of(transactionState(new ETFResultState(100, sponsor, ap), CreateContract.CREATE_CONTRACT_ID)),
+                    new CreateContract.Commands.Create());
+        }
+    }
+
+    private final BookContract bookContract = new BookContract();
+    private final CreateContract createContract = new CreateContract();
+
+    @Benchmark
+    public LedgerTransaction bookContract(Transactions transactions) {
+        bookContract.verify(transactions.book);
+        return transactions.book;
+    }
+
+    @Benchmark
+    public LedgerTransaction createContract(Transactions transactions) {
+        createContract.verify(transactions.create);
+        return transactions.create;
+    }
+
+    private static TransactionState<ContractState> transactionState(ContractState state, String contract) {
+        return new TransactionState<>(state, contract, notary, null, AlwaysAcceptAttachmentConstraint.INSTANCE);
+    }
+
+    private static LedgerTransaction transaction(List<TransactionState<ContractState>> outputs, CommandData command) {
+        final List<PublicKey> signers = ImmutableList.of(sponsor.getOwningKey(), ap.getOwningKey());
+        final List<CommandWithParties<CommandData>> commands = ImmutableList.of(
+                new CommandWithParties<>(signers, ImmutableList.of(), command));
+        return new LedgerTransaction(
+                Collections.emptyList(),
+                outputs,
+                commands,
+                Collections.emptyList(),
+                SecureHash.randomSHA256(),
+                notary,
+                null,
+                new PrivacySalt());
+    }
+
+    private static Party party(String organisation, String locality, String country) {
+        return new Party(new CordaX500Name(organisation, locality, country), Crypto.generateKeyPair().getPublic());
+    }
+}
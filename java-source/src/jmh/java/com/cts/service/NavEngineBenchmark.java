@@ -0,0 +1,83 @@
+package com.cts.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many constituent price ticks per second [NavEngine] absorbs, and how long a full parallel revaluation
+ * takes, for [funds] baskets of [basketSize] constituents drawn from a universe of 5000.
+ *
+ * Run with ./gradlew benchmark -Pjmh=NavEngineBenchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NavEngineBenchmark {
+    private static final int CONSTITUENTS = 5000;
+    // A power of two, so the next tick is picked with a mask.
+    private static final int TICKS = 1 << 16;
+
+    @Param({"100", "1000", "10000"})
+    public int funds;
+
+    @Param({"50", "500"})
+    public int basketSize;
+
+    private NavEngine engine;
+    private int[] tickConstituents;
+    private double[] tickPrices;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        final NavEngine.Builder builder = NavEngine.builder();
+        for (int f = 0; f < funds; f++) {
+            for (int i = 0; i < basketSize; i++) {
+                builder.add("ETF-" + f, "C-" + random.nextInt(CONSTITUENTS), 1 + random.nextInt(100));
+            }
+        }
+        engine = builder.build();
+        for (int c = 0; c < engine.constituentCount(); c++) {
+            engine.tick(c, 10 + random.nextDouble() * 90);
+        }
+
+        tickConstituents = new int[TICKS];
+        tickPrices = new double[TICKS];
+        for (int i = 0; i < TICKS; i++) {
+            tickConstituents[i] = random.nextInt(engine.constituentCount());
+            tickPrices[i] = 10 + random.nextDouble() * 90;
+        }
+    }
+
+    @Benchmark
+    public double tick() {
+        final int i = next++ & (TICKS - 1);
+        engine.tick(tickConstituents[i], tickPrices[i]);
+        return engine.nav(0);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double revalue() {
+        engine.revalue();
+        return engine.nav(0);
+    }
+}
@@ -0,0 +1,244 @@
+package com.cts.api;
+
+import com.cts.flow.ETFRateUpdate;
+import com.cts.flow.ETFundBulkExercisingFlow;
+import com.cts.flow.ETFundLookupFlow;
+import com.cts.state.ETFundState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Exercises the funds in a rate file with bounded memory and bounded parallelism.
+ *
+ * Rows are read a window at a time. The funds in a window are resolved with one [ETFundLookupFlow], grouped by
+ * counterparty and split into chunks, and each chunk is exercised by one [ETFundBulkExercisingFlow]. At most
+ * [parallelism] chunks are in flight; reading blocks until one finishes, so neither the file nor the results are ever
+ * held in memory as a whole. A result is reported for every row as soon as its chunk completes.
+ *
+ * A fund is exercised at most once per window: a later row of the same window for a reference id is rejected as
+ * DUPLICATE. A reference id repeated in a later window is exercised again from the fund's state at that time; if the
+ * earlier exercise is still in flight both spend the same state, and the notary rejects one of them.
+ *
+ * A chunk can span several transactions, one per notary. If one of them fails after others were committed, the
+ * funds of the chunk are looked up again, and a row whose fund has moved on from the state it was resolved to is
+ * reported as exercised by the transaction that produced its current state. An exercise by another flow in the
+ * meantime cannot be told apart and is reported the same way.
+ */
+public class BulkExerciseRunner {
+    static private final Logger logger = LoggerFactory.getLogger(BulkExerciseRunner.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * Receives the outcome of each row. Called concurrently from the chunk workers.
+     */
+    public interface ResultSink {
+        void exercised(RateFileReader.Row row, String txId);
+        void rejected(RateFileReader.Row row, String status, String reason);
+    }
+
+    private final RpcConnectionPool rpc;
+    private final CordaX500Name myLegalName;
+    private final int chunkSize;
+    private final int parallelism;
+    private final Party oracle;
+
+    public BulkExerciseRunner(CordaRPCOps rpcOps, CordaX500Name myLegalName, int chunkSize, int parallelism) {
+        this(rpcOps, myLegalName, chunkSize, parallelism, null);
+    }
+
+    /**
+     * Has the given oracle attest the rates of each chunk, see [ETFundBulkExercisingFlow.Initiator]. Without an
+     * oracle the rates in the file are used as they are.
+     */
+    public BulkExerciseRunner(CordaRPCOps rpcOps, CordaX500Name myLegalName, int chunkSize, int parallelism, Party oracle) {
+        this(RpcConnectionPool.single(rpcOps), myLegalName, chunkSize, parallelism, oracle);
+    }
+
+    /**
+     * Resolves the funds over the pool's query connections and runs the chunks over its flow connections.
+     */
+    public BulkExerciseRunner(RpcConnectionPool rpc, CordaX500Name myLegalName, int chunkSize, int parallelism, Party oracle) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Chunk size and parallelism must be positive.");
+        }
+        this.rpc = rpc;
+        this.myLegalName = myLegalName;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.oracle = oracle;
+    }
+
+    public void run(RateFileReader rows, ResultSink sink) throws InterruptedException {
+        final int windowSize = chunkSize * parallelism;
+        final Semaphore inFlight = new Semaphore(parallelism);
+        final ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        // The reference ids of the current window.
+        final Set<String> refIdsRead = new HashSet<>();
+        try {
+            final List<RateFileReader.Row> window = new ArrayList<>(windowSize);
+            while (rows.hasNext()) {
+                final RateFileReader.Row row = rows.next();
+                if (!row.isValid()) {
+                    sink.rejected(row, "INVALID", row.getError());
+                    continue;
+                }
+                if (!refIdsRead.add(row.getRefId())) {
+                    sink.rejected(row, "DUPLICATE",
+                            "ETF with reference " + row.getRefId() + " is already in the window.");
+                    continue;
+                }
+                window.add(row);
+                if (window.size() == windowSize) {
+                    dispatch(window, sink, inFlight, workers);
+                    window.clear();
+                    refIdsRead.clear();
+                }
+            }
+            if (!window.isEmpty()) {
+                dispatch(window, sink, inFlight, workers);
+            }
+            // Wait for the last chunks to finish.
+            inFlight.acquire(parallelism);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private void dispatch(List<RateFileReader.Row> window, ResultSink sink, Semaphore inFlight, ExecutorService workers)
+            throws InterruptedException {
+        final Map<String, StateAndRef<ETFundState>> funds;
+        try {
+            funds = lookup(window);
+        } catch (ExecutionException ex) {
+            logger.error("Resolving {} funds failed", window.size(), ex.getCause());
+            window.forEach(row -> sink.rejected(row, "FAILED", ex.getCause().getMessage()));
+            return;
+        }
+        final Map<Party, List<RateFileReader.Row>> byCounterparty = new LinkedHashMap<>();
+        for (RateFileReader.Row row : window) {
+            final StateAndRef<ETFundState> fund = funds.get(row.getRefId());
+            if (fund == null) {
+                sink.rejected(row, "NOT_FOUND", "No unconsumed ETF with reference " + row.getRefId() + ".");
+            } else {
+                final Party counterparty = counterparty(fund.getState().getData());
+                byCounterparty.computeIfAbsent(counterparty, party -> new ArrayList<>()).add(row);
+            }
+        }
+        for (Map.Entry<Party, List<RateFileReader.Row>> entry : byCounterparty.entrySet()) {
+            final List<RateFileReader.Row> rows = entry.getValue();
+            for (int start = 0; start < rows.size(); start += chunkSize) {
+                final List<RateFileReader.Row> chunk = new ArrayList<>(rows.subList(start, Math.min(start + chunkSize, rows.size())));
+                inFlight.acquire();
+                workers.execute(() -> {
+                    try {
+                        exercise(entry.getKey(), chunk, funds, sink);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Resolves the current state of every fund in the rows with a single lookup on the node's reference index.
+     */
+    private Map<String, StateAndRef<ETFundState>> lookup(List<RateFileReader.Row> rows)
+            throws InterruptedException, ExecutionException {
+        final List<String> refIds = new ArrayList<>(rows.size());
+        rows.forEach(row -> refIds.add(row.getRefId()));
+        final List<StateAndRef<ETFundState>> states = rpc.query()
+                .startFlowDynamic(ETFundLookupFlow.class, refIds)
+                .getReturnValue()
+                .get();
+        final Map<String, StateAndRef<ETFundState>> funds = new HashMap<>();
+        for (StateAndRef<ETFundState> stateAndRef : states) {
+            funds.put(stateAndRef.getState().getData().getStructuredProduct().getReferenceId(), stateAndRef);
+        }
+        return funds;
+    }
+
+    private Party counterparty(ETFundState state) {
+        return state.getBuyer().getName().equals(myLegalName) ? state.getSeller() : state.getBuyer();
+    }
+
+    private void exercise(Party counterparty, List<RateFileReader.Row> chunk,
+                          Map<String, StateAndRef<ETFundState>> resolved, ResultSink sink) {
+        final List<ETFRateUpdate> updates = new ArrayList<>(chunk.size());
+        chunk.forEach(row -> updates.add(new ETFRateUpdate(row.getRefId(), row.getEtfRate())));
+        try {
+            final List<SignedTransaction> committed = rpc.flows()
+                    .startFlowDynamic(ETFundBulkExercisingFlow.Initiator.class, counterparty, updates, oracle)
+                    .getReturnValue()
+                    .get();
+            final Map<String, String> txIdByRefId = new HashMap<>();
+            for (SignedTransaction tx : committed) {
+                for (TransactionState<ContractState> output : tx.getTx().getOutputs()) {
+                    if (output.getData() instanceof ETFundState) {
+                        final ETFundState state = (ETFundState) output.getData();
+                        txIdByRefId.put(state.getStructuredProduct().getReferenceId(), tx.getId().toString());
+                    }
+                }
+            }
+            for (RateFileReader.Row row : chunk) {
+                final String txId = txIdByRefId.get(row.getRefId());
+                if (txId != null) {
+                    sink.exercised(row, txId);
+                } else {
+                    sink.rejected(row, "NOT_FOUND", "ETF with reference " + row.getRefId() + " was consumed concurrently.");
+                }
+            }
+        } catch (Throwable ex) {
+            logger.error("Bulk exercise of {} funds with {} failed", chunk.size(), counterparty, ex);
+            reportAfterFailure(chunk, resolved, sink, ex);
+        }
+    }
+
+    /**
+     * Reports the rows of a failed chunk, telling the ones committed before the failure from the others by whether
+     * their fund has moved on from the state it was resolved to.
+     */
+    private void reportAfterFailure(List<RateFileReader.Row> chunk, Map<String, StateAndRef<ETFundState>> resolved,
+                                    ResultSink sink, Throwable failure) {
+        final Map<String, StateAndRef<ETFundState>> current;
+        try {
+            current = lookup(chunk);
+        } catch (InterruptedException | ExecutionException | RuntimeException ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.error("Looking up {} funds after a failed exercise failed", chunk.size(), ex);
+            chunk.forEach(row -> sink.rejected(row, "FAILED", failure.getMessage()));
+            return;
+        }
+        for (RateFileReader.Row row : chunk) {
+            final StateAndRef<ETFundState> now = current.get(row.getRefId());
+            if (now != null && !now.getRef().equals(resolved.get(row.getRefId()).getRef())) {
+                sink.exercised(row, now.getRef().getTxhash().toString());
+            } else {
+                sink.rejected(row, "FAILED", failure.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.cts.api;
+
+import com.cts.schema.KeysetPager;
+import com.cts.state.ETFundState;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Writes the [ETFundState]s in the vault to a stream as CSV or newline-delimited JSON, one page of [pageSize] states
+ * at a time, so memory use does not grow with the size of the export. Each page is flushed before the next is read.
+ * Used by the web server at /api/ETF/export and by [com.cts.client.ETFExportRPC].
+ *
+ * The export covers the time range up to [to], which defaults to the time it starts:
+ *
+ * - UNCONSUMED: the states recorded between [from] and [to] that are unconsumed when their page is read.
+ * - CONSUMED: the states consumed between [from] and [to].
+ * - ALL: the states recorded between [from] and [to].
+ *
+ * The pages are read with a [KeysetPager], each starting after the last state of the one before rather than at a page
+ * number, so states recorded or consumed while the export runs never shift the later pages and no state is written
+ * twice or skipped. A state consumed during an UNCONSUMED export is left out if its page had not been read yet.
+ */
+public class ETFStateExporter {
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int MAX_PAGE_SIZE = 5000;
+
+    private static final String[] COLUMNS = {
+            "stateRef", "recordedTime", "consumedTime", "referenceId", "status", "iterationNo", "etfRate",
+            "maxExposure", "buyer", "seller", "linearId"};
+
+    public enum Format { CSV, NDJSON }
+
+    private final CordaRPCOps rpcOps;
+    private final Format format;
+    private final Vault.StateStatus status;
+    private final Instant from;
+    private final Instant to;
+    private final int pageSize;
+
+    /**
+     * @param from the start of the time range, or null for the start of the vault.
+     * @param to the end of the time range and the time the snapshot is taken at, or null for now.
+     */
+    public ETFStateExporter(CordaRPCOps rpcOps, Format format, Vault.StateStatus status, Instant from, Instant to, int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("The time range ends before it starts.");
+        }
+        this.rpcOps = rpcOps;
+        this.format = format;
+        this.status = status;
+        this.from = from;
+        this.to = to;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Writes the states to the stream and returns how many were written. Leaves the stream open.
+     */
+    public long export(OutputStream output) throws IOException {
+        final KeysetPager<ETFundState> pages = KeysetPager.of(
+                rpcOps, ETFundState.class, status, from, to != null ? to : Instant.now(), pageSize);
+
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        // One object per line: no separator between root values, the newline is written after each.
+        final JsonGenerator json = format == Format.NDJSON
+                ? new JsonFactory().setRootValueSeparator(null).createGenerator(writer)
+                : null;
+        if (format == Format.CSV) {
+            writer.write(String.join(",", COLUMNS));
+            writer.write('\n');
+        }
+        long written = 0;
+        while (pages.hasNext()) {
+            final KeysetPager.Page<ETFundState> page = pages.next();
+            final List<StateAndRef<ETFundState>> states = page.getStates();
+            for (int i = 0; i < states.size(); i++) {
+                final String[] row = row(states.get(i), page.getStatesMetadata().get(i));
+                if (json != null) {
+                    writeJson(json, row);
+                } else {
+                    writeCsv(writer, row);
+                }
+                written++;
+            }
+            if (json != null) {
+                json.flush();
+            }
+            writer.flush();
+        }
+        return written;
+    }
+
+    private static String[] row(StateAndRef<ETFundState> stateAndRef, Vault.StateMetadata metadata) {
+        final ETFundState state = stateAndRef.getState().getData();
+        return new String[]{
+                stateAndRef.getRef().getTxhash() + ":" + stateAndRef.getRef().getIndex(),
+                metadata.getRecordedTime().toString(),
+                metadata.getConsumedTime() == null ? null : metadata.getConsumedTime().toString(),
+                state.getStructuredProduct().getReferenceId(),
+                String.valueOf(state.getStatus()),
+                String.valueOf(state.getIterationNo()),
+                String.valueOf(state.getEtfRate()),
+                String.valueOf(state.getStructuredProduct().getMaxExposure()),
+                state.getBuyer().getName().toString(),
+                state.getSeller().getName().toString(),
+                state.getLinearId().getId().toString()};
+    }
+
+    private static void writeJson(JsonGenerator json, String[] row) throws IOException {
+        json.writeStartObject();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            json.writeStringField(COLUMNS[i], row[i]);
+        }
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private static void writeCsv(Writer writer, String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(csvField(row[i]));
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Quotes a field that holds a separator or quote, as X.500 names do. Null is written as an empty field.
+     */
+    static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -1,44 +1,88 @@
 package com.cts.api;
 
+import com.cts.contract.ETFundCompactionContract;
+import com.cts.flow.ETFExposureFlow;
+import com.cts.flow.ETFMetricsFlow;
+import com.cts.flow.ETFundBatchInceptionFlow;
+import com.cts.flow.ETFundCompactionFlow;
 import com.cts.flow.ETFundInceptionFlow;
-import com.cts.flow.ETFundExersizingFlow;
+import com.cts.flow.ETFundLookupFlow;
+import com.cts.flow.ETFundExerciseAndBookFlow;
+import com.cts.service.ETFExposure;
+import com.cts.service.ETFRateOracle;
+import com.cts.service.ProgressLogSampler;
 import com.cts.state.ETFundState;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.messaging.FlowProgressHandle;
 import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.Vault;
 import net.corda.core.transactions.SignedTransaction;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 
 import static java.util.stream.Collectors.toList;
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
 // This API is accessible from /api/example. All paths specified below are relative to it.
 @Path("ETF")
 public class ETFundEndPoint {
     private final CordaRPCOps rpcOps;
+    private final RpcConnectionPool rpc;
     private final CordaX500Name myLegalName;
 
     private final List<String> serviceNames = ImmutableList.of("Controller", "Network Map Service");
 
-    static private final Logger logger = LoggerFactory.getLogger(ETFApi.class);
+    private final NetworkIdentityCache identities;
+    private final FlowJobTable jobs = new FlowJobTable();
 
-    public ETFApi(CordaRPCOps rpcOps) {
+    public static final String METRICS_MAX_AGE_MILLIS_PROPERTY = "etf.metrics.maxAgeMillis";
+    public static final long DEFAULT_METRICS_MAX_AGE_MILLIS = 5000;
+    private final long metricsMaxAgeMillis = Long.getLong(METRICS_MAX_AGE_MILLIS_PROPERTY, DEFAULT_METRICS_MAX_AGE_MILLIS);
+    // The last metrics read from the node, and when; guarded by this.
+    private String metrics;
+    private long metricsReadAt;
+
+    static private final Logger logger = LoggerFactory.getLogger(ETFundEndPoint.class);
+    static private final Logger progressLogger = LoggerFactory.getLogger("com.cts.api.progress");
+
+    public ETFundEndPoint(CordaRPCOps rpcOps) {
         this.rpcOps = rpcOps;
+        this.rpc = RpcConnectionPool.of(rpcOps);
         this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+        this.identities = NetworkIdentityCache.of(rpcOps);
     }
 
     /**
@@ -51,38 +95,43 @@ public class ETFundEndPoint {
         return ImmutableMap.of("me", myLegalName);
     }
 
+    /**
+     * Starts the inception flow for a new ETF.
+     *
+     * By default the call blocks until the transaction is committed. With async=true the flow is only started and the
+     * call returns 202 with the flow run id straight away; the outcome can then be polled from /ETF/jobs/{id}.
+     */
     @POST
     @Path("inception")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response createProduct(ETFund etfund) {
+    public Response createProduct(ETFund etfund, @QueryParam("async") boolean async) {
 
-        System.out.println("Received ETFund " + etfund);
+        logger.debug("Received ETFund {}", etfund);
 
         String otherPartyName = "AP";
         if (myLegalName.equals("AP")) {
             otherPartyName = "ETFSponsor";
         }
 
-        System.out.println("After getting Node Name " + etfund);
-        final Party otherParty = services.partyFromName(otherPartyName);
-        final Party buyer = services.partyFromName(etfund.getBuyer());
-        final Party seller = services.partyFromName(etfund.getSeller());
-        System.out.println("After creating Node Objects");
+        final Party otherParty = identities.partyFromName(otherPartyName);
+        final Party buyer = identities.partyFromName(etfund.getBuyer());
+        final Party seller = identities.partyFromName(etfund.getSeller());
         final ETFundState state = new ETFundState(
                 etfund,
                 buyer,
                 seller,
                 ETFundStateStatus.INCEPTION,
-                new ETFundContract());
-
-        System.out.println("After creating ETFundState");
+                new ETFundCompactionContract());
         Response.Status status;
         status = Response.Status.CREATED;
         String msg = "Done ";
+        if (async) {
+            return startJob(ETFundInceptionFlow.Initiator.class, state, otherParty);
+        }
         try {
-            FlowProgressHandle<SignedTransaction> flowHandle = services
+            FlowProgressHandle<SignedTransaction> flowHandle = rpc.flows()
                     .startTrackedFlowDynamic(ETFundInceptionFlow.Initiator.class, state, otherParty);
-            flowHandle.getProgress().subscribe(evt -> System.out.printf(">> %s\n", evt));
+            logProgress(flowHandle, etfund.getReferenceId(), otherParty);
 
             // The line below blocks and waits for the flow to return.
             final SignedTransaction result = flowHandle
@@ -95,7 +144,6 @@ public class ETFundEndPoint {
         } catch (Throwable ex) {
             status = Response.Status.BAD_REQUEST;
             msg = "Transaction failed.";
-            ex.printStackTrace();
             logger.error(ex.getMessage(), ex);
         }
 
@@ -105,52 +153,122 @@ public class ETFundEndPoint {
                 .build();
     }
 
+    /**
+     * Starts the batch inception flow for a list of new ETFs. The funds are issued chunkSize at a time, one
+     * transaction per chunk, and the ids of the committed transactions are returned in order. Every fund must be
+     * between this node and its counterparty, who signs every chunk.
+     */
+    @POST
+    @Path("inception/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response createProducts(List<ETFund> etfunds,
+                                   @DefaultValue("" + ETFundBatchInceptionFlow.DEFAULT_CHUNK_SIZE) @QueryParam("chunkSize") int chunkSize) {
+        if (etfunds == null || etfunds.isEmpty()) {
+            return Response.status(BAD_REQUEST).entity("At least one ETF must be supplied.").build();
+        }
+        if (chunkSize <= 0) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'chunkSize' must be positive.").build();
+        }
+
+        String otherPartyName = "AP";
+        if (myLegalName.equals("AP")) {
+            otherPartyName = "ETFSponsor";
+        }
+        final Party otherParty = identities.partyFromName(otherPartyName);
+        // A batch is signed by us and the one counterparty, so every fund must be between the two of us.
+        final Set<Party> signers = ImmutableSet.of(rpcOps.nodeInfo().getLegalIdentities().get(0), otherParty);
+
+        final List<ETFundState> states = new ArrayList<>(etfunds.size());
+        for (ETFund etfund : etfunds) {
+            final Party buyer = identities.partyFromName(etfund.getBuyer());
+            final Party seller = identities.partyFromName(etfund.getSeller());
+            if (buyer == null || seller == null || !signers.equals(ImmutableSet.of(buyer, seller))) {
+                final String msg = "ETF " + etfund.getReferenceId() + " must be between "
+                        + myLegalName.getOrganisation() + " and " + otherPartyName + " to be issued in a batch.";
+                return Response.status(BAD_REQUEST).entity(msg).build();
+            }
+            states.add(new ETFundState(
+                    etfund,
+                    buyer,
+                    seller,
+                    ETFundStateStatus.INCEPTION,
+                    new ETFundCompactionContract()));
+        }
+
+        try {
+            FlowProgressHandle<List<SignedTransaction>> flowHandle = rpc.flows()
+                    .startTrackedFlowDynamic(ETFundBatchInceptionFlow.Initiator.class, states, otherParty, chunkSize);
+
+            // The line below blocks and waits for every chunk to be committed.
+            final List<SignedTransaction> results = flowHandle
+                    .getReturnValue()
+                    .get();
+
+            return Response.status(CREATED).entity(ImmutableMap.of("transactions", results
+                    .stream()
+                    .map(tx -> tx.getId().toString())
+                    .collect(toList()))).build();
+
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity("Transaction failed.").build();
+        }
+    }
+
 
     @GET
     @Path("trigger-exercising")
     public Response triggerExercisingFlow(@Context UriInfo info) {
 
-        System.out.println("Inside triggerExercisingFlow WS Call");
-
         String otherPartyName = "AP";
         if (myLegalName.equals("AP")) {
             otherPartyName = "ETFSponsor";
         }
 
-        final Party otherParty = services.partyFromName(otherPartyName);
+        final Party otherParty = identities.partyFromName(otherPartyName);
 
-        String refId = null, etfRate = null;
+        String refId = null, etfRate = null, oracleName = null;
         if (info.getQueryParameters() != null && info.getQueryParameters().size() > 0) {
             refId = info.getQueryParameters().getFirst("refid");
             etfRate = info.getQueryParameters().getFirst("etfrate");
+            oracleName = info.getQueryParameters().getFirst("oracle");
         }
-        System.out.println("Extracted FxRate: " + fxRate + "and RefID: " + refId);
+        try {
+            oracleName = oracleName(oracleName);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage()).build();
+        }
+        final Party oracle = oracleName != null ? identities.partyFromName(oracleName) : null;
+        if (oracleName != null && oracle == null) {
+            return Response.status(BAD_REQUEST).entity("Unknown oracle " + oracleName + ".").build();
+        }
+        logger.debug("Exercising {} at rate {}", refId, etfRate);
         Response.Status status;
         status = Response.Status.CREATED;
         String msg = "Done ";
         try {
-            FlowProgressHandle<SignedTransaction> flowHandle = services
-                    .startTrackedFlowDynamic(ETFundExersizingFlow.Initiator.class, otherParty, refId, new Float(etfRate));
-            flowHandle.getProgress().subscribe(evt -> System.out.printf(">> %s\n", evt));
+            // Exercises the fund and books the trade in a single transaction. If an oracle is named or required it
+            // attests the rate, or supplies it when none is given; otherwise a missing rate is taken from the NAV of
+            // the basket.
+            final FlowProgressHandle<SignedTransaction> flowHandle;
+            if (oracle != null) {
+                flowHandle = rpc.flows().startTrackedFlowDynamic(ETFundExerciseAndBookFlow.Initiator.class, otherParty, refId,
+                        etfRate == null ? null : new Float(etfRate), oracle);
+            } else if (etfRate == null) {
+                flowHandle = rpc.flows().startTrackedFlowDynamic(ETFundExerciseAndBookFlow.Initiator.class, otherParty, refId);
+            } else {
+                flowHandle = rpc.flows().startTrackedFlowDynamic(ETFundExerciseAndBookFlow.Initiator.class, otherParty, refId, new Float(etfRate));
+            }
+            logProgress(flowHandle, refId, otherParty);
 
             // The line below blocks and waits for the flow to return.
-            SignedTransaction result = flowHandle
-                    .getReturnValue()
-                    .get();
-
-
-            flowHandle = services
-                    .startTrackedFlowDynamic(ETFundBookingFlow.Initiator.class, otherParty, refId, new Float(fxRate));
-            flowHandle.getProgress().subscribe(evt -> System.out.printf(">> %s\n", evt));
-
-            // The line below blocks and waits for the flow to return.
-            result = flowHandle
+            final SignedTransaction result = flowHandle
                     .getReturnValue()
                     .get();
 
-
             status = Response.Status.CREATED;
-            msg = "Transactions committed to ledger.\n ETF Trade Booking complete";
+            msg = String.format("Transaction id %s committed to ledger.\n ETF Trade Booking complete", result.getId());
 
         } catch (Throwable ex) {
             status = Response.Status.BAD_REQUEST;
@@ -165,4 +283,345 @@ public class ETFundEndPoint {
     }
 
 
+    /**
+     * Re-issues a fund on a fresh back-chain, either the one named by refId or, with minIteration, every fund that has
+     * been exercised at least that many times, up to limit of them. With exitTxId, finishes a compaction that exited
+     * the fund in that transaction but failed to reissue it. Returns the ids of the reissue transactions.
+     */
+    @POST
+    @Path("compaction")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response compact(@QueryParam("refId") String refId,
+                            @QueryParam("minIteration") Integer minIteration,
+                            @QueryParam("exitTxId") String exitTxId,
+                            @DefaultValue("100") @QueryParam("limit") int limit) {
+        if ((refId != null ? 1 : 0) + (minIteration != null ? 1 : 0) + (exitTxId != null ? 1 : 0) != 1) {
+            return Response.status(BAD_REQUEST).entity("Exactly one of query parameters 'refId', 'minIteration' and 'exitTxId' must be supplied.").build();
+        }
+        if ((minIteration != null && minIteration <= 0) || limit <= 0) {
+            return Response.status(BAD_REQUEST).entity("Query parameters 'minIteration' and 'limit' must be positive.").build();
+        }
+        try {
+            final List<SignedTransaction> results;
+            if (refId != null) {
+                final List<StateAndRef<ETFundState>> states = rpc.query()
+                        .startFlowDynamic(ETFundLookupFlow.class, ImmutableList.of(refId))
+                        .getReturnValue()
+                        .get();
+                if (states.isEmpty()) {
+                    return Response.status(NOT_FOUND).entity("No ETF with reference " + refId + ".").build();
+                }
+                final ETFundState state = states.get(0).getState().getData();
+                final Party counterparty = state.getBuyer().getName().equals(myLegalName) ? state.getSeller() : state.getBuyer();
+                results = ImmutableList.of(rpc.flows()
+                        .startFlowDynamic(ETFundCompactionFlow.Initiator.class, counterparty, refId)
+                        .getReturnValue()
+                        .get());
+            } else if (exitTxId != null) {
+                final SecureHash exitId;
+                try {
+                    exitId = SecureHash.parse(exitTxId);
+                } catch (IllegalArgumentException ex) {
+                    return Response.status(BAD_REQUEST).entity("Query parameter 'exitTxId' is not a transaction id.").build();
+                }
+                results = ImmutableList.of(rpc.flows()
+                        .startFlowDynamic(ETFundCompactionFlow.Initiator.class, exitId)
+                        .getReturnValue()
+                        .get());
+            } else {
+                results = rpc.flows()
+                        .startFlowDynamic(ETFundCompactionFlow.ThresholdInitiator.class, minIteration, limit)
+                        .getReturnValue()
+                        .get();
+            }
+            return Response.ok(ImmutableMap.of("transactions", results
+                    .stream()
+                    .map(tx -> tx.getId().toString())
+                    .collect(toList()))).build();
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity("Compaction failed.").build();
+        }
+    }
+
+    /**
+     * Exercises every fund in an end-of-day rate file, either CSV lines of "refId,etfRate" or a JSON array of
+     * {"refId", "etfRate"} objects. The file is streamed, funds are exercised in chunks per counterparty with at most
+     * parallelism chunks in flight, and one JSON result line per row is streamed back as its chunk completes. If an
+     * oracle is named or required, it must attest every rate, and chunks with a rate it does not hold are rejected. A
+     * fund given more than once in a window of rows is exercised at its first rate, and its later rows are rejected as
+     * DUPLICATE, see [BulkExerciseRunner].
+     */
+    @POST
+    @Path("exercise/bulk")
+    @Consumes({"text/csv", MediaType.APPLICATION_JSON})
+    @Produces("application/x-ndjson")
+    public Response bulkExercise(InputStream rateFile,
+                                 @HeaderParam("Content-Type") String contentType,
+                                 @DefaultValue("" + BulkExerciseRunner.DEFAULT_CHUNK_SIZE) @QueryParam("chunkSize") int chunkSize,
+                                 @DefaultValue("" + BulkExerciseRunner.DEFAULT_PARALLELISM) @QueryParam("parallelism") int parallelism,
+                                 @QueryParam("oracle") String oracleName) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            return Response.status(BAD_REQUEST).entity("Query parameters 'chunkSize' and 'parallelism' must be positive.").build();
+        }
+        final boolean json = contentType != null && contentType.startsWith(MediaType.APPLICATION_JSON);
+        try {
+            oracleName = oracleName(oracleName);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage()).build();
+        }
+        final Party oracle = oracleName != null ? identities.partyFromName(oracleName) : null;
+        if (oracleName != null && oracle == null) {
+            return Response.status(BAD_REQUEST).entity("Unknown oracle " + oracleName + ".").build();
+        }
+        final BulkExerciseRunner runner = new BulkExerciseRunner(rpc, myLegalName, chunkSize, parallelism, oracle);
+        final StreamingOutput results = output -> {
+            final JsonGenerator generator = new JsonFactory().createGenerator(output);
+            try (RateFileReader rows = json ? RateFileReader.json(rateFile) : RateFileReader.csv(rateFile)) {
+                runner.run(rows, new BulkExerciseRunner.ResultSink() {
+                    @Override
+                    public void exercised(RateFileReader.Row row, String txId) {
+                        writeResult(generator, row, "EXERCISED", "txId", txId);
+                    }
+
+                    @Override
+                    public void rejected(RateFileReader.Row row, String status, String reason) {
+                        writeResult(generator, row, status, "error", reason);
+                    }
+                });
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Bulk exercise interrupted", ex);
+            } finally {
+                generator.close();
+            }
+        };
+        return Response.ok(results).build();
+    }
+
+    /**
+     * Returns the oracle an exercise must be attested by: the one named by the etf.oracle.required property if it is
+     * set, see [ETFRateOracle], otherwise the requested one, which may be null.
+     *
+     * @throws IllegalArgumentException if the request names an oracle other than the required one.
+     */
+    private static String oracleName(String requested) {
+        final String required = System.getProperty(ETFRateOracle.REQUIRED_ORACLE_PROPERTY);
+        if (required == null) {
+            return requested;
+        }
+        if (requested != null && !requested.equals(required)) {
+            throw new IllegalArgumentException("Rates must be attested by oracle " + required + ".");
+        }
+        return required;
+    }
+
+    private static void writeResult(JsonGenerator generator, RateFileReader.Row row, String status, String field, String value) {
+        synchronized (generator) {
+            try {
+                generator.writeStartObject();
+                generator.writeNumberField("row", row.getRow());
+                generator.writeStringField("refId", row.getRefId());
+                generator.writeStringField("status", status);
+                generator.writeStringField(field, value);
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                generator.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Exports the ETF states as CSV (format=csv) or newline-delimited JSON (format=ndjson), streamed a page at a time
+     * so the response can be any size. status is UNCONSUMED, CONSUMED or ALL, and from and to are ISO-8601 instants
+     * bounding the recorded time, or the consumed time for CONSUMED, see [ETFStateExporter].
+     */
+    @GET
+    @Path("export")
+    @Produces({"text/csv", "application/x-ndjson"})
+    public Response export(@DefaultValue("csv") @QueryParam("format") String formatName,
+                           @DefaultValue("UNCONSUMED") @QueryParam("status") String statusName,
+                           @QueryParam("from") String fromTime,
+                           @QueryParam("to") String toTime,
+                           @DefaultValue("" + ETFStateExporter.DEFAULT_PAGE_SIZE) @QueryParam("pageSize") int pageSize) {
+        final ETFStateExporter.Format format;
+        final ETFStateExporter exporter;
+        try {
+            format = ETFStateExporter.Format.valueOf(formatName.toUpperCase());
+            exporter = new ETFStateExporter(rpc.query(), format, Vault.StateStatus.valueOf(statusName.toUpperCase()),
+                    fromTime == null ? null : Instant.parse(fromTime),
+                    toTime == null ? null : Instant.parse(toTime),
+                    pageSize);
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            return Response.status(BAD_REQUEST).entity("Invalid export parameters: " + ex.getMessage()).build();
+        }
+        final StreamingOutput states = output -> {
+            final long exported = exporter.export(output);
+            logger.info("Exported {} ETF states", exported);
+        };
+        return Response.ok(states, format == ETFStateExporter.Format.CSV ? "text/csv" : "application/x-ndjson")
+                .header("Content-Disposition", "attachment; filename=\"etf-states." + formatName.toLowerCase() + "\"")
+                .build();
+    }
+
+    /**
+     * Streams the produced and consumed ETF states as server-sent "vault-update" events, so the web UI can apply
+     * deltas instead of polling the listing.
+     */
+    @GET
+    @Path("stream")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public EventOutput streamUpdates() {
+        return VaultUpdateBroadcaster.of(rpcOps).connect();
+    }
+
+    /**
+     * Returns the node's per-flow and per-step latency histograms and flow counters in the Prometheus text format, for
+     * scraping. They are read from the node at most once every [METRICS_MAX_AGE_MILLIS_PROPERTY] milliseconds, so
+     * scrapes do not each start a flow. Scrapers with JMX access to the node can instead read
+     * [com.cts.service.ETFFlowMetrics.OBJECT_NAME] directly.
+     */
+    @GET
+    @Path("metrics")
+    @Produces("text/plain; version=0.0.4")
+    public Response metrics() {
+        try {
+            return Response.ok(metricsText()).build();
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("Metrics unavailable.").build();
+        }
+    }
+
+    private synchronized String metricsText() throws Exception {
+        final long now = System.currentTimeMillis();
+        if (metrics == null || now - metricsReadAt >= metricsMaxAgeMillis) {
+            metrics = rpc.query().startFlowDynamic(ETFMetricsFlow.class).getReturnValue().get();
+            metricsReadAt = now;
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns whether each of the web APIs' pooled RPC connections is up, see [RpcConnectionPool].
+     */
+    @GET
+    @Path("rpc-pool")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Boolean> rpcPool() {
+        return rpc.status();
+    }
+
+    /**
+     * Returns the running maxExposure totals kept by the node: of the fund named by refId, of the party named by
+     * party, or of every party with a live fund when neither is given.
+     */
+    @GET
+    @Path("exposure")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exposure(@QueryParam("party") String partyName, @QueryParam("refId") String refId) {
+        final Party party = partyName != null ? identities.partyFromName(partyName) : null;
+        if (partyName != null && party == null) {
+            return Response.status(BAD_REQUEST).entity("Unknown party " + partyName + ".").build();
+        }
+        try {
+            final List<ETFExposure> totals = rpc.query().startFlowDynamic(ETFExposureFlow.class, party, refId)
+                    .getReturnValue()
+                    .get();
+            if (refId != null && totals.isEmpty()) {
+                return Response.status(NOT_FOUND).entity("No ETF with reference " + refId + ".").build();
+            }
+            return Response.ok(totals).build();
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("Exposure unavailable.").build();
+        }
+    }
+
+    /**
+     * Returns the status, latest progress step and, once committed, the transaction id of a flow started in
+     * asynchronous mode. Finished jobs are only kept for a limited time.
+     */
+    @GET
+    @Path("jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJob(@PathParam("id") String id) {
+        final UUID jobId;
+        try {
+            jobId = UUID.fromString(id);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity("Invalid job id " + id).build();
+        }
+        final FlowJobTable.FlowJob job = jobs.get(jobId);
+        if (job == null) {
+            return Response.status(NOT_FOUND).entity("Unknown or expired job " + id).build();
+        }
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", job.getId().toString());
+        body.put("status", job.getStatus().name());
+        body.put("progress", job.getProgress());
+        body.put("txId", job.getTxId() == null ? null : job.getTxId().toString());
+        body.put("error", job.getError());
+        return Response.ok(body).build();
+    }
+
+    /**
+     * Logs the progress steps of the flow if [ProgressLogSampler] picks it, with the flow's id, fund and counterparty
+     * in the MDC. The progress of the other flows is not sent to the web server at all.
+     */
+    private static void logProgress(FlowProgressHandle<?> flowHandle, String refId, Party counterparty) {
+        final UUID flowId = flowHandle.getId().getUuid();
+        if (!ProgressLogSampler.isSampled(flowId)) {
+            flowHandle.getProgress().subscribe().unsubscribe();
+            return;
+        }
+        flowHandle.getProgress().subscribe(step -> {
+            MDC.put("flowId", flowId.toString());
+            MDC.put("refId", refId);
+            MDC.put("counterparty", counterparty.getName().toString());
+            try {
+                progressLogger.info("Progress: {}", step);
+            } finally {
+                MDC.remove("flowId");
+                MDC.remove("refId");
+                MDC.remove("counterparty");
+            }
+        });
+    }
+
+    /**
+     * Starts a flow without waiting for it and records its progress and outcome in the job table.
+     */
+    private Response startJob(Class<? extends FlowLogic<SignedTransaction>> flowClass, Object... args) {
+        final FlowProgressHandle<SignedTransaction> flowHandle;
+        try {
+            flowHandle = rpc.flows().startTrackedFlowDynamic(flowClass, args);
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity("Transaction failed.").build();
+        }
+        final UUID jobId = flowHandle.getId().getUuid();
+        jobs.start(jobId);
+        flowHandle.getProgress().subscribe(step -> jobs.progress(jobId, step), error -> {
+            // Without the progress feed the outcome cannot be relied on either, so stop reporting the job as running.
+            logger.error("Lost the progress of job " + jobId, error);
+            jobs.fail(jobId, "Lost the progress of the flow: " + error.getMessage());
+        });
+        flowHandle.getReturnValue().then(future -> {
+            try {
+                jobs.complete(jobId, future.get().getId());
+            } catch (Throwable ex) {
+                logger.error(ex.getMessage(), ex);
+                jobs.fail(jobId, ex.getMessage());
+            }
+            return null;
+        });
+        return Response
+                .status(ACCEPTED)
+                .entity(ImmutableMap.of("id", jobId.toString()))
+                .build();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package com.cts.api;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import net.corda.core.crypto.SecureHash;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the flows started in asynchronous mode by the [ETFundEndPoint].
+ *
+ * Running jobs are held until their flow returns, but at most [DEFAULT_MAX_RUNNING] of them and for at most
+ * [DEFAULT_RUNNING_TIMEOUT_MINUTES]: a job whose flow never reports an outcome, e.g. because the connection to the
+ * node was lost, is marked failed when it is pushed out. Finished jobs are moved into a bounded cache which expires
+ * entries a fixed time after completion, so the table does not grow under sustained load.
+ */
+public class FlowJobTable {
+    public static final long DEFAULT_MAX_RUNNING = 10_000;
+    public static final long DEFAULT_RUNNING_TIMEOUT_MINUTES = 60;
+    public static final long DEFAULT_MAX_COMPLETED = 10_000;
+    public static final long DEFAULT_RETENTION_MINUTES = 15;
+
+    private final Cache<UUID, FlowJob> running;
+    private final Cache<UUID, FlowJob> completed;
+
+    public FlowJobTable() {
+        this(DEFAULT_MAX_COMPLETED, DEFAULT_RETENTION_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public FlowJobTable(long maxCompleted, long retention, TimeUnit retentionUnit) {
+        this(DEFAULT_MAX_RUNNING, retentionUnit.convert(DEFAULT_RUNNING_TIMEOUT_MINUTES, TimeUnit.MINUTES),
+                maxCompleted, retention, retentionUnit, Ticker.systemTicker());
+    }
+
+    FlowJobTable(long maxRunning, long runningTimeout,
+                 long maxCompleted, long retention, TimeUnit unit, Ticker ticker) {
+        this.running = CacheBuilder.newBuilder()
+                .maximumSize(maxRunning)
+                .expireAfterWrite(runningTimeout, unit)
+                .ticker(ticker)
+                .removalListener(this::abandoned)
+                .build();
+        this.completed = CacheBuilder.newBuilder()
+                .maximumSize(maxCompleted)
+                .expireAfterWrite(retention, unit)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Registers a newly started flow.
+     */
+    public FlowJob start(UUID id) {
+        final FlowJob job = new FlowJob(id);
+        running.put(id, job);
+        return job;
+    }
+
+    /**
+     * Records the latest progress tracker step reported by a running flow.
+     */
+    public void progress(UUID id, String step) {
+        final FlowJob job = running.getIfPresent(id);
+        if (job != null) {
+            job.progress = step;
+        }
+    }
+
+    /**
+     * Marks a flow as committed to the ledger with the given transaction id.
+     */
+    public void complete(UUID id, SecureHash txId) {
+        finish(id, FlowJob.Status.COMPLETED, txId, null);
+    }
+
+    /**
+     * Marks a flow as failed.
+     */
+    public void fail(UUID id, String error) {
+        finish(id, FlowJob.Status.FAILED, null, error);
+    }
+
+    /**
+     * Returns the job with the given id, or null if it is unknown or has expired.
+     */
+    public FlowJob get(UUID id) {
+        final FlowJob job = running.getIfPresent(id);
+        return job != null ? job : completed.getIfPresent(id);
+    }
+
+    public int runningCount() {
+        running.cleanUp();
+        return (int) running.size();
+    }
+
+    /**
+     * Marks a job failed when it is pushed out of the running table before its flow reported an outcome.
+     */
+    private void abandoned(RemovalNotification<UUID, FlowJob> removal) {
+        if (removal.getCause() == RemovalCause.EXPIRED) {
+            finished(removal.getValue(), FlowJob.Status.FAILED, null, "No outcome reported by the flow in time.");
+        } else if (removal.getCause() == RemovalCause.SIZE) {
+            finished(removal.getValue(), FlowJob.Status.FAILED, null, "Too many running jobs to keep track of it.");
+        }
+    }
+
+    private void finish(UUID id, FlowJob.Status status, SecureHash txId, String error) {
+        final FlowJob job = running.asMap().remove(id);
+        if (job == null) {
+            return;
+        }
+        finished(job, status, txId, error);
+    }
+
+    private void finished(FlowJob job, FlowJob.Status status, SecureHash txId, String error) {
+        job.txId = txId;
+        job.error = error;
+        job.status = status;
+        completed.put(job.getId(), job);
+    }
+
+    /**
+     * A snapshot of an asynchronous flow run, as returned by GET /ETF/jobs/{id}.
+     */
+    public static class FlowJob {
+        public enum Status { RUNNING, COMPLETED, FAILED }
+
+        private final UUID id;
+        private volatile Status status = Status.RUNNING;
+        private volatile String progress;
+        private volatile SecureHash txId;
+        private volatile String error;
+
+        FlowJob(UUID id) {
+            this.id = id;
+        }
+
+        public UUID getId() { return id; }
+        public Status getStatus() { return status; }
+        public String getProgress() { return progress; }
+        public SecureHash getTxId() { return txId; }
+        public String getError() { return error; }
+    }
+}
@@ -0,0 +1,120 @@
+package com.cts.api;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * An in-memory view of the network map shared by the web APIs.
+ *
+ * Seeded once from [CordaRPCOps.networkMapFeed] and kept current from its updates, so party lookups and the peers
+ * listing are answered without an RPC round trip per request.
+ *
+ * Organisation names are not unique on a network, so they map to every party that has them, and a name that more
+ * than one party has does not identify any of them.
+ */
+public class NetworkIdentityCache {
+    static private final Logger logger = LoggerFactory.getLogger(NetworkIdentityCache.class);
+
+    private static final Map<CordaRPCOps, NetworkIdentityCache> instances = new IdentityHashMap<>();
+
+    private final Map<CordaX500Name, Party> byName = new ConcurrentHashMap<>();
+    // Guarded by itself.
+    private final SetMultimap<String, Party> byOrganisation = HashMultimap.create();
+
+    /**
+     * Returns the cache for the given node connection, creating and seeding it on first use.
+     */
+    public static NetworkIdentityCache of(CordaRPCOps rpcOps) {
+        synchronized (instances) {
+            return instances.computeIfAbsent(rpcOps, NetworkIdentityCache::new);
+        }
+    }
+
+    private NetworkIdentityCache(CordaRPCOps rpcOps) {
+        final DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> feed = rpcOps.networkMapFeed();
+        feed.getSnapshot().forEach(this::add);
+        feed.getUpdates().subscribe(this::onChange, error -> logger.error("Network map feed failed", error));
+    }
+
+    /**
+     * Looks a party up by its organisation name, or failing that by its full X.500 name. Returns null if no party has
+     * the name, or if the organisation name is shared by several parties.
+     */
+    public Party partyFromName(String name) {
+        final Set<Party> byOrg;
+        synchronized (byOrganisation) {
+            byOrg = ImmutableSet.copyOf(byOrganisation.get(name));
+        }
+        if (byOrg.size() == 1) {
+            return byOrg.iterator().next();
+        }
+        if (byOrg.size() > 1) {
+            logger.warn("Organisation name {} is ambiguous, it is shared by {}", name, byOrg);
+            return null;
+        }
+        try {
+            return byName.get(CordaX500Name.parse(name));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    public Party wellKnownPartyFromX500Name(CordaX500Name name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Returns the names of all parties except the given node and the listed service organisations.
+     */
+    public List<CordaX500Name> peers(CordaX500Name me, Collection<String> excludedOrganisations) {
+        return byName.keySet()
+                .stream()
+                .filter(name -> !name.equals(me) && !excludedOrganisations.contains(name.getOrganisation()))
+                .collect(toList());
+    }
+
+    private void onChange(NetworkMapCache.MapChange change) {
+        if (change instanceof NetworkMapCache.MapChange.Removed) {
+            remove(change.getNode());
+        } else if (change instanceof NetworkMapCache.MapChange.Modified) {
+            remove(((NetworkMapCache.MapChange.Modified) change).getPreviousNode());
+            add(change.getNode());
+        } else {
+            add(change.getNode());
+        }
+    }
+
+    private void add(NodeInfo node) {
+        final Party party = node.getLegalIdentities().get(0);
+        byName.put(party.getName(), party);
+        synchronized (byOrganisation) {
+            byOrganisation.put(party.getName().getOrganisation(), party);
+        }
+    }
+
+    private void remove(NodeInfo node) {
+        final Party party = node.getLegalIdentities().get(0);
+        byName.remove(party.getName(), party);
+        synchronized (byOrganisation) {
+            byOrganisation.remove(party.getName().getOrganisation(), party);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.cts.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads an end-of-day rate file one row at a time, so a file of any size can be processed in constant memory.
+ *
+ * Two formats are supported: CSV lines of "refId,etfRate" with an optional header line, and a JSON array of
+ * {"refId": ..., "etfRate": ...} objects. Rows that cannot be parsed are returned with an error rather than failing
+ * the whole file.
+ */
+public abstract class RateFileReader implements Iterator<RateFileReader.Row>, Closeable {
+    private Row next;
+    private int rowNumber;
+
+    public static RateFileReader csv(InputStream in) {
+        return new Csv(in);
+    }
+
+    public static RateFileReader json(InputStream in) throws IOException {
+        return new Json(in);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readRow(rowNumber + 1);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (next != null) {
+                rowNumber = next.getRow();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Row row = next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * Returns the next row, numbered from the given row number, or null at the end of the file.
+     */
+    protected abstract Row readRow(int rowNumber) throws IOException;
+
+    /**
+     * A single row of the rate file.
+     */
+    public static class Row {
+        private final int row;
+        private final String refId;
+        private final Float etfRate;
+        private final String error;
+
+        Row(int row, String refId, Float etfRate, String error) {
+            this.row = row;
+            this.refId = refId;
+            this.etfRate = etfRate;
+            this.error = error;
+        }
+
+        public int getRow() { return row; }
+        public String getRefId() { return refId; }
+        public Float getEtfRate() { return etfRate; }
+        public String getError() { return error; }
+        public boolean isValid() { return error == null; }
+    }
+
+    private static Row parse(int rowNumber, String refId, String rate) {
+        if (refId == null || refId.isEmpty()) {
+            return new Row(rowNumber, refId, null, "Missing refId.");
+        }
+        try {
+            final float etfRate = Float.parseFloat(rate.trim());
+            if (Float.isNaN(etfRate) || Float.isInfinite(etfRate)) {
+                return new Row(rowNumber, refId, null, "Invalid etfRate " + rate + ".");
+            }
+            return new Row(rowNumber, refId, etfRate, null);
+        } catch (NullPointerException | NumberFormatException ex) {
+            return new Row(rowNumber, refId, null, "Invalid etfRate " + rate + ".");
+        }
+    }
+
+    private static class Csv extends RateFileReader {
+        private final BufferedReader reader;
+        private boolean first = true;
+
+        private Csv(InputStream in) {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        protected Row readRow(int rowNumber) throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] fields = line.split(",", -1);
+                final boolean header = first && fields.length == 2 && fields[1].trim().equalsIgnoreCase("etfRate");
+                first = false;
+                if (header) {
+                    continue;
+                }
+                if (fields.length != 2) {
+                    return new Row(rowNumber, null, null, "Expected refId,etfRate but got " + fields.length + " fields.");
+                }
+                return parse(rowNumber, fields[0].trim(), fields[1]);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class Json extends RateFileReader {
+        private final JsonParser parser;
+
+        private Json(InputStream in) throws IOException {
+            this.parser = new JsonFactory().createParser(in);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Rate file must be a JSON array.");
+            }
+        }
+
+        @Override
+        protected Row readRow(int rowNumber) throws IOException {
+            final JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return new Row(rowNumber, null, null, "Expected an object.");
+            }
+            String refId = null;
+            String rate = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("refId".equals(field)) {
+                    refId = parser.getValueAsString();
+                } else if ("etfRate".equals(field)) {
+                    rate = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return parse(rowNumber, refId, rate);
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+}
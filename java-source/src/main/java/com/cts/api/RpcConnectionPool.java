@@ -0,0 +1,371 @@
+package com.cts.api;
+
+import com.google.common.collect.ImmutableMap;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RPC connections to the node shared by the web APIs, so concurrent requests are not all serialised through the one
+ * connection the webserver hands to each API.
+ *
+ * The pool keeps two sets of connections. [query] spreads vault queries and short read-only flows over one set, and
+ * [flows] spreads the flows that commit transactions, whose progress and result the APIs wait on, over the other. A
+ * burst of flows therefore cannot hold up the queries. Requests take the connections in turn.
+ *
+ * Each connection is pinged every [HEALTH_CHECK_MILLIS_PROPERTY] milliseconds. One that fails or does not answer in
+ * time is skipped by new requests until it answers again, but the calls already made through it carry on. Only after
+ * [FAILURES_BEFORE_RECONNECT_PROPERTY] failed checks in a row is it replaced by a new connection. The old one is
+ * closed once no call made through it is still running and [RETIRE_GRACE_MILLIS_PROPERTY] milliseconds have passed,
+ * which leaves time for the flow results and feeds handed out from it. If every connection of a kind is down, or the
+ * pool is not configured, requests fall back to the webserver's own connection.
+ *
+ * Configured with system properties on the webserver: [ADDRESS_PROPERTY] (the node's RPC address; without it there
+ * is no pool), [USER_PROPERTY], [PASSWORD_PROPERTY], [QUERY_CONNECTIONS_PROPERTY], [FLOW_CONNECTIONS_PROPERTY],
+ * [HEALTH_CHECK_MILLIS_PROPERTY], [FAILURES_BEFORE_RECONNECT_PROPERTY] and [RETIRE_GRACE_MILLIS_PROPERTY].
+ * Subscriptions that must outlive a reconnect, such as [NetworkIdentityCache] and [VaultUpdateBroadcaster], stay on
+ * the webserver's connection.
+ */
+public class RpcConnectionPool {
+    static private final Logger logger = LoggerFactory.getLogger(RpcConnectionPool.class);
+
+    public static final String ADDRESS_PROPERTY = "etf.rpc.address";
+    public static final String USER_PROPERTY = "etf.rpc.user";
+    public static final String PASSWORD_PROPERTY = "etf.rpc.password";
+    public static final String QUERY_CONNECTIONS_PROPERTY = "etf.rpc.queryConnections";
+    public static final String FLOW_CONNECTIONS_PROPERTY = "etf.rpc.flowConnections";
+    public static final String HEALTH_CHECK_MILLIS_PROPERTY = "etf.rpc.healthCheckMillis";
+    public static final String FAILURES_BEFORE_RECONNECT_PROPERTY = "etf.rpc.failuresBeforeReconnect";
+    public static final String RETIRE_GRACE_MILLIS_PROPERTY = "etf.rpc.retireGraceMillis";
+
+    public static final int DEFAULT_QUERY_CONNECTIONS = 4;
+    public static final int DEFAULT_FLOW_CONNECTIONS = 2;
+    public static final int DEFAULT_HEALTH_CHECK_MILLIS = 5000;
+    public static final int DEFAULT_FAILURES_BEFORE_RECONNECT = 3;
+    public static final int DEFAULT_RETIRE_GRACE_MILLIS = 60000;
+
+    private static final Map<CordaRPCOps, RpcConnectionPool> instances = new IdentityHashMap<>();
+
+    /**
+     * One open connection to the node.
+     */
+    interface Connection {
+        CordaRPCOps getProxy();
+        void close();
+    }
+
+    /**
+     * Opens connections; called again to replace one that has failed.
+     */
+    interface Connector {
+        Connection connect() throws Exception;
+    }
+
+    private final CordaRPCOps fallback;
+    private final Connector connector;
+    private final Slot[] queries;
+    private final Slot[] flows;
+    private final AtomicInteger nextQuery = new AtomicInteger();
+    private final AtomicInteger nextFlow = new AtomicInteger();
+    private final long healthCheckMillis;
+    private final int failuresBeforeReconnect;
+    private final long retireGraceMillis;
+    private final ScheduledExecutorService checker;
+    private final ExecutorService pings;
+
+    /**
+     * Returns the pool for the given webserver connection, opening it from the system properties on first use.
+     */
+    public static RpcConnectionPool of(CordaRPCOps rpcOps) {
+        synchronized (instances) {
+            return instances.computeIfAbsent(rpcOps, RpcConnectionPool::configured);
+        }
+    }
+
+    /**
+     * Returns a pool that answers every request with the given connection.
+     */
+    public static RpcConnectionPool single(CordaRPCOps rpcOps) {
+        return new RpcConnectionPool(rpcOps, null, 0, 0, 0);
+    }
+
+    private static RpcConnectionPool configured(CordaRPCOps rpcOps) {
+        final String address = System.getProperty(ADDRESS_PROPERTY);
+        if (address == null) {
+            logger.info("{} is not set, the web APIs share the webserver's RPC connection", ADDRESS_PROPERTY);
+            return single(rpcOps);
+        }
+        final CordaRPCClient client = new CordaRPCClient(NetworkHostAndPort.parse(address), CordaRPCClientConfiguration.DEFAULT);
+        final String user = System.getProperty(USER_PROPERTY, "user1");
+        final String password = System.getProperty(PASSWORD_PROPERTY, "test");
+        final Connector connector = () -> {
+            final CordaRPCConnection connection = client.start(user, password);
+            return new Connection() {
+                @Override public CordaRPCOps getProxy() { return connection.getProxy(); }
+                @Override public void close() { connection.forceClose(); }
+            };
+        };
+        return new RpcConnectionPool(rpcOps, connector,
+                Integer.getInteger(QUERY_CONNECTIONS_PROPERTY, DEFAULT_QUERY_CONNECTIONS),
+                Integer.getInteger(FLOW_CONNECTIONS_PROPERTY, DEFAULT_FLOW_CONNECTIONS),
+                Integer.getInteger(HEALTH_CHECK_MILLIS_PROPERTY, DEFAULT_HEALTH_CHECK_MILLIS),
+                Integer.getInteger(FAILURES_BEFORE_RECONNECT_PROPERTY, DEFAULT_FAILURES_BEFORE_RECONNECT),
+                Integer.getInteger(RETIRE_GRACE_MILLIS_PROPERTY, DEFAULT_RETIRE_GRACE_MILLIS));
+    }
+
+    /**
+     * Opens the connections and, given a positive interval, starts checking them. With no interval the checks only
+     * run from [checkAll].
+     */
+    RpcConnectionPool(CordaRPCOps fallback, Connector connector, int queryConnections, int flowConnections, long healthCheckMillis) {
+        this(fallback, connector, queryConnections, flowConnections, healthCheckMillis,
+                DEFAULT_FAILURES_BEFORE_RECONNECT, DEFAULT_RETIRE_GRACE_MILLIS);
+    }
+
+    RpcConnectionPool(CordaRPCOps fallback, Connector connector, int queryConnections, int flowConnections,
+                      long healthCheckMillis, int failuresBeforeReconnect, long retireGraceMillis) {
+        if (failuresBeforeReconnect < 1) {
+            throw new IllegalArgumentException("A connection must fail at least one health check to be replaced.");
+        }
+        this.fallback = fallback;
+        this.connector = connector;
+        this.healthCheckMillis = healthCheckMillis;
+        this.failuresBeforeReconnect = failuresBeforeReconnect;
+        this.retireGraceMillis = retireGraceMillis;
+        this.queries = slots("query", queryConnections);
+        this.flows = slots("flow", flowConnections);
+        if (queries.length + flows.length == 0) {
+            this.checker = null;
+            this.pings = null;
+            return;
+        }
+        this.pings = Executors.newCachedThreadPool(runnable -> daemon(runnable, "etf-rpc-ping"));
+        checkAll();
+        logger.info("Opened {} query and {} flow RPC connections", healthy(queries), healthy(flows));
+        if (healthCheckMillis > 0) {
+            this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "etf-rpc-health"));
+            checker.scheduleWithFixedDelay(this::checkAll, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.checker = null;
+        }
+    }
+
+    /**
+     * Returns a connection for vault queries and read-only flows.
+     */
+    public CordaRPCOps query() {
+        return pick(queries, nextQuery);
+    }
+
+    /**
+     * Returns a connection for starting flows and waiting on their progress and results.
+     */
+    public CordaRPCOps flows() {
+        return pick(flows, nextFlow);
+    }
+
+    /**
+     * Returns whether each pooled connection is up, by name.
+     */
+    public Map<String, Boolean> status() {
+        final ImmutableMap.Builder<String, Boolean> status = ImmutableMap.builder();
+        for (Slot slot : queries) {
+            status.put(slot.name, slot.proxy != null);
+        }
+        for (Slot slot : flows) {
+            status.put(slot.name, slot.proxy != null);
+        }
+        return status.build();
+    }
+
+    /**
+     * Pings every connection, reopens the ones that have failed too often and closes the replaced ones that are no
+     * longer in use.
+     */
+    void checkAll() {
+        for (Slot slot : queries) {
+            slot.check();
+        }
+        for (Slot slot : flows) {
+            slot.check();
+        }
+    }
+
+    private CordaRPCOps pick(Slot[] slots, AtomicInteger next) {
+        for (int tried = 0; tried < slots.length; tried++) {
+            final CordaRPCOps proxy = slots[Math.floorMod(next.getAndIncrement(), slots.length)].proxy;
+            if (proxy != null) {
+                return proxy;
+            }
+        }
+        return fallback;
+    }
+
+    private Slot[] slots(String kind, int count) {
+        final Slot[] slots = new Slot[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = new Slot(kind + "-" + (i + 1));
+        }
+        return slots;
+    }
+
+    private static int healthy(Slot[] slots) {
+        int healthy = 0;
+        for (Slot slot : slots) {
+            if (slot.proxy != null) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Wraps a connection's proxy to count the calls running through it, so the connection is not closed under them.
+     */
+    private static CordaRPCOps counted(CordaRPCOps target, AtomicInteger inFlight) {
+        return (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class},
+                (self, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return self == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        case "toString":
+                            return "Pooled " + target;
+                    }
+                    inFlight.incrementAndGet();
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+    }
+
+    /**
+     * One open connection and the calls running through it.
+     */
+    private static final class Live {
+        private final Connection connection;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final CordaRPCOps proxy;
+        private long retiredAt;
+
+        private Live(Connection connection) {
+            this.connection = connection;
+            this.proxy = counted(connection.getProxy(), inFlight);
+        }
+    }
+
+    /**
+     * One pooled connection. Only the health check changes it; requests read [proxy], which is null while the
+     * connection is down or failing its checks.
+     */
+    private final class Slot {
+        private final String name;
+        private Live live;
+        private int failures;
+        // Replaced connections waiting for their calls to finish before they are closed.
+        private final List<Live> retired = new ArrayList<>();
+        private volatile CordaRPCOps proxy;
+
+        private Slot(String name) {
+            this.name = name;
+        }
+
+        private void check() {
+            if (live != null) {
+                if (ping(live.connection.getProxy())) {
+                    if (failures > 0) {
+                        logger.info("RPC connection {} is healthy again", name);
+                    }
+                    failures = 0;
+                    proxy = live.proxy;
+                } else if (++failures < failuresBeforeReconnect) {
+                    proxy = null;
+                } else {
+                    logger.warn("RPC connection {} failed {} health checks in a row, reconnecting", name, failures);
+                    proxy = null;
+                    live.retiredAt = System.nanoTime();
+                    retired.add(live);
+                    live = null;
+                    failures = 0;
+                }
+            }
+            closeRetired();
+            if (live == null) {
+                try {
+                    live = new Live(connector.connect());
+                    proxy = live.proxy;
+                    logger.info("RPC connection {} is up", name);
+                } catch (Exception ex) {
+                    logger.warn("Cannot open RPC connection {}: {}", name, ex.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Whether the connection answers in time. A failure only takes it out of use; the calls on it carry on.
+         */
+        private boolean ping(CordaRPCOps current) {
+            final Future<?> ping = pings.submit(current::currentNodeTime);
+            try {
+                ping.get(Math.max(healthCheckMillis, DEFAULT_HEALTH_CHECK_MILLIS), TimeUnit.MILLISECONDS);
+                return true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return true;
+            } catch (TimeoutException ex) {
+                ping.cancel(true);
+                logger.warn("RPC connection {} did not answer its health check", name);
+            } catch (Exception ex) {
+                logger.warn("RPC connection {} failed its health check: {}", name, ex.getMessage());
+            }
+            return false;
+        }
+
+        private void closeRetired() {
+            final long now = System.nanoTime();
+            for (Iterator<Live> old = retired.iterator(); old.hasNext(); ) {
+                final Live connection = old.next();
+                if (connection.inFlight.get() > 0
+                        || now - connection.retiredAt < TimeUnit.MILLISECONDS.toNanos(retireGraceMillis)) {
+                    continue;
+                }
+                try {
+                    connection.connection.close();
+                } catch (RuntimeException ex) {
+                    logger.debug("Closing RPC connection {} failed", name, ex);
+                }
+                old.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.cts.api;
+
+import com.cts.state.ETFBookState;
+import com.cts.state.ETFResultState;
+import com.cts.state.ETFundState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes the produced and consumed ETF states to connected browsers as server-sent events.
+ *
+ * All clients of a node share one vault subscription, opened when the first client connects and closed when the last
+ * one leaves. The node filters tracked updates as a whole rather than state by state, so one feed per state type would
+ * deliver an update holding several ETF types once per type. The subscription instead tracks every state once and
+ * only the [streamedTypes] states of each update are sent. Each client has a bounded event buffer drained by a small
+ * shared writer pool; a client that falls a full buffer behind is disconnected and is expected to reconnect and reload
+ * the listing.
+ */
+public class VaultUpdateBroadcaster {
+    static private final Logger logger = LoggerFactory.getLogger(VaultUpdateBroadcaster.class);
+
+    public static final int CLIENT_BUFFER_SIZE = 256;
+    public static final int WRITER_THREADS = 2;
+    public static final String EVENT_NAME = "vault-update";
+
+    private static final Set<Class<? extends ContractState>> streamedTypes = ImmutableSet.of(
+            ETFundState.class, ETFBookState.class, ETFResultState.class);
+    private static final Map<CordaRPCOps, VaultUpdateBroadcaster> instances = new IdentityHashMap<>();
+
+    private final CordaRPCOps rpcOps;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS, runnable -> {
+        final Thread thread = new Thread(runnable, "etf-sse-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Subscription upstream;
+
+    /**
+     * Returns the broadcaster for the given node connection.
+     */
+    public static VaultUpdateBroadcaster of(CordaRPCOps rpcOps) {
+        synchronized (instances) {
+            return instances.computeIfAbsent(rpcOps, VaultUpdateBroadcaster::new);
+        }
+    }
+
+    private VaultUpdateBroadcaster(CordaRPCOps rpcOps) {
+        this.rpcOps = rpcOps;
+    }
+
+    /**
+     * Registers a new client and returns the event stream to hand back to Jersey.
+     */
+    public EventOutput connect() {
+        final EventOutput output = new EventOutput();
+        synchronized (this) {
+            clients.add(new Client(output));
+            if (upstream == null) {
+                subscribe();
+            }
+        }
+        return output;
+    }
+
+    public int clientCount() {
+        return clients.size();
+    }
+
+    private void subscribe() {
+        // Only the updates are needed, so keep the snapshot that comes with the feed to a single state.
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        final PageSpecification paging = new PageSpecification(1, 1);
+        upstream = rpcOps.vaultTrackBy(criteria, paging, new Sort(Collections.emptySet()), ContractState.class)
+                .getUpdates()
+                .subscribe(this::publish, error -> {
+                    logger.error("Vault update feed failed", error);
+                    synchronized (this) {
+                        upstream = null;
+                        new ArrayList<>(clients).forEach(this::disconnect);
+                    }
+                });
+    }
+
+    private void publish(Vault.Update<ContractState> update) {
+        final List<Map<String, Object>> produced = deltas(update.getProduced(), true);
+        final List<Map<String, Object>> consumed = deltas(update.getConsumed(), false);
+        if (produced.isEmpty() && consumed.isEmpty()) {
+            return;
+        }
+        final OutboundEvent event = new OutboundEvent.Builder()
+                .name(EVENT_NAME)
+                .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                .data(Map.class, ImmutableMap.of("produced", produced, "consumed", consumed))
+                .build();
+        for (Client client : clients) {
+            client.offer(event);
+        }
+    }
+
+    private static List<Map<String, Object>> deltas(Set<StateAndRef<ContractState>> states, boolean withData) {
+        final ImmutableList.Builder<Map<String, Object>> deltas = ImmutableList.builder();
+        for (StateAndRef<ContractState> stateAndRef : states) {
+            final ContractState data = stateAndRef.getState().getData();
+            if (!streamedTypes.contains(data.getClass())) {
+                continue;
+            }
+            final ImmutableMap.Builder<String, Object> delta = ImmutableMap.<String, Object>builder()
+                    .put("ref", stateAndRef.getRef().toString())
+                    .put("type", data.getClass().getSimpleName());
+            if (withData) {
+                delta.put("state", data);
+            }
+            deltas.add(delta.build());
+        }
+        return deltas.build();
+    }
+
+    private void disconnect(Client client) {
+        synchronized (this) {
+            clients.remove(client);
+            if (clients.isEmpty() && upstream != null) {
+                upstream.unsubscribe();
+                upstream = null;
+            }
+        }
+        try {
+            client.output.close();
+        } catch (IOException ex) {
+            logger.debug("Failed to close event stream", ex);
+        }
+    }
+
+    private final class Client implements Runnable {
+        private final EventOutput output;
+        private final BlockingQueue<OutboundEvent> buffer = new ArrayBlockingQueue<>(CLIENT_BUFFER_SIZE);
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Client(EventOutput output) {
+            this.output = output;
+        }
+
+        private void offer(OutboundEvent event) {
+            if (output.isClosed() || !buffer.offer(event)) {
+                disconnect(this);
+                return;
+            }
+            if (draining.compareAndSet(false, true)) {
+                writers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                OutboundEvent event;
+                while ((event = buffer.poll()) != null) {
+                    output.write(event);
+                }
+            } catch (IOException ex) {
+                disconnect(this);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            // An event may have arrived after the last poll but before the flag was cleared.
+            if (!buffer.isEmpty() && draining.compareAndSet(false, true)) {
+                writers.execute(this);
+            }
+        }
+    }
+}
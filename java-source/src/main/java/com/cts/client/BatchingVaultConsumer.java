@@ -0,0 +1,295 @@
+package com.cts.client;
+
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.Vault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Takes vault updates off the thread that receives them and writes them to a [VaultEventSink] in batches, from a queue
+ * of bounded size.
+ *
+ * A batch is written once [batchSize] events are waiting, or the oldest has waited [batchMillis], whichever is first.
+ * What happens when the sink falls behind and the queue is full is set by the [OverflowPolicy]:
+ *
+ * BLOCK stalls the caller until the sink catches up. Called from the RPC client's observer thread, the updates then
+ * build up inside the RPC client instead, so this bounds the memory of the consumer but not of the process.
+ *
+ * CONFLATE queues every event while there is room, like BLOCK. Once the queue is full, an event replaces the waiting
+ * event for the same linearId, see [VaultEvent.getKey], in place rather than queueing another, and the caller only
+ * blocks if no event for that linearId is waiting. The sink sees every event while it keeps up, and the latest state
+ * of everything but not every intermediate one while it falls behind.
+ *
+ * FAIL stops the consumer with an error, for consumers that must see every event and would rather restart from their
+ * cursor than fall further behind.
+ *
+ * Used as the [ResumableVaultFeed.Handler] of a feed, [flush] makes sure the events are written before the feed's
+ * cursor moves past them.
+ */
+public class BatchingVaultConsumer<T extends ContractState> implements ResumableVaultFeed.Handler<T>, Closeable {
+    static private final Logger logger = LoggerFactory.getLogger(BatchingVaultConsumer.class);
+
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_BATCH_MILLIS = 200;
+
+    public enum OverflowPolicy { BLOCK, CONFLATE, FAIL }
+
+    private final VaultEventSink<T> sink;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final int batchSize;
+    private final long batchNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    // Keyed by arrival. Iterates in arrival order.
+    private final LinkedHashMap<Long, VaultEvent<T>> queue = new LinkedHashMap<>();
+    // When conflating, the arrival of the latest waiting event for each linearId.
+    private final Map<Object, Long> latestArrival = new HashMap<>();
+    private long arrivals;
+    // When the oldest waiting event arrived, from System.nanoTime.
+    private long oldest;
+    private boolean writing;
+    private boolean flushing;
+    private boolean closed;
+    private Throwable failure;
+    private long written;
+    private long conflated;
+
+    private final Thread writer;
+
+    public BatchingVaultConsumer(VaultEventSink<T> sink, OverflowPolicy policy) {
+        this(sink, policy, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_MILLIS);
+    }
+
+    public BatchingVaultConsumer(VaultEventSink<T> sink, OverflowPolicy policy, int capacity, int batchSize, long batchMillis) {
+        if (capacity < 1 || batchSize < 1 || batchMillis < 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive and the batch time not negative");
+        }
+        this.sink = sink;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.batchNanos = TimeUnit.MILLISECONDS.toNanos(batchMillis);
+        this.writer = new Thread(this::writeBatches, "vault-sink-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the consumed and then the produced states of the update.
+     */
+    public void accept(Vault.Update<T> update) throws IOException {
+        for (StateAndRef<T> state : update.getConsumed()) {
+            consumed(state);
+        }
+        for (StateAndRef<T> state : update.getProduced()) {
+            produced(state);
+        }
+    }
+
+    @Override
+    public void produced(StateAndRef<T> state) throws IOException {
+        offer(new VaultEvent<>(VaultEvent.Kind.PRODUCED, state));
+    }
+
+    @Override
+    public void consumed(StateAndRef<T> state) throws IOException {
+        offer(new VaultEvent<>(VaultEvent.Kind.CONSUMED, state));
+    }
+
+    /**
+     * Returns once every event queued so far has been written to the sink.
+     */
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            flushing = true;
+            notEmpty.signal();
+            while ((!queue.isEmpty() || writing) && failure == null) {
+                drained.await();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted flushing the vault sink");
+        } finally {
+            flushing = false;
+            lock.unlock();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes the events still queued and closes the sink.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted closing the vault sink");
+        } finally {
+            sink.close();
+        }
+        logger.info("Wrote {} vault events, conflated {}", written, conflated);
+        checkFailure();
+    }
+
+    /**
+     * The number of events replaced by a later one for the same linearId before they were written.
+     */
+    public long getConflated() {
+        lock.lock();
+        try {
+            return conflated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void offer(VaultEvent<T> event) throws IOException {
+        lock.lock();
+        try {
+            checkFailure();
+            if (closed) {
+                throw new IllegalStateException("The vault consumer is closed");
+            }
+            while (queue.size() >= capacity) {
+                if (policy == OverflowPolicy.CONFLATE) {
+                    final Long waiting = latestArrival.get(event.getKey());
+                    if (waiting != null) {
+                        queue.put(waiting, event);
+                        conflated++;
+                        return;
+                    }
+                }
+                if (policy == OverflowPolicy.FAIL) {
+                    failure = new IllegalStateException(
+                            "More than " + capacity + " vault events are waiting for " + sink.getClass().getSimpleName());
+                    drained.signalAll();
+                    throw new IOException("Vault sink overflowed", failure);
+                }
+                notFull.await();
+                checkFailure();
+            }
+            if (queue.isEmpty()) {
+                oldest = System.nanoTime();
+            }
+            final long arrival = arrivals++;
+            queue.put(arrival, event);
+            if (policy == OverflowPolicy.CONFLATE) {
+                latestArrival.put(event.getKey(), arrival);
+            }
+            notEmpty.signal();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the vault sink");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Vault sink failed", failure);
+        }
+    }
+
+    private void writeBatches() {
+        try {
+            List<VaultEvent<T>> batch;
+            while ((batch = nextBatch()) != null) {
+                sink.write(batch);
+                lock.lock();
+                try {
+                    writing = false;
+                    written += batch.size();
+                    if (queue.isEmpty()) {
+                        drained.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = ex;
+                }
+                writing = false;
+                notFull.signalAll();
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until a batch is due and takes it off the queue, or returns null once closed and empty.
+     */
+    private List<VaultEvent<T>> nextBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (failure != null) {
+                    return null;
+                }
+                if (queue.isEmpty()) {
+                    if (closed) {
+                        return null;
+                    }
+                    notEmpty.await();
+                    continue;
+                }
+                final long wait = oldest + batchNanos - System.nanoTime();
+                if (queue.size() >= batchSize || flushing || closed || wait <= 0) {
+                    break;
+                }
+                notEmpty.awaitNanos(wait);
+            }
+            // The events left behind arrived after the oldest, so keeping its time only writes them sooner.
+            final List<VaultEvent<T>> batch = new ArrayList<>(Math.min(queue.size(), batchSize));
+            final Iterator<Map.Entry<Long, VaultEvent<T>>> events = queue.entrySet().iterator();
+            while (batch.size() < batchSize && events.hasNext()) {
+                final Map.Entry<Long, VaultEvent<T>> event = events.next();
+                batch.add(event.getValue());
+                events.remove();
+                latestArrival.remove(event.getValue().getKey(), event.getKey());
+            }
+            writing = true;
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
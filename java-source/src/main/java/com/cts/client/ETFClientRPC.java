@@ -13,23 +13,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 /**
  * Demonstration of using the CordaRPCClient to connect to a Corda Node and
  * steam some State data from the node.
+ *
+ * Usage: ETFClientRPC <node address> [option=value ...]. The options, all optional, are:
+ *
+ * - cursor: a cursor file, to resume from where the client last stopped rather than load the whole vault on every
+ *   start, see [ResumableVaultFeed].
+ * - sink: where the bookings go, log (the default), jsonl:<file> for a [JsonLinesSink] or h2:<jdbc url> for an
+ *   [EmbeddedDatabaseSink].
+ * - overflow: block (the default), conflate or fail, see [BatchingVaultConsumer.OverflowPolicy].
+ * - capacity, batch and batchMillis: the queue and batch sizes of the [BatchingVaultConsumer].
  */
 public class ETFClientRPC {
     private static final Logger logger = LoggerFactory.getLogger(ETFClientRPC.class);
 
-    private static void logState(StateAndRef<IOUState> state) {
-        logger.info("{}", state.getState().getData());
-    }
-
-    public static void main(String[] args) throws ActiveMQException, InterruptedException, ExecutionException {
-        if (args.length != 1) {
-            throw new IllegalArgumentException("Usage: ExampleClientRPC <node address>");
+    public static void main(String[] args) throws ActiveMQException, InterruptedException, ExecutionException, IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: ETFClientRPC <node address> [cursor=<file>] "
+                    + "[sink=log|jsonl:<file>|h2:<jdbc url>] [overflow=block|conflate|fail] "
+                    + "[capacity=<events>] [batch=<events>] [batchMillis=<ms>]");
         }
+        final Map<String, String> options = options(args);
 
         final NetworkHostAndPort nodeAddress = NetworkHostAndPort.parse(args[0]);
         final CordaRPCClient client = new CordaRPCClient(nodeAddress, CordaRPCClientConfiguration.DEFAULT);
@@ -37,13 +52,71 @@ public class ETFClientRPC {
         // Can be amended in the com.example.Main file.
         final CordaRPCOps proxy = client.start("user1", "test").getProxy();
 
-        // Grab all signed transactions and all future signed transactions.
-        final DataFeed<Vault.Page<IOUState>, Vault.Update<IOUState>> dataFeed = proxy.vaultTrack(IOUState.class);
-        final Vault.Page<IOUState> snapshot = dataFeed.getSnapshot();
-        final Observable<Vault.Update<IOUState>> updates = dataFeed.getUpdates();
+        try (BatchingVaultConsumer<ETFBookState> consumer = new BatchingVaultConsumer<>(
+                sink(options.getOrDefault("sink", "log")),
+                BatchingVaultConsumer.OverflowPolicy.valueOf(options.getOrDefault("overflow", "block").toUpperCase(Locale.ROOT)),
+                Integer.parseInt(options.getOrDefault("capacity", String.valueOf(BatchingVaultConsumer.DEFAULT_CAPACITY))),
+                Integer.parseInt(options.getOrDefault("batch", String.valueOf(BatchingVaultConsumer.DEFAULT_BATCH_SIZE))),
+                Long.parseLong(options.getOrDefault("batchMillis", String.valueOf(BatchingVaultConsumer.DEFAULT_BATCH_MILLIS))))) {
+            if (options.containsKey("cursor")) {
+                new ResumableVaultFeed<>(proxy, ETFBookState.class, Paths.get(options.get("cursor")), consumer).run();
+                return;
+            }
+
+            // Grab all signed transactions and all future signed transactions.
+            final DataFeed<Vault.Page<ETFBookState>, Vault.Update<ETFBookState>> dataFeed = proxy.vaultTrack(ETFBookState.class);
+            final Vault.Page<ETFBookState> snapshot = dataFeed.getSnapshot();
+            final Observable<Vault.Update<ETFBookState>> updates = dataFeed.getUpdates();
+
+            // Pass on the bookings and listen for new ones. The updates are queued from the RPC client's thread, so
+            // the overflow policy applies there.
+            for (StateAndRef<ETFBookState> state : snapshot.getStates()) {
+                consumer.produced(state);
+            }
+            updates.toBlocking().subscribe(update -> {
+                try {
+                    consumer.accept(update);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+    }
 
-        // Log the 'placed' IOUs and listen for new ones.
-        snapshot.getStates().forEach(ExampleClientRPC::logState);
-        updates.toBlocking().subscribe(update -> update.getProduced().forEach(ExampleClientRPC::logState));
+    private static VaultEventSink<ETFBookState> sink(String spec) throws IOException {
+        if (spec.equals("log")) {
+            return new VaultEventSink<ETFBookState>() {
+                @Override
+                public void write(List<VaultEvent<ETFBookState>> batch) {
+                    for (VaultEvent<ETFBookState> event : batch) {
+                        if (event.getKind() == VaultEvent.Kind.PRODUCED) {
+                            logger.info("{}", event.getState().getState().getData());
+                        } else {
+                            logger.info("Consumed {}", event.getState().getRef());
+                        }
+                    }
+                }
+
+                @Override
+                public void close() { }
+            };
+        } else if (spec.startsWith("jsonl:")) {
+            return new JsonLinesSink<>(Paths.get(spec.substring("jsonl:".length())));
+        } else if (spec.startsWith("h2:")) {
+            return new EmbeddedDatabaseSink<>(spec.substring("h2:".length()));
+        }
+        throw new IllegalArgumentException("Unknown sink " + spec);
+    }
+
+    private static Map<String, String> options(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            final int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected option=value but got " + args[i]);
+            }
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        return options;
     }
 }
@@ -0,0 +1,77 @@
+package com.cts.client;
+
+import com.cts.api.ETFStateExporter;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.node.services.Vault;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Exports the ETF states of a node to a file or standard output, see [ETFStateExporter].
+ *
+ * Usage: ETFExportRPC <node address> [option=value ...]. The options, all optional, are:
+ *
+ * - format: csv (the default) or ndjson.
+ * - status: UNCONSUMED (the default), CONSUMED or ALL.
+ * - from and to: ISO-8601 instants bounding the recorded time, or the consumed time for CONSUMED.
+ * - pageSize: the states fetched per query (default 1000).
+ * - out: the file to write, or standard output if not given.
+ */
+public class ETFExportRPC {
+    private static final Logger logger = LoggerFactory.getLogger(ETFExportRPC.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: ETFExportRPC <node address> [format=csv|ndjson] "
+                    + "[status=UNCONSUMED|CONSUMED|ALL] [from=<instant>] [to=<instant>] [pageSize=<states>] [out=<file>]");
+        }
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            final int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected option=value but got " + args[i]);
+            }
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+
+        final CordaRPCClient client = new CordaRPCClient(NetworkHostAndPort.parse(args[0]), CordaRPCClientConfiguration.DEFAULT);
+        final CordaRPCConnection connection = client.start("user1", "test");
+        try {
+            final ETFStateExporter exporter = new ETFStateExporter(
+                    connection.getProxy(),
+                    ETFStateExporter.Format.valueOf(options.getOrDefault("format", "csv").toUpperCase(Locale.ROOT)),
+                    Vault.StateStatus.valueOf(options.getOrDefault("status", "UNCONSUMED").toUpperCase(Locale.ROOT)),
+                    options.containsKey("from") ? Instant.parse(options.get("from")) : null,
+                    options.containsKey("to") ? Instant.parse(options.get("to")) : null,
+                    Integer.parseInt(options.getOrDefault("pageSize", String.valueOf(ETFStateExporter.DEFAULT_PAGE_SIZE))));
+            final String out = options.get("out");
+            if (out == null) {
+                final long exported = exporter.export(System.out);
+                logger.info("Exported {} ETF states", exported);
+            } else {
+                final Path path = Paths.get(out);
+                Files.createDirectories(path.toAbsolutePath().getParent());
+                try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(path))) {
+                    final long exported = exporter.export(file);
+                    logger.info("Exported {} ETF states to {}", exported, out);
+                }
+            }
+        } finally {
+            connection.notifyServerAndClose();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.cts.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateRef;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Keeps the latest state of each linearId in a local embedded H2 database, one row per linearId in [TABLE], so the
+ * current ETF positions can be queried with SQL while the node is busy or down.
+ *
+ * A consumed event only marks the row consumed if the row still holds that state, since the consumed side of a
+ * [ResumableVaultFeed] catch-up arrives after the states that replaced it. Every batch is one database transaction.
+ */
+public class EmbeddedDatabaseSink<T extends ContractState> implements VaultEventSink<T> {
+    public static final String TABLE = "VAULT_STATES";
+
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+            + "STATE_KEY VARCHAR(255) PRIMARY KEY, "
+            + "STATE_REF VARCHAR(80) NOT NULL, "
+            + "STATE_TYPE VARCHAR(255) NOT NULL, "
+            + "STATUS VARCHAR(16) NOT NULL, "
+            + "STATE_JSON CLOB NOT NULL, "
+            + "UPDATED_AT TIMESTAMP NOT NULL)";
+    private static final String PRODUCED = "MERGE INTO " + TABLE
+            + " (STATE_KEY, STATE_REF, STATE_TYPE, STATUS, STATE_JSON, UPDATED_AT) KEY (STATE_KEY) VALUES (?, ?, ?, 'UNCONSUMED', ?, ?)";
+    private static final String CONSUMED = "UPDATE " + TABLE
+            + " SET STATUS = 'CONSUMED', UPDATED_AT = ? WHERE STATE_KEY = ? AND STATE_REF = ?";
+
+    private final ObjectMapper mapper = JacksonSupport.createNonRpcMapper();
+    private final Connection connection;
+    private final PreparedStatement produced;
+    private final PreparedStatement consumed;
+
+    /**
+     * Opens, or creates, the database at the given JDBC URL, for example jdbc:h2:./build/client/bookings.
+     */
+    public EmbeddedDatabaseSink(String jdbcUrl) throws IOException {
+        try {
+            this.connection = DriverManager.getConnection(jdbcUrl);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE);
+            }
+            connection.setAutoCommit(false);
+            this.produced = connection.prepareStatement(PRODUCED);
+            this.consumed = connection.prepareStatement(CONSUMED);
+        } catch (SQLException ex) {
+            throw new IOException("Cannot open " + jdbcUrl, ex);
+        }
+    }
+
+    @Override
+    public void write(List<VaultEvent<T>> batch) throws IOException {
+        final Timestamp now = new Timestamp(System.currentTimeMillis());
+        try {
+            // Runs of the same kind go in one JDBC batch. A run is executed before the next starts, as a consumed
+            // event can refer to a state produced earlier in the batch.
+            VaultEvent.Kind run = null;
+            for (VaultEvent<T> event : batch) {
+                if (run != null && run != event.getKind()) {
+                    execute(run);
+                }
+                run = event.getKind();
+                final StateRef ref = event.getState().getRef();
+                final String key = event.getKey().toString();
+                final String refText = ref.getTxhash() + ":" + ref.getIndex();
+                if (run == VaultEvent.Kind.PRODUCED) {
+                    final ContractState data = event.getState().getState().getData();
+                    produced.setString(1, key);
+                    produced.setString(2, refText);
+                    produced.setString(3, data.getClass().getName());
+                    produced.setString(4, mapper.writeValueAsString(data));
+                    produced.setTimestamp(5, now);
+                    produced.addBatch();
+                } else {
+                    consumed.setTimestamp(1, now);
+                    consumed.setString(2, key);
+                    consumed.setString(3, refText);
+                    consumed.addBatch();
+                }
+            }
+            if (run != null) {
+                execute(run);
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            try {
+                produced.clearBatch();
+                consumed.clearBatch();
+                connection.rollback();
+            } catch (SQLException rollback) {
+                ex.addSuppressed(rollback);
+            }
+            throw new IOException("Cannot write " + batch.size() + " vault events", ex);
+        }
+    }
+
+    private void execute(VaultEvent.Kind run) throws SQLException {
+        (run == VaultEvent.Kind.PRODUCED ? produced : consumed).executeBatch();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.cts.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateRef;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Appends each vault event to a file as one line of JSON, for tailing or loading into other tools:
+ *
+ *   {"event":"PRODUCED","ref":"<tx hash>:<index>","key":"<linearId>","type":"<state class>","state":{...}}
+ *
+ * The file is synced to disk at the end of every batch.
+ */
+public class JsonLinesSink<T extends ContractState> implements VaultEventSink<T> {
+    private final ObjectMapper mapper = JacksonSupport.createNonRpcMapper();
+    private final FileOutputStream file;
+    private final BufferedWriter writer;
+
+    public JsonLinesSink(Path path) throws IOException {
+        final Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        this.file = new FileOutputStream(path.toFile(), true);
+        this.writer = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(List<VaultEvent<T>> batch) throws IOException {
+        for (VaultEvent<T> event : batch) {
+            final StateRef ref = event.getState().getRef();
+            final ContractState data = event.getState().getState().getData();
+            final ObjectNode line = mapper.createObjectNode();
+            line.put("event", event.getKind().name());
+            line.put("ref", ref.getTxhash() + ":" + ref.getIndex());
+            line.put("key", event.getKey().toString());
+            line.put("type", data.getClass().getName());
+            line.set("state", mapper.valueToTree(data));
+            writer.write(mapper.writeValueAsString(line));
+            writer.newLine();
+        }
+        writer.flush();
+        file.getChannel().force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
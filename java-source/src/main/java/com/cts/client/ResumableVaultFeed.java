@@ -0,0 +1,241 @@
+package com.cts.client;
+
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers the produced and consumed states of one type to a [Handler], resuming after a restart from a
+ * [VaultCursor] kept in a local file instead of reloading the whole vault.
+ *
+ * On start the feed subscribes to live updates, holding them back, and then catches up with paged queries for the
+ * states recorded and consumed since the cursor, sorted by time. Only the states missed while the consumer was down
+ * are fetched, so a restart costs in proportion to the downtime rather than to the size of the vault. The live
+ * updates are then delivered, skipping any the catch-up already delivered.
+ *
+ * Live updates carry no timestamps, so the cursor is moved past them with one query for the metadata of the states
+ * delivered since the last save, at most every [CHECKPOINT_MILLIS] or [CHECKPOINT_STATES]. Delivery is therefore
+ * at least once: states delivered after the last save are delivered again after a crash, and a consumption is never
+ * skipped because its state was produced before the save.
+ */
+public class ResumableVaultFeed<T extends ContractState> {
+    static private final Logger logger = LoggerFactory.getLogger(ResumableVaultFeed.class);
+
+    public static final int PAGE_SIZE = 500;
+    public static final int CHECKPOINT_STATES = 100;
+    public static final long CHECKPOINT_MILLIS = 1000;
+
+    private static final Sort byRecordedTime = new Sort(ImmutableSet.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF), Sort.Direction.ASC)));
+    private static final Sort byConsumedTime = new Sort(ImmutableSet.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.CONSUMED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF), Sort.Direction.ASC)));
+
+    /**
+     * Receives the states in the order the vault reports them. Called from the thread running the feed.
+     */
+    public interface Handler<T extends ContractState> {
+        void produced(StateAndRef<T> state) throws IOException;
+        void consumed(StateAndRef<T> state) throws IOException;
+
+        /**
+         * Called before the cursor is saved. A handler that writes asynchronously, such as a
+         * [BatchingVaultConsumer], must not return until the states delivered so far are durable.
+         */
+        default void flush() throws IOException { }
+    }
+
+    private final CordaRPCOps proxy;
+    private final Class<T> type;
+    private final Path cursorFile;
+    private final VaultCursor cursor;
+    private final Handler<T> handler;
+
+    // Delivered by the catch-up, so not delivered again from the live updates held back meanwhile.
+    private final Set<StateRef> caughtUpProduced = new HashSet<>();
+    private final Set<StateRef> caughtUpConsumed = new HashSet<>();
+    // Delivered live as produced, and as consumed, since the cursor was last saved.
+    private final Set<StateRef> unsavedProduced = new LinkedHashSet<>();
+    private final Set<StateRef> unsavedConsumed = new LinkedHashSet<>();
+    private long lastSave = System.currentTimeMillis();
+
+    public ResumableVaultFeed(CordaRPCOps proxy, Class<T> type, Path cursorFile, Handler<T> handler) throws IOException {
+        this.proxy = proxy;
+        this.type = type;
+        this.cursorFile = cursorFile;
+        this.cursor = VaultCursor.load(cursorFile);
+        this.handler = handler;
+    }
+
+    /**
+     * Catches up and then delivers live updates until the node ends the feed. Blocks the calling thread.
+     */
+    public void run() throws IOException, InterruptedException {
+        final BlockingQueue<Vault.Update<T>> live = new LinkedBlockingQueue<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean completed = new AtomicBoolean();
+        // A one-state snapshot, only the updates are wanted.
+        final Subscription subscription = proxy.vaultTrackBy(
+                new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                new PageSpecification(1, 1),
+                byRecordedTime,
+                type).getUpdates().subscribe(live::add, error -> {
+                    failure.set(error);
+                    completed.set(true);
+                }, () -> completed.set(true));
+        try {
+            final long started = System.nanoTime();
+            final int recorded = catchUp(false);
+            final int consumed = catchUp(true);
+            logger.info("Caught up with {} recorded and {} consumed {} states in {} ms", recorded, consumed,
+                    type.getSimpleName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+            int heldBack = live.size();
+            while (true) {
+                final Vault.Update<T> update = live.poll(CHECKPOINT_MILLIS, TimeUnit.MILLISECONDS);
+                if (update != null) {
+                    deliver(update);
+                    if (heldBack > 0 && --heldBack == 0) {
+                        caughtUpProduced.clear();
+                        caughtUpConsumed.clear();
+                    }
+                }
+                if (unsavedProduced.size() + unsavedConsumed.size() >= CHECKPOINT_STATES
+                        || System.currentTimeMillis() - lastSave >= CHECKPOINT_MILLIS) {
+                    checkpoint();
+                }
+                // Updates are never added after the feed completes, so it is drained once it is empty.
+                if (completed.get() && live.isEmpty()) {
+                    break;
+                }
+            }
+            checkpoint();
+            if (failure.get() != null) {
+                throw new IOException("Vault feed failed", failure.get());
+            }
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * Delivers the states recorded, or consumed, since the cursor and returns how many there were.
+     */
+    private int catchUp(boolean consumedSide) throws IOException {
+        final VaultCursor.Position position = consumedSide ? cursor.getConsumed() : cursor.getRecorded();
+        final Instant from = position.getTime();
+        final QueryCriteria.TimeCondition since = from == null ? null : new QueryCriteria.TimeCondition(
+                consumedSide ? QueryCriteria.TimeInstantType.CONSUMED : QueryCriteria.TimeInstantType.RECORDED,
+                new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.GREATER_THAN_OR_EQUAL, from));
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(
+                consumedSide ? Vault.StateStatus.CONSUMED : Vault.StateStatus.ALL, null, null, null, null, since);
+
+        int delivered = 0;
+        for (int page = 1; ; page++) {
+            final Vault.Page<T> result = proxy.vaultQueryBy(
+                    criteria, new PageSpecification(page, PAGE_SIZE), consumedSide ? byConsumedTime : byRecordedTime, type);
+            final List<StateAndRef<T>> states = result.getStates();
+            for (int i = 0; i < states.size(); i++) {
+                final StateAndRef<T> state = states.get(i);
+                final Vault.StateMetadata metadata = result.getStatesMetadata().get(i);
+                final Instant time = consumedSide ? metadata.getConsumedTime() : metadata.getRecordedTime();
+                if (position.contains(time, state.getRef())) {
+                    continue;
+                }
+                if (consumedSide) {
+                    handler.consumed(state);
+                    caughtUpConsumed.add(state.getRef());
+                } else {
+                    handler.produced(state);
+                    caughtUpProduced.add(state.getRef());
+                }
+                position.advance(time, state.getRef());
+                delivered++;
+            }
+            handler.flush();
+            cursor.save(cursorFile);
+            if (states.size() < PAGE_SIZE) {
+                return delivered;
+            }
+        }
+    }
+
+    private void deliver(Vault.Update<T> update) throws IOException {
+        for (StateAndRef<T> state : update.getConsumed()) {
+            if (!caughtUpConsumed.contains(state.getRef())) {
+                handler.consumed(state);
+                unsavedConsumed.add(state.getRef());
+            }
+        }
+        for (StateAndRef<T> state : update.getProduced()) {
+            if (!caughtUpProduced.contains(state.getRef())) {
+                handler.produced(state);
+                unsavedProduced.add(state.getRef());
+            }
+        }
+    }
+
+    /**
+     * Moves the cursor past the states delivered live since the last save, and saves it. Each position only moves past
+     * the states delivered on its side: a state delivered as produced may already be consumed in the vault while its
+     * consumption is still held back, and must not be skipped by the consumed catch-up after a crash.
+     */
+    private void checkpoint() throws IOException {
+        lastSave = System.currentTimeMillis();
+        if (unsavedProduced.isEmpty() && unsavedConsumed.isEmpty()) {
+            return;
+        }
+        final Set<StateRef> unsaved = new LinkedHashSet<>(unsavedProduced);
+        unsaved.addAll(unsavedConsumed);
+        final List<StateRef> refs = new ArrayList<>(unsaved);
+        for (int start = 0; start < refs.size(); start += PAGE_SIZE) {
+            final List<StateRef> chunk = new ArrayList<>(refs.subList(start, Math.min(start + PAGE_SIZE, refs.size())));
+            final Vault.Page<T> result = proxy.vaultQueryBy(
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL, null, chunk, null, null, null),
+                    new PageSpecification(1, PAGE_SIZE),
+                    byRecordedTime,
+                    type);
+            for (int i = 0; i < result.getStates().size(); i++) {
+                final StateRef ref = result.getStates().get(i).getRef();
+                final Vault.StateMetadata metadata = result.getStatesMetadata().get(i);
+                if (unsavedProduced.contains(ref)) {
+                    cursor.getRecorded().advance(metadata.getRecordedTime(), ref);
+                }
+                if (unsavedConsumed.contains(ref) && metadata.getConsumedTime() != null) {
+                    cursor.getConsumed().advance(metadata.getConsumedTime(), ref);
+                }
+            }
+        }
+        unsavedProduced.clear();
+        unsavedConsumed.clear();
+        handler.flush();
+        cursor.save(cursorFile);
+    }
+}
@@ -0,0 +1,136 @@
+package com.cts.client;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * How far a vault consumer has got, persisted in a local file so it can pick up where it left off after a restart.
+ *
+ * The cursor keeps two positions, one over the time states were recorded and one over the time they were consumed.
+ * Each position is the latest time processed plus the states processed at exactly that time, since many states can
+ * share a timestamp and a page can end between them.
+ */
+public class VaultCursor {
+    private final Position recorded;
+    private final Position consumed;
+
+    public VaultCursor() {
+        this(new Position(), new Position());
+    }
+
+    private VaultCursor(Position recorded, Position consumed) {
+        this.recorded = recorded;
+        this.consumed = consumed;
+    }
+
+    public Position getRecorded() { return recorded; }
+    public Position getConsumed() { return consumed; }
+
+    /**
+     * Reads the cursor from the given file, or returns a cursor at the start of the vault if there is no file.
+     */
+    public static VaultCursor load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return new VaultCursor();
+        }
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.size() != 2) {
+            throw new IOException(file + " is not a vault cursor");
+        }
+        return new VaultCursor(Position.parse(lines.get(0)), Position.parse(lines.get(1)));
+    }
+
+    /**
+     * Writes the cursor to a temporary file and moves it over the given one, so a crash never leaves half a cursor.
+     */
+    public synchronized void save(Path file) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(recorded.format());
+            writer.newLine();
+            writer.write(consumed.format());
+            writer.newLine();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A point in time and the states already processed at exactly that time.
+     */
+    public static class Position {
+        private Instant time;
+        private final Set<StateRef> refsAtTime = new HashSet<>();
+
+        private Position() {
+        }
+
+        /**
+         * Returns the latest time processed, or null if nothing has been.
+         */
+        public synchronized Instant getTime() {
+            return time;
+        }
+
+        /**
+         * Whether the state at the given time has already been processed.
+         */
+        public synchronized boolean contains(Instant stateTime, StateRef ref) {
+            if (time == null) {
+                return false;
+            }
+            final int order = stateTime.compareTo(time);
+            return order < 0 || (order == 0 && refsAtTime.contains(ref));
+        }
+
+        /**
+         * Records the state at the given time as processed. Earlier times leave the position where it is.
+         */
+        public synchronized void advance(Instant stateTime, StateRef ref) {
+            if (time == null || stateTime.isAfter(time)) {
+                time = stateTime;
+                refsAtTime.clear();
+            }
+            if (stateTime.equals(time)) {
+                refsAtTime.add(ref);
+            }
+        }
+
+        private synchronized String format() {
+            final StringBuilder line = new StringBuilder(time == null ? "-" : time.toString());
+            for (StateRef ref : refsAtTime) {
+                line.append(' ').append(ref.getTxhash()).append(':').append(ref.getIndex());
+            }
+            return line.toString();
+        }
+
+        private static Position parse(String line) throws IOException {
+            final Position position = new Position();
+            final String[] fields = line.trim().split(" ");
+            try {
+                position.time = fields[0].equals("-") ? null : Instant.parse(fields[0]);
+                for (int i = 1; i < fields.length; i++) {
+                    final int colon = fields[i].lastIndexOf(':');
+                    position.refsAtTime.add(new StateRef(
+                            SecureHash.parse(fields[i].substring(0, colon)),
+                            Integer.parseInt(fields[i].substring(colon + 1))));
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Invalid vault cursor position " + line, ex);
+            }
+            return position;
+        }
+    }
+}
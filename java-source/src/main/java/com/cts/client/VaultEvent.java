@@ -0,0 +1,36 @@
+package com.cts.client;
+
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.StateAndRef;
+
+/**
+ * One state produced or consumed in the vault, as handed to a [VaultEventSink].
+ */
+public final class VaultEvent<T extends ContractState> {
+    public enum Kind { PRODUCED, CONSUMED }
+
+    private final Kind kind;
+    private final StateAndRef<T> state;
+
+    public VaultEvent(Kind kind, StateAndRef<T> state) {
+        this.kind = kind;
+        this.state = state;
+    }
+
+    public Kind getKind() { return kind; }
+    public StateAndRef<T> getState() { return state; }
+
+    /**
+     * The identity later events for the same thing share: the linearId of a [LinearState], else the state itself.
+     */
+    public Object getKey() {
+        final T data = state.getState().getData();
+        return data instanceof LinearState ? ((LinearState) data).getLinearId() : state.getRef();
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + state.getRef();
+    }
+}
@@ -0,0 +1,17 @@
+package com.cts.client;
+
+import net.corda.core.contracts.ContractState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where a [BatchingVaultConsumer] delivers the vault events, a batch at a time.
+ *
+ * A batch must be durable when [write] returns, since the consumer's cursor is moved past it. Always called from the
+ * consumer's writer thread, so implementations need not be thread safe.
+ */
+public interface VaultEventSink<T extends ContractState> extends Closeable {
+    void write(List<VaultEvent<T>> batch) throws IOException;
+}
@@ -0,0 +1,42 @@
+package com.cts.contract;
+
+import net.corda.core.contracts.CommandData;
+
+import java.util.Objects;
+
+/**
+ * States the rate a fund is exercised at. Signed by the rate oracle, see [com.cts.service.ETFRateOracle], so an
+ * exercise carries an independent attestation of its etfRate rather than whatever the initiator chose.
+ *
+ * A transaction exercising several funds carries one of these per fund, and the oracle signs them all at once.
+ */
+public class ETFRateCommand implements CommandData {
+    private final String referenceId;
+    private final float etfRate;
+
+    public ETFRateCommand(String referenceId, float etfRate) {
+        this.referenceId = referenceId;
+        this.etfRate = etfRate;
+    }
+
+    public String getReferenceId() { return referenceId; }
+    public float getEtfRate() { return etfRate; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ETFRateCommand that = (ETFRateCommand) o;
+        return Float.compare(that.etfRate, etfRate) == 0 && referenceId.equals(that.referenceId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(referenceId, etfRate);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(referenceId=%s, etfRate=%s)", getClass().getSimpleName(), referenceId, etfRate);
+    }
+}
@@ -1,190 +1,219 @@
 package com.cts.contract;
 
 import com.cts.state.ETFBookState;
+import com.cts.state.ETFundState;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.CommandWithParties;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.Contract;
-import net.corda.core.identity.AbstractParty;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.transactions.LedgerTransaction;
 
-import java.util.stream.Collectors;
-
-import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
-import static net.corda.core.contracts.ContractsDSL.requireThat;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * A implementation of a basic smart contract in Corda.
+ * The contract governing the booking and settlement of ETF trades.
  *
- * This contract enforces rules regarding the creation of a valid [IOUState], which in turn encapsulates an [IOU].
+ * FX trades are grouped by linear id. When the transaction carries a Booking command every group must describe a valid
+ * booking, and when it carries a Settlement command every group must settle exactly one input into one output between
+ * the same parties. A booking made in the same transaction as the exercise of an ETF must carry a Booking command and
+ * match the exercise, see [verifyExercisedBooking]. Each command may appear once and must be matched by a trade or
+ * an exercised booking.
  *
- * For a new [IOU] to be issued onto the ledger, a transaction is required which takes:
- * - Zero input states.
- * - One output state: the new [IOU].
- * - An Create() command with the public keys of both the lender and the borrower.
+ * Verification makes a single pass over the commands and a single pass over the inputs and outputs, so it runs in
+ * time linear in the size of the transaction however many groups it contains, and allocates one entry per group.
  *
  * All contracts must sub-class the [Contract] interface.
  */
 public class ETFundBookContract implements Contract {
     public static final String ETF_CONTRACT_ID = "com.cts.contract.ETFundBookContract";
 
+    @Override
+    public void verify(LedgerTransaction tx) {
+        // Pass over the commands.
+        CommandWithParties<CommandData> booking = null;
+        CommandWithParties<CommandData> settlement = null;
+        boolean exercised = false;
+        for (CommandWithParties<CommandData> command : tx.getCommands()) {
+            final CommandData value = command.getValue();
+            if (value instanceof Commands.Booking) {
+                requireThat(booking == null, "There must be a single Booking command.");
+                booking = command;
+            } else if (value instanceof Commands.Settlement) {
+                requireThat(settlement == null, "There must be a single Settlement command.");
+                settlement = command;
+            } else if (value instanceof ETFundContract.Commands.Exercise) {
+                exercised = true;
+            }
+        }
+        if (booking == null && settlement == null && !exercised) {
+            return;
+        }
 
+        // Pass over the states, grouping trades by linear id and picking out an exercised fund and its booking.
+        final Map<UniqueIdentifier, TradeGroup> groups = new HashMap<>();
+        final ExercisedBooking exercisedBooking = new ExercisedBooking();
+        for (ContractState state : tx.getInputStates()) {
+            if (state instanceof FXTradeState) {
+                final FXTradeState trade = (FXTradeState) state;
+                groups.computeIfAbsent(trade.getLinearId(), id -> new TradeGroup()).addInput(trade);
+            } else if (state instanceof ETFundState) {
+                exercisedBooking.addFundInput((ETFundState) state);
+            }
+        }
+        for (ContractState state : tx.getOutputStates()) {
+            if (state instanceof FXTradeState) {
+                final FXTradeState trade = (FXTradeState) state;
+                groups.computeIfAbsent(trade.getLinearId(), id -> new TradeGroup()).addOutput(trade);
+            } else if (state instanceof ETFundState) {
+                exercisedBooking.addFundOutput((ETFundState) state);
+            } else if (state instanceof ETFBookState) {
+                exercisedBooking.addBooking((ETFBookState) state);
+            }
+        }
 
-    private final SecureHash legalContractReference = SecureHash.sha256("ETFund Spot Trade Contract template and params");
+        for (TradeGroup group : groups.values()) {
+            if (booking != null) {
+                verifyBooking(group);
+            }
+            if (settlement != null) {
+                verifySettlement(group);
+            }
+        }
+        final boolean bookingExercise = exercised && exercisedBooking.bookings > 0;
+        if (bookingExercise) {
+            requireThat(booking != null, "An exercised booking requires a Booking command.");
+            verifyExercisedBooking(exercisedBooking);
+        }
 
-    @Override
-    public final SecureHash getLegalContractReference() {
-        return legalContractReference;
+        // Every command must have been matched by at least one group of states.
+        requireThat(booking == null || !groups.isEmpty() || bookingExercise, "The Booking command must match a trade.");
+        requireThat(settlement == null || !groups.isEmpty(), "The Settlement command must match a trade.");
     }
 
-    @Override
-    public void verify(TransactionForContract tx) {
-        System.out.println("Inside Verify: " + extractCommands(tx));
-        ClauseVerifier.verifyClause(
-                tx,
-                new AllComposition<>(new Clauses.Group()),
-                extractCommands(tx));
+    /**
+     * Checks various requirements for the Booking of a Intercompany Trade.
+     */
+    private static void verifyBooking(TradeGroup group) {
+        requireThat(group.firstOutput != null, "A booked trade must have an output.");
+        final FXTradeState out = group.firstOutput;
+        requireThat(out.getBuyer() != out.getSeller(), "The buyer and the seller cannot be the same entity.");
+        requireThat(out.getFxTrade().getFxRate() != 0, "The FX Rate cannot be zero.");
+        requireThat(out.getFxTrade().getStructuredProductReferenceId() != null,
+                "The FX Trade should be associated with a fX Product.");
     }
 
-    private List<AuthenticatedObject<Commands>> extractCommands(TransactionForContract tx) {
-        return tx.getCommands()
-                .stream()
-                .filter(command -> command.getValue() instanceof Commands)
-                .map(command -> new AuthenticatedObject<>(
-                        command.getSigners(),
-                        command.getSigningParties(),
-                        (Commands) command.getValue()))
-                .collect(toList());
+    /**
+     * Checks various requirements for the Matching of a Intercompany Trade.
+     */
+    private static void verifySettlement(TradeGroup group) {
+        requireThat(group.outputs == 1, "There should be one output state.");
+        requireThat(group.inputs == 1, "There should be one input state.");
+        requireThat(group.firstOutput.getBuyer().equals(group.firstInput.getBuyer()) &&
+                        group.firstOutput.getSeller().equals(group.firstInput.getSeller()),
+                "The buyer and the seller for the input and output should be same.");
     }
 
+    /**
+     * Checks a booking made in the same transaction as the exercise of an ETF, as produced by
+     * [ETFundExerciseAndBookFlow]: the booking must reference the exercised fund, be between the same parties and
+     * book exactly the exposure the exercise drew down.
+     */
+    private static void verifyExercisedBooking(ExercisedBooking exercise) {
+        requireThat(exercise.fundInputs == 1, "An exercised booking consumes one ETF state.");
+        requireThat(exercise.fundOutputs == 1, "An exercised booking produces one ETF state.");
+        requireThat(exercise.bookings == 1, "An exercised booking produces one booking.");
+        final ETFundState in = exercise.fundInput;
+        final ETFundState out = exercise.fundOutput;
+        final ETFBookState booking = exercise.booking;
+        requireThat(out.getStructuredProduct().getReferenceId().equals(booking.getLinearId().getExternalId()),
+                "The booking must reference the exercised ETF.");
+        requireThat(booking.getLender().equals(out.getSeller()) && booking.getBorrower().equals(out.getBuyer()),
+                "The booking must be between the seller and the buyer of the ETF.");
+        requireThat(booking.getValue() == Math.round(in.getStructuredProduct().getMaxExposure()
+                        - out.getStructuredProduct().getMaxExposure()),
+                "The booked value must equal the exposure drawn down.");
+    }
 
-    public interface Commands extends CommandData {
-        class Booking implements IssueCommand, Commands {
-            private final long nonce = Utils.random63BitValue();
+    /**
+     * Same failure as the requireThat DSL, without allocating a lambda per rule.
+     */
+    private static void requireThat(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException("Failed requirement: " + message);
+        }
+    }
 
-            @Override
-            public long getNonce() {
-                return nonce;
+    /**
+     * The input and output counts of one linear id, with the first of each.
+     */
+    private static final class TradeGroup {
+        private int inputs;
+        private int outputs;
+        private FXTradeState firstInput;
+        private FXTradeState firstOutput;
+
+        private void addInput(FXTradeState state) {
+            if (inputs++ == 0) {
+                firstInput = state;
             }
         }
 
-        class Settlement implements IssueCommand, Commands {
-            private final long nonce = Utils.random63BitValue();
-
-            @Override
-            public long getNonce() {
-                return nonce;
+        private void addOutput(FXTradeState state) {
+            if (outputs++ == 0) {
+                firstOutput = state;
             }
         }
     }
 
-    public interface Clauses {
-        /**
-         * Checks for the existence of a timestamp.
-         */
-        class Timestamp extends Clause<ContractState, Commands, Unit> {
-            @Override
-            public Set<Commands> verify(TransactionForContract tx,
-                                        List<? extends ContractState> inputs,
-                                        List<? extends ContractState> outputs,
-                                        List<? extends AuthenticatedObject<? extends Commands>> commands,
-                                        Unit groupingKey) {
-                System.out.println("Inside Timestap verify Clause");
-                //  requireNonNull(tx.getTimestamp(), "must be timestamped");
-                System.out.println("Completed Clause Timestamp");
-                // We return an empty set because we don't process any commands
-                return Collections.emptySet();
+    /**
+     * The fund states and bookings of a transaction that exercises an ETF.
+     */
+    private static final class ExercisedBooking {
+        private int fundInputs;
+        private int fundOutputs;
+        private int bookings;
+        private ETFundState fundInput;
+        private ETFundState fundOutput;
+        private ETFBookState booking;
+
+        private void addFundInput(ETFundState state) {
+            if (fundInputs++ == 0) {
+                fundInput = state;
             }
         }
 
-        // If you add additional clauses, make sure to reference them within the 'AnyComposition()' clause.
-        class Group extends GroupClauseVerifier<FXTradeState, Commands, UniqueIdentifier> {
-            // public Group() { super(new AnyComposition<>(new Clauses.Book())); }
-            public Group() {
-                super(new AnyComposition<>(new Clauses.Booking(), new Clauses.Settlement()));
+        private void addFundOutput(ETFundState state) {
+            if (fundOutputs++ == 0) {
+                fundOutput = state;
             }
+        }
 
-            @Override
-            public List<InOutGroup<FXTradeState, UniqueIdentifier>> groupStates(TransactionForContract tx) {
-                System.out.println("Completed Clause Group");
-                // Group by Intercompany  state linearId for in/out states.
-                return tx.groupStates(FXTradeState.class, FXTradeState::getLinearId);
+        private void addBooking(ETFBookState state) {
+            if (bookings++ == 0) {
+                booking = state;
             }
         }
+    }
 
-        /**
-         * Checks various requirements for the Booking of a Intercompany Trade.
-         */
-        class Booking extends Clause<FXTradeState, Commands, UniqueIdentifier> {
-            @Override
-            public Set<Class<? extends CommandData>> getRequiredCommands() {
-                return Collections.singleton(Commands.Booking.class);
-            }
+    public interface Commands extends CommandData {
+        class Booking implements IssueCommand, Commands {
+            private final long nonce = Utils.random63BitValue();
 
             @Override
-            public Set<Commands> verify(TransactionForContract tx,
-                                        List<? extends FXTradeState> inputs,
-                                        List<? extends FXTradeState> outputs,
-                                        List<? extends AuthenticatedObject<? extends Commands>> commands,
-                                        UniqueIdentifier groupingKey) {
-                System.out.println("Inside Booking clause: commands " + tx.getCommands());
-                final AuthenticatedObject<Commands.Booking> command = requireSingleCommand(tx.getCommands(), Commands.Booking.class);
-                FXTradeState out = outputs.get(0);
-                System.out.println("Extracted output for verification in Booking clause" + out);
-                //TODO:: Create correct verify conditions for the contract. currently only very few validations are added.
-                requireThat(require -> {
-                    // Generic constraints around generation of the issue purchase order transaction.
-                    require.by("The buyer and the seller cannot be the same entity.",
-                            out.getBuyer() != out.getSeller());
-
-                    require.by("The FX Rate cannot be zero.",
-                            out.getFxTrade().getFxRate() != 0);
-
-                    require.by("The FX Trade should be associated with a fX Product.",
-                            out.getFxTrade().getStructuredProductReferenceId() != null);
-                    return null;
-                });
-                return Collections.singleton(command.getValue());
+            public long getNonce() {
+                return nonce;
             }
         }
 
-        /**
-         * Checks various requirements for the Matching of a Intercompany Trade.
-         */
-        class Settlement extends Clause<FXTradeState, Commands, UniqueIdentifier> {
-            @Override
-            public Set<Class<? extends CommandData>> getRequiredCommands() {
-                return Collections.singleton(Commands.Settlement.class);
-            }
+        class Settlement implements IssueCommand, Commands {
+            private final long nonce = Utils.random63BitValue();
 
             @Override
-            public Set<Commands> verify(TransactionForContract tx,
-                                        List<? extends FXTradeState> inputs,
-                                        List<? extends FXTradeState> outputs,
-                                        List<? extends AuthenticatedObject<? extends Commands>> commands,
-                                        UniqueIdentifier groupingKey) {
-                final AuthenticatedObject<Commands.Settlement> command = requireSingleCommand(tx.getCommands(), Commands.Settlement.class);
-                requireThat(require -> {
-                    require.by("There should be one output state.",
-                            outputs != null && outputs.size() == 1);
-                    require.by("There should be one input state.",
-                            inputs != null && inputs.size() == 1);
-                    require.by("The buyer and the seller for the input and output should be same.",
-                            outputs.get(0).getBuyer().equals(inputs.get(0).getBuyer()) &&
-                                    outputs.get(0).getSeller().equals(inputs.get(0).getSeller())
-                    );
-
-                    return null;
-                });
-                return Collections.singleton(command.getValue());
+            public long getNonce() {
+                return nonce;
             }
         }
     }
 }
-
-/**
-     * This contract only implements one command, Create.
-     */
-    public interface Commands extends CommandData {
-        class Create implements Commands {}
-    }
-}
\ No newline at end of file
@@ -0,0 +1,151 @@
+package com.cts.contract;
+
+import com.cts.state.ETFundState;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.CommandWithParties;
+import net.corda.core.contracts.Contract;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.transactions.LedgerTransaction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rules for compacting the back-chain of a fund, see [com.cts.flow.ETFundCompactionFlow].
+ *
+ * Compaction is two transactions. The Exit transaction consumes the fund's current state and produces none. The
+ * Reissue transaction has no inputs and produces an equivalent state, so it starts a new chain with no history to
+ * resolve. The Reissue command names the Exit transaction, and both commands must be signed by every participant of
+ * the fund: the ledger cannot check that the re-issued state matches the exited one without the old history, so that
+ * is what both parties attest to by signing.
+ *
+ * Fund states are issued with this contract, which wraps [ETFundContract]: it verifies the transactions holding a
+ * [Commands.Exit] or [Commands.Reissue] itself and hands every other transaction to the fund contract. Those include
+ * the exercises, so this is also where an exercise is tied to its [ETFRateCommand]s: given rate commands, every fund
+ * the transaction produces must be at the rate the oracle signed for it. Funds issued with the bare [ETFundContract]
+ * cannot be compacted and their rates are not checked.
+ */
+public class ETFundCompactionContract implements Contract {
+    public static final String COMPACTION_CONTRACT_ID = "com.cts.contract.ETFundCompactionContract";
+
+    private final Contract fundContract;
+
+    public ETFundCompactionContract() {
+        this(new ETFundContract());
+    }
+
+    public ETFundCompactionContract(Contract fundContract) {
+        this.fundContract = fundContract;
+    }
+
+    @Override
+    public void verify(LedgerTransaction tx) {
+        CommandWithParties<CommandData> command = null;
+        // Reference id -> the rate signed for it, or null if the transaction carries no rate commands.
+        Map<String, Float> rates = null;
+        for (CommandWithParties<CommandData> candidate : tx.getCommands()) {
+            if (candidate.getValue() instanceof Commands) {
+                requireThat(command == null, "There must be a single compaction command.");
+                command = candidate;
+            } else if (candidate.getValue() instanceof ETFRateCommand) {
+                final ETFRateCommand rate = (ETFRateCommand) candidate.getValue();
+                if (rates == null) {
+                    rates = new HashMap<>();
+                }
+                requireThat(rates.put(rate.getReferenceId(), rate.getEtfRate()) == null,
+                        "There must be a single rate command per ETF.");
+            }
+        }
+        if (command == null) {
+            fundContract.verify(tx);
+            if (rates != null) {
+                verifyRates(tx.outputsOfType(ETFundState.class), rates);
+            }
+            return;
+        }
+
+        final List<ETFundState> inputs = tx.inputsOfType(ETFundState.class);
+        final List<ETFundState> outputs = tx.outputsOfType(ETFundState.class);
+        if (command.getValue() instanceof Commands.Exit) {
+            final Commands.Exit exit = (Commands.Exit) command.getValue();
+            requireThat(inputs.size() == 1, "An exit consumes one ETF state.");
+            requireThat(outputs.isEmpty(), "An exit produces no ETF state.");
+            requireThat(tx.getInputStates().size() == 1, "An exit consumes nothing but the ETF state.");
+            final ETFundState in = inputs.get(0);
+            requireThat(in.getStructuredProduct().getReferenceId().equals(exit.getReferenceId()),
+                    "The exit must name the exited ETF.");
+            requireThat(signedByAll(command, in), "All of the participants must sign the exit.");
+        } else {
+            final Commands.Reissue reissue = (Commands.Reissue) command.getValue();
+            requireThat(tx.getInputs().isEmpty(), "A reissue consumes no states.");
+            requireThat(outputs.size() == 1, "A reissue produces one ETF state.");
+            requireThat(tx.getOutputStates().size() == 1, "A reissue produces nothing but the ETF state.");
+            requireThat(reissue.getExitTxId() != null, "A reissue must name the exit transaction.");
+            final ETFundState out = outputs.get(0);
+            requireThat(out.getStructuredProduct().getReferenceId().equals(reissue.getReferenceId()),
+                    "The reissue must name the reissued ETF.");
+            requireThat(signedByAll(command, out), "All of the participants must sign the reissue.");
+        }
+    }
+
+    /**
+     * The oracle signs the rate commands it is shown rather than the fund states, so this is what holds an exercised
+     * etfRate to the signed one.
+     */
+    private static void verifyRates(List<ETFundState> outputs, Map<String, Float> rates) {
+        for (ETFundState out : outputs) {
+            final Float rate = rates.get(out.getStructuredProduct().getReferenceId());
+            requireThat(rate != null, "Every exercised ETF must have a rate command.");
+            requireThat(Float.compare(rate, out.getEtfRate()) == 0, "The exercised rate must equal the signed rate.");
+        }
+    }
+
+    private static boolean signedByAll(CommandWithParties<CommandData> command, ContractState state) {
+        for (AbstractParty participant : state.getParticipants()) {
+            if (!command.getSigners().contains(participant.getOwningKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void requireThat(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException("Failed requirement: " + message);
+        }
+    }
+
+    public interface Commands extends CommandData {
+        /**
+         * Retires the current state of a fund ahead of its reissue.
+         */
+        class Exit implements Commands {
+            private final String referenceId;
+
+            public Exit(String referenceId) {
+                this.referenceId = referenceId;
+            }
+
+            public String getReferenceId() { return referenceId; }
+        }
+
+        /**
+         * Issues a fund again, equivalent to the state retired by the given Exit transaction.
+         */
+        class Reissue implements Commands {
+            private final String referenceId;
+            private final SecureHash exitTxId;
+
+            public Reissue(String referenceId, SecureHash exitTxId) {
+                this.referenceId = referenceId;
+                this.exitTxId = exitTxId;
+            }
+
+            public String getReferenceId() { return referenceId; }
+            public SecureHash getExitTxId() { return exitTxId; }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.cts.flow;
+
+import com.cts.service.ETFExposure;
+import com.cts.service.ETFExposureService;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+
+import java.util.List;
+
+/**
+ * Returns exposure totals from the node's [ETFExposureService]: those of the given fund if a reference id is given,
+ * else those of the given party, else those of every party with a live fund. An unknown fund gives an empty list.
+ */
+@StartableByRPC
+public class ETFExposureFlow extends FlowLogic<List<ETFExposure>> {
+    private final Party party;
+    private final String referenceId;
+
+    public ETFExposureFlow(Party party, String referenceId) {
+        this.party = party;
+        this.referenceId = referenceId;
+    }
+
+    @Override
+    public List<ETFExposure> call() {
+        final ETFExposureService exposures = getServiceHub().cordaService(ETFExposureService.class);
+        if (referenceId != null) {
+            final ETFExposure fund = exposures.fundExposure(referenceId);
+            return fund != null ? ImmutableList.of(fund) : ImmutableList.of();
+        }
+        if (party != null) {
+            return ImmutableList.of(exposures.partyExposure(party));
+        }
+        return exposures.parties();
+    }
+}
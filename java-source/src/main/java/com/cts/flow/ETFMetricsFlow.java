@@ -0,0 +1,17 @@
+package com.cts.flow;
+
+import com.cts.service.ETFFlowMetrics;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+/**
+ * Returns the node's ETF flow metrics in the Prometheus text format, see [ETFFlowMetrics]. This is how the metrics
+ * leave the node: the web server's /api/ETF/metrics endpoint runs it over RPC.
+ */
+@StartableByRPC
+public class ETFMetricsFlow extends FlowLogic<String> {
+    @Override
+    public String call() {
+        return getServiceHub().cordaService(ETFFlowMetrics.class).render();
+    }
+}
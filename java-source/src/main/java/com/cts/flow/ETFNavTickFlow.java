@@ -0,0 +1,35 @@
+package com.cts.flow;
+
+import com.cts.service.ETFNavService;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+/**
+ * Feeds constituent prices into the node's [ETFNavService] over RPC, in one flow per batch of ticks. Returns the
+ * number of prices that were held by any basket.
+ */
+@StartableByRPC
+public class ETFNavTickFlow extends FlowLogic<Integer> {
+    private final String[] constituents;
+    private final double[] prices;
+
+    public ETFNavTickFlow(String[] constituents, double[] prices) {
+        if (constituents.length != prices.length) {
+            throw new IllegalArgumentException("Expected one price per constituent.");
+        }
+        this.constituents = constituents;
+        this.prices = prices;
+    }
+
+    @Override
+    public Integer call() {
+        final ETFNavService navs = getServiceHub().cordaService(ETFNavService.class);
+        int held = 0;
+        for (int i = 0; i < constituents.length; i++) {
+            if (navs.tick(constituents[i], prices[i])) {
+                held++;
+            }
+        }
+        return held;
+    }
+}
@@ -0,0 +1,163 @@
+package com.cts.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.cts.contract.ETFRateCommand;
+import com.cts.service.ETFRateOracle;
+import net.corda.core.contracts.Command;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.transactions.FilteredTransaction;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Talks to the [ETFRateOracle] on another node. [Query] fetches the current rates of many funds, and [Sign] has the
+ * oracle sign the rate commands of many transactions, each in a single round trip. [QueryHandler] and [SignHandler]
+ * are the oracle's side.
+ */
+public class ETFRateOracleFlow {
+
+    /**
+     * Returns a rate command for each of the given funds, in order.
+     */
+    public static class Query extends FlowLogic<List<ETFRateCommand>> {
+        private final Party oracle;
+        private final List<String> referenceIds;
+
+        public Query(Party oracle, List<String> referenceIds) {
+            this.oracle = oracle;
+            this.referenceIds = new ArrayList<>(referenceIds);
+        }
+
+        @Suspendable
+        @Override
+        public List<ETFRateCommand> call() throws FlowException {
+            @SuppressWarnings("unchecked")
+            final List<ETFRateCommand> rates = sendAndReceive(List.class, oracle, referenceIds).unwrap(list -> {
+                if (list.size() != referenceIds.size()) {
+                    throw new FlowException("Oracle returned " + list.size() + " rates for " + referenceIds.size() + " funds");
+                }
+                for (int i = 0; i < list.size(); i++) {
+                    final Object rate = list.get(i);
+                    if (!(rate instanceof ETFRateCommand)
+                            || !((ETFRateCommand) rate).getReferenceId().equals(referenceIds.get(i))) {
+                        throw new FlowException("Oracle returned an unexpected rate " + rate);
+                    }
+                }
+                return (List<ETFRateCommand>) list;
+            });
+            return rates;
+        }
+    }
+
+    public static class QueryHandler extends FlowLogic<Void> {
+        private final Party otherParty;
+
+        public QueryHandler(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final List<String> referenceIds = new ArrayList<>();
+            receive(List.class, otherParty).unwrap(list -> {
+                for (Object referenceId : list) {
+                    if (!(referenceId instanceof String)) {
+                        throw new FlowException("Expected fund reference ids but got " + referenceId);
+                    }
+                    referenceIds.add((String) referenceId);
+                }
+                return list;
+            });
+            try {
+                send(otherParty, new ArrayList<>(getServiceHub().cordaService(ETFRateOracle.class).query(referenceIds)));
+            } catch (IllegalArgumentException ex) {
+                // Flow exceptions are passed on to the counterparty.
+                throw new FlowException(ex.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the oracle's signature over each of the given transactions, in order. Only the rate commands the oracle
+     * is a signer of are revealed to it.
+     */
+    public static class Sign extends FlowLogic<List<TransactionSignature>> {
+        private final Party oracle;
+        private final List<SignedTransaction> transactions;
+
+        public Sign(Party oracle, List<SignedTransaction> transactions) {
+            this.oracle = oracle;
+            this.transactions = new ArrayList<>(transactions);
+        }
+
+        @Suspendable
+        @Override
+        public List<TransactionSignature> call() throws FlowException {
+            final List<FilteredTransaction> filtered = new ArrayList<>(transactions.size());
+            for (SignedTransaction tx : transactions) {
+                filtered.add(tx.getTx().buildFilteredTransaction(element -> element instanceof Command
+                        && ((Command<?>) element).getValue() instanceof ETFRateCommand
+                        && ((Command<?>) element).getSigners().contains(oracle.getOwningKey())));
+            }
+            return sendAndReceive(List.class, oracle, filtered).unwrap(list -> {
+                if (list.size() != filtered.size()) {
+                    throw new FlowException("Oracle returned " + list.size() + " signatures for " + filtered.size() + " transactions");
+                }
+                final List<TransactionSignature> signatures = new ArrayList<>(list.size());
+                for (int i = 0; i < list.size(); i++) {
+                    if (!(list.get(i) instanceof TransactionSignature)) {
+                        throw new FlowException("Oracle returned an unexpected signature " + list.get(i));
+                    }
+                    final TransactionSignature signature = (TransactionSignature) list.get(i);
+                    if (!signature.getBy().equals(oracle.getOwningKey())) {
+                        throw new FlowException("Signature over " + filtered.get(i).getId() + " is not the oracle's");
+                    }
+                    try {
+                        signature.verify(filtered.get(i).getId());
+                    } catch (SignatureException ex) {
+                        throw new FlowException("Invalid oracle signature over " + filtered.get(i).getId(), ex);
+                    }
+                    signatures.add(signature);
+                }
+                return signatures;
+            });
+        }
+    }
+
+    public static class SignHandler extends FlowLogic<Void> {
+        private final Party otherParty;
+
+        public SignHandler(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final List<FilteredTransaction> filtered = new ArrayList<>();
+            receive(List.class, otherParty).unwrap(list -> {
+                for (Object ftx : list) {
+                    if (!(ftx instanceof FilteredTransaction)) {
+                        throw new FlowException("Expected filtered transactions but got " + ftx);
+                    }
+                    filtered.add((FilteredTransaction) ftx);
+                }
+                return list;
+            });
+            try {
+                send(otherParty, new ArrayList<>(getServiceHub().cordaService(ETFRateOracle.class).sign(filtered)));
+            } catch (IllegalArgumentException ex) {
+                throw new FlowException(ex.getMessage());
+            }
+            return null;
+        }
+    }
+}
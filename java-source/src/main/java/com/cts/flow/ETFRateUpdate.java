@@ -0,0 +1,25 @@
+package com.cts.flow;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * A new rate for the fund with the given reference id, as exercised by [ETFundBulkExercisingFlow].
+ */
+@CordaSerializable
+public class ETFRateUpdate {
+    private final String etfundRefId;
+    private final float etfRate;
+
+    public ETFRateUpdate(String etfundRefId, float etfRate) {
+        this.etfundRefId = etfundRefId;
+        this.etfRate = etfRate;
+    }
+
+    public String getEtfundRefId() { return etfundRefId; }
+    public float getEtfRate() { return etfRate; }
+
+    @Override
+    public String toString() {
+        return String.format("%s(etfundRefId=%s, etfRate=%s)", getClass().getSimpleName(), etfundRefId, etfRate);
+    }
+}
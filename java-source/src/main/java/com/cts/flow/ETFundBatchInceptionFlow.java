@@ -0,0 +1,242 @@
+package com.cts.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.cts.contract.ETFundBookContract;
+import com.cts.service.ETFFlowMetrics;
+import com.cts.service.ETFNotaryService;
+import com.cts.service.ETFTransactionVerifier;
+import com.cts.state.ETFundState;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.TransactionType;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.flows.FinalityFlow;
+import net.corda.flows.ResolveTransactionsFlow;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Batch variant of [ETFundInceptionFlow]. The [Initiator] splits the given [ETFundState]s into chunks and issues each
+ * chunk as the outputs of a single transaction, so the number of signing, notarisation and counterparty round trips
+ * grows with the number of chunks rather than the number of funds. Every fund in a batch must be between us and the
+ * one counterparty, since only that counterparty is asked to sign; a batch naming any other party is rejected before
+ * anything is sent.
+ * <p>
+ * The [Acceptor] first receives the number of chunks and then validates, signs and finalises each one in turn.
+ */
+public class ETFundBatchInceptionFlow {
+    public static final int DEFAULT_CHUNK_SIZE = 50;
+
+    public static class Initiator extends FlowLogic<List<SignedTransaction>> {
+
+        private final List<ETFundState> etfundStates;
+        private final Party otherParty;
+        private final int chunkSize;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                SENDING_TRANSACTION
+        );
+
+        private static final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step(
+                "Generating batch Inception transaction for the next chunk of ETFs.");
+        private static final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step(
+                "Verifying Inception contract constraints.");
+        private static final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step(
+                "Signing transaction with our private key.");
+        private static final ProgressTracker.Step SENDING_TRANSACTION = new ProgressTracker.Step(
+                "Sending proposed transaction to CounterParty for review.");
+
+        public Initiator(List<ETFundState> etfundStates, Party otherParty) {
+            this(etfundStates, otherParty, DEFAULT_CHUNK_SIZE);
+        }
+
+        public Initiator(List<ETFundState> etfundStates, Party otherParty, int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive.");
+            }
+            this.etfundStates = etfundStates;
+            this.otherParty = otherParty;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /**
+         * Issues one transaction per chunk and returns them in order.
+         */
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            return getServiceHub().cordaService(ETFFlowMetrics.class)
+                    .time(this, progressTracker, timer -> call(timer));
+        }
+
+        @Suspendable
+        private List<SignedTransaction> call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+            // The Inception command of a chunk needs the keys of all its participants, and only the counterparty
+            // signs besides us.
+            final Set<PublicKey> signers = ImmutableSet.of(keyPair.getPublic(), otherParty.getOwningKey());
+            for (ETFundState state : etfundStates) {
+                if (!signers.containsAll(state.getParticipants())) {
+                    throw new FlowException("ETF " + state.getStructuredProduct().getReferenceId()
+                            + " is not between us and " + otherParty + "; a batch issues funds with one counterparty");
+                }
+            }
+
+            // Funds are assigned to notaries first, so that every chunk can be notarised by the notary its funds
+            // were assigned to.
+            final Map<Party, List<ETFundState>> byNotary = getServiceHub()
+                    .cordaService(ETFNotaryService.class)
+                    .assignForIssuance(etfundStates, state -> state.getStructuredProduct().getReferenceId());
+            final Map<Party, List<List<ETFundState>>> chunksByNotary = new LinkedHashMap<>();
+            int chunkCount = 0;
+            for (Map.Entry<Party, List<ETFundState>> entry : byNotary.entrySet()) {
+                final List<List<ETFundState>> chunks = Lists.partition(entry.getValue(), chunkSize);
+                chunksByNotary.put(entry.getKey(), chunks);
+                chunkCount += chunks.size();
+            }
+            // Tell the counterparty how many transactions to expect in this session.
+            send(otherParty, chunkCount);
+
+            final List<SignedTransaction> committed = new ArrayList<>(chunkCount);
+            for (Map.Entry<Party, List<List<ETFundState>>> entry : chunksByNotary.entrySet()) {
+                final Party notary = entry.getKey();
+                for (List<ETFundState> chunk : entry.getValue()) {
+                    timer.step(GENERATING_TRANSACTION);
+                    // A single Inception command signed by all participants covers every output in the chunk.
+                    final Command txCommand = new Command(new ETFundBookContract.Commands.Inception(), participantKeys(chunk));
+                    final TransactionBuilder unsignedTx = new TransactionType.General.Builder(notary);
+                    for (ETFundState state : chunk) {
+                        unsignedTx.addOutputState(state);
+                    }
+                    unsignedTx.addCommand(txCommand);
+                    unsignedTx.setTime(Instant.now(), Duration.ofSeconds(60));
+
+                    timer.step(VERIFYING_TRANSACTION);
+                    unsignedTx.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+
+                    timer.step(SIGNING_TRANSACTION);
+                    final SignedTransaction partSignedTx = unsignedTx.signWith(keyPair).toSignedTransaction(false);
+
+                    timer.step(SENDING_TRANSACTION);
+                    send(otherParty, partSignedTx);
+                    committed.add(waitForLedgerCommit(partSignedTx.getId()));
+                }
+            }
+            return committed;
+        }
+
+        private static List<PublicKey> participantKeys(List<ETFundState> chunk) {
+            final Set<PublicKey> keys = new LinkedHashSet<>();
+            for (ETFundState state : chunk) {
+                keys.addAll(state.getParticipants());
+            }
+            return new ArrayList<>(keys);
+        }
+    }
+
+    public static class Acceptor extends FlowLogic<Void> {
+
+        private final Party otherParty;
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RECEIVING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                FINALISING_TRANSACTION
+        );
+
+        private static final ProgressTracker.Step RECEIVING_TRANSACTION = new ProgressTracker.Step(
+                "Receiving proposed batch transaction from Bank.");
+        private static final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step(
+                "Verifying signatures and contract constraints.");
+        private static final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step(
+                "Signing proposed transaction with our private key.");
+        private static final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step(
+                "Obtaining notary signature and recording transaction.");
+
+        public Acceptor(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            return getServiceHub().cordaService(ETFFlowMetrics.class)
+                    .time(this, progressTracker, timer -> call(timer));
+        }
+
+        @Suspendable
+        private Void call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+            final ETFNotaryService notaries = getServiceHub().cordaService(ETFNotaryService.class);
+            final ETFTransactionVerifier verifier = getServiceHub().cordaService(ETFTransactionVerifier.class);
+            final Set<Party> participants = ImmutableSet.of(getServiceHub().getMyInfo().getLegalIdentity(), otherParty);
+
+            final int chunks = receive(Integer.class, otherParty).unwrap(count -> {
+                if (count < 0) {
+                    throw new FlowException("Invalid chunk count " + count);
+                }
+                return count;
+            });
+
+            for (int i = 0; i < chunks; i++) {
+                timer.step(RECEIVING_TRANSACTION);
+                final SignedTransaction partSignedTx = receive(SignedTransaction.class, otherParty)
+                        .unwrap(tx ->
+                        {
+                            timer.step(VERIFYING_TRANSACTION);
+                            final Party notary = tx.getTx().getNotary();
+                            if (notary == null || !notaries.isNotary(notary)) {
+                                throw new FlowException(tx.getId() + " does not use a known notary");
+                            }
+                            return tx;
+                        });
+                // Check that the signature of the other party is valid before fetching anything, so a proposal with a
+                // bad signature costs no downloads. Our signature and the notary's signature are allowed to be
+                // omitted at this stage as this is only a partially signed transaction.
+                verifier.checkSignatures(partSignedTx, timer,
+                        keyPair.getPublic(), partSignedTx.getTx().getNotary().getOwningKey());
+                // Fetch the input transactions and attachments we do not hold from the initiator, so the
+                // transaction can be resolved against our storage.
+                subFlow(new ResolveTransactionsFlow(partSignedTx, otherParty));
+                verifier.verify(partSignedTx, getServiceHub(), timer);
+
+                timer.step(SIGNING_TRANSACTION);
+                final DigitalSignature.WithKey mySig = partSignedTx.signWithECDSA(keyPair);
+                final SignedTransaction signedTx = partSignedTx.plus(mySig);
+
+                timer.step(FINALISING_TRANSACTION);
+                subFlow(new FinalityFlow(signedTx, participants));
+            }
+            return null;
+        }
+    }
+}
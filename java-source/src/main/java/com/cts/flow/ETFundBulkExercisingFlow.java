@@ -0,0 +1,253 @@
+package com.cts.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.cts.contract.ETFRateCommand;
+import com.cts.contract.ETFundContract;
+import com.cts.service.ETFFlowMetrics;
+import com.cts.service.ETFNotaryService;
+import com.cts.service.ETFRateOracle;
+import com.cts.service.ETFTransactionVerifier;
+import com.cts.service.ETFundReferenceService;
+import com.cts.state.ETFundState;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionType;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.flows.FinalityFlow;
+import net.corda.flows.ResolveTransactionsFlow;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exercises many funds with the same counterparty in as few transactions as possible.
+ * <p>
+ * The [Initiator] resolves each [ETFRateUpdate] to its current [ETFundState], skipping unknown reference ids, and
+ * exercises all the funds assigned to the same notary in one transaction. The caller can tell which updates were
+ * applied from the fund states produced by the returned transactions, so each fund may only be given once.
+ */
+public class ETFundBulkExercisingFlow {
+    public static class Initiator extends FlowLogic<List<SignedTransaction>> {
+
+        private final Party otherParty;
+        private final List<ETFRateUpdate> updates;
+        // Null to exercise at the given rates without an oracle's attestation.
+        private final Party oracle;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                EXTRACTING_SP,
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                SENDING_TRANSACTION
+        );
+
+        private static final ProgressTracker.Step EXTRACTING_SP = new ProgressTracker.Step(
+                "Extracting Structured Product Details from vault.");
+        private static final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step(
+                "Generating bulk Exercising transaction and states.");
+        private static final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step(
+                "Verifying Exercising contract constraints.");
+        private static final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step(
+                "Signing transaction with our private key.");
+        private static final ProgressTracker.Step SENDING_TRANSACTION = new ProgressTracker.Step(
+                "Sending proposed transaction to CounterParty for review.");
+
+        public Initiator(Party otherParty, List<ETFRateUpdate> updates) {
+            this(otherParty, updates, null);
+        }
+
+        /**
+         * Exercises the funds with each rate carried in an [ETFRateCommand] signed by the given oracle. The oracle
+         * signs the rates of every transaction in a single round trip.
+         */
+        public Initiator(Party otherParty, List<ETFRateUpdate> updates, Party oracle) {
+            this.otherParty = otherParty;
+            this.updates = updates;
+            this.oracle = oracle;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            return getServiceHub().cordaService(ETFFlowMetrics.class)
+                    .time(this, progressTracker, timer -> call(timer));
+        }
+
+        @Suspendable
+        private List<SignedTransaction> call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+
+            timer.step(EXTRACTING_SP);
+            final ETFundReferenceService references = getServiceHub().cordaService(ETFundReferenceService.class);
+            // Inputs must share the transaction's notary, so funds are grouped by the notary their chain is on.
+            final Map<Party, List<StateAndRef<ETFundState>>> inputsByNotary = new LinkedHashMap<>();
+            final Map<StateAndRef<ETFundState>, Float> rates = new LinkedHashMap<>();
+            final Set<String> refIds = new HashSet<>();
+            for (ETFRateUpdate update : updates) {
+                if (!refIds.add(update.getEtfundRefId())) {
+                    throw new FlowException("ETF with reference " + update.getEtfundRefId() + " is given more than once");
+                }
+                final StateAndRef<ETFundState> input = references.lookup(update.getEtfundRefId());
+                if (input == null) {
+                    continue;
+                }
+                try {
+                    ETFundExercisingFlow.tradeValue(input.getState().component1(), update.getEtfRate());
+                } catch (IllegalArgumentException ex) {
+                    getLogger().warn("Not exercising {}: {}", update.getEtfundRefId(), ex.getMessage());
+                    continue;
+                }
+                rates.put(input, update.getEtfRate());
+                inputsByNotary.computeIfAbsent(input.getState().getNotary(), notary -> new ArrayList<>()).add(input);
+            }
+            send(otherParty, inputsByNotary.size());
+
+            final List<SignedTransaction> proposals = new ArrayList<>(inputsByNotary.size());
+            for (Map.Entry<Party, List<StateAndRef<ETFundState>>> entry : inputsByNotary.entrySet()) {
+                timer.step(GENERATING_TRANSACTION);
+                final TransactionBuilder unsignedTx = new TransactionType.General.Builder(entry.getKey());
+                final Set<PublicKey> signers = new LinkedHashSet<>();
+                for (StateAndRef<ETFundState> input : entry.getValue()) {
+                    final ETFundState output = ETFundExercisingFlow.exercisedState(input.getState().component1(), rates.get(input));
+                    unsignedTx.addInputState(input);
+                    unsignedTx.addOutputState(output);
+                    signers.addAll(output.getParticipants());
+                    if (oracle != null) {
+                        unsignedTx.addCommand(new Command(
+                                new ETFRateCommand(output.getStructuredProduct().getReferenceId(), rates.get(input)),
+                                oracle.getOwningKey()));
+                    }
+                }
+                unsignedTx.addCommand(new Command(new ETFundContract.Commands.Exercise(), new ArrayList<>(signers)));
+                unsignedTx.setTime(Instant.now(), Duration.ofSeconds(60));
+
+                timer.step(VERIFYING_TRANSACTION);
+                unsignedTx.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+
+                timer.step(SIGNING_TRANSACTION);
+                proposals.add(unsignedTx.signWith(keyPair).toSignedTransaction(false));
+            }
+            if (oracle != null) {
+                final List<TransactionSignature> oracleSigs = subFlow(new ETFRateOracleFlow.Sign(oracle, proposals));
+                for (int i = 0; i < proposals.size(); i++) {
+                    proposals.set(i, proposals.get(i).plus(oracleSigs.get(i)));
+                }
+            }
+
+            timer.step(SENDING_TRANSACTION);
+            final List<SignedTransaction> committed = new ArrayList<>(proposals.size());
+            for (SignedTransaction partSignedTx : proposals) {
+                send(otherParty, partSignedTx);
+                committed.add(waitForLedgerCommit(partSignedTx.getId()));
+            }
+            return committed;
+        }
+    }
+
+    public static class Acceptor extends FlowLogic<Void> {
+
+        private final Party otherParty;
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RECEIVING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                FINALISING_TRANSACTION
+        );
+
+        private static final ProgressTracker.Step RECEIVING_TRANSACTION = new ProgressTracker.Step(
+                "Receiving proposed bulk transaction from Bank.");
+        private static final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step(
+                "Verifying signatures and contract constraints.");
+        private static final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step(
+                "Signing proposed transaction with our private key.");
+        private static final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step(
+                "Obtaining notary signature and recording transaction.");
+
+        public Acceptor(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            return getServiceHub().cordaService(ETFFlowMetrics.class)
+                    .time(this, progressTracker, timer -> call(timer));
+        }
+
+        @Suspendable
+        private Void call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+            final ETFNotaryService notaries = getServiceHub().cordaService(ETFNotaryService.class);
+            final ETFTransactionVerifier verifier = getServiceHub().cordaService(ETFTransactionVerifier.class);
+            final Set<Party> participants = ImmutableSet.of(getServiceHub().getMyInfo().getLegalIdentity(), otherParty);
+
+            final int transactions = receive(Integer.class, otherParty).unwrap(count -> {
+                if (count < 0) {
+                    throw new FlowException("Invalid transaction count " + count);
+                }
+                return count;
+            });
+
+            for (int i = 0; i < transactions; i++) {
+                timer.step(RECEIVING_TRANSACTION);
+                final SignedTransaction partSignedTx = receive(SignedTransaction.class, otherParty)
+                        .unwrap(tx ->
+                        {
+                            timer.step(VERIFYING_TRANSACTION);
+                            final Party notary = tx.getTx().getNotary();
+                            if (notary == null || !notaries.isNotary(notary)) {
+                                throw new FlowException(tx.getId() + " does not use a known notary");
+                            }
+                            return tx;
+                        });
+                // Check that the signature of the other party is valid before fetching anything, so a proposal with a
+                // bad signature costs no downloads. Our signature and the notary's signature are allowed to be
+                // omitted at this stage as this is only a partially signed transaction.
+                verifier.checkSignatures(partSignedTx, timer,
+                        keyPair.getPublic(), partSignedTx.getTx().getNotary().getOwningKey());
+                // Fetch the input transactions and attachments we do not hold from the initiator, so the
+                // transaction can be resolved against our storage.
+                subFlow(new ResolveTransactionsFlow(partSignedTx, otherParty));
+                verifier.verify(partSignedTx, getServiceHub(), timer);
+                ETFundExercisingFlow.checkAttestedRates(partSignedTx.getTx(),
+                        ETFRateOracle.requiredOracleKey(getServiceHub()));
+
+                timer.step(SIGNING_TRANSACTION);
+                final DigitalSignature.WithKey mySig = partSignedTx.signWithECDSA(keyPair);
+                final SignedTransaction signedTx = partSignedTx.plus(mySig);
+
+                timer.step(FINALISING_TRANSACTION);
+                subFlow(new FinalityFlow(signedTx, participants));
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.cts.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.cts.contract.ETFundCompactionContract;
+import com.cts.schema.KeysetPager;
+import com.cts.service.ETFNotaryService;
+import com.cts.service.ETFundReferenceService;
+import com.cts.state.ETFundState;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionType;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.transactions.WireTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.flows.FinalityFlow;
+import net.corda.flows.ResolveTransactionsFlow;
+
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Compacts the back-chain of an [ETFundState] so that resolving its history stays cheap however long it has been
+ * exercised.
+ * <p>
+ * The [Initiator] exits the fund's current state in one transaction and re-issues an equivalent state, with no
+ * inputs and so no history, in a second. Both transactions are signed by both parties and checked by
+ * [ETFundCompactionContract], so only funds issued with that contract can be compacted. The [Acceptor] only signs a
+ * reissue that names an exit it has recorded, whose state is identical to the one exited and whose fund has no live
+ * state, since that equivalence cannot be checked on-ledger once the chain is cut.
+ * <p>
+ * The two transactions are not atomic. If the reissue fails once the exit is recorded, the fund has no live state
+ * until the compaction is resumed with the exit transaction id, which the failure reports.
+ * <p>
+ * The [ThresholdInitiator] compacts every fund of ours that has been exercised at least a given number of times.
+ */
+public class ETFundCompactionFlow {
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+
+        private Party otherParty;
+        private final String etfundRefId;
+        private final SecureHash exitTxId;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                EXTRACTING_SP,
+                EXITING,
+                REISSUING
+        );
+
+        private static final ProgressTracker.Step EXTRACTING_SP = new ProgressTracker.Step(
+                "Extracting Structured Product Details from vault.");
+        private static final ProgressTracker.Step EXITING = new ProgressTracker.Step(
+                "Exiting the current ETF state with CounterParty.");
+        private static final ProgressTracker.Step REISSUING = new ProgressTracker.Step(
+                "Re-issuing the ETF state on a fresh chain with CounterParty.");
+
+        public Initiator(Party otherParty, String etfundRefId) {
+            this.otherParty = otherParty;
+            this.etfundRefId = etfundRefId;
+            this.exitTxId = null;
+        }
+
+        /**
+         * Resumes a compaction whose exit was recorded but whose reissue was not.
+         */
+        public Initiator(SecureHash exitTxId) {
+            this.etfundRefId = null;
+            this.exitTxId = exitTxId;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /**
+         * Returns the reissue transaction, which is the new root of the fund's chain.
+         */
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+            final ETFundReferenceService references = getServiceHub().cordaService(ETFundReferenceService.class);
+
+            progressTracker.setCurrentStep(EXTRACTING_SP);
+            final SignedTransaction exited;
+            final ETFundState state;
+            if (exitTxId == null) {
+                final StateAndRef<ETFundState> current = references.lookup(etfundRefId);
+                if (current == null) {
+                    throw new FlowException("No Input state found for Reference ID " + etfundRefId);
+                }
+                state = current.getState().getData();
+                if (!(state.getContract() instanceof ETFundCompactionContract)) {
+                    throw new FlowException("ETF " + etfundRefId + " was not issued with the compaction contract");
+                }
+
+                progressTracker.setCurrentStep(EXITING);
+                final TransactionBuilder exitTx = new TransactionType.General.Builder(current.getState().getNotary()).withItems(
+                        current,
+                        new Command(new ETFundCompactionContract.Commands.Exit(etfundRefId), state.getParticipants()));
+                exited = propose(exitTx, keyPair);
+            } else {
+                exited = getServiceHub().getValidatedTransactions().getTransaction(exitTxId);
+                if (exited == null) {
+                    throw new FlowException("No exit transaction " + exitTxId);
+                }
+                state = exitedState(exited, getServiceHub());
+                final Party me = getServiceHub().getMyInfo().getLegalIdentity();
+                otherParty = state.getBuyer().equals(me) ? state.getSeller() : state.getBuyer();
+                if (references.lookup(state.getStructuredProduct().getReferenceId()) != null) {
+                    throw new FlowException("ETF exited in " + exitTxId + " has already been reissued");
+                }
+            }
+
+            progressTracker.setCurrentStep(REISSUING);
+            final String referenceId = state.getStructuredProduct().getReferenceId();
+            try {
+                final ETFundState reissued;
+                try {
+                    reissued = state.clone();
+                } catch (CloneNotSupportedException e) {
+                    throw new FlowException("Error while cloning input state", e);
+                }
+                final TransactionBuilder reissueTx = new TransactionType.General.Builder(exited.getTx().getNotary()).withItems(
+                        reissued,
+                        new Command(new ETFundCompactionContract.Commands.Reissue(referenceId, exited.getId()), reissued.getParticipants()));
+                return propose(reissueTx, keyPair);
+            } catch (FlowException ex) {
+                throw new FlowException("ETF " + referenceId + " was exited in " + exited.getId()
+                        + " but not reissued, resume the compaction with that transaction id: " + ex.getMessage(), ex);
+            }
+        }
+
+        /**
+         * Verifies and signs the transaction, sends it to the counterparty to sign and finalise, and waits for it to
+         * be recorded.
+         */
+        @Suspendable
+        private SignedTransaction propose(TransactionBuilder unsignedTx, KeyPair keyPair) throws FlowException {
+            unsignedTx.setTime(Instant.now(), Duration.ofSeconds(60));
+            unsignedTx.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+            final SignedTransaction partSignedTx = unsignedTx.signWith(keyPair).toSignedTransaction(false);
+            send(otherParty, partSignedTx);
+            return waitForLedgerCommit(partSignedTx.getId());
+        }
+    }
+
+    /**
+     * Compacts every unconsumed fund that has been exercised at least [minIterations] times, up to [maxFunds] of
+     * them, and returns the reissue transactions.
+     */
+    public static class ThresholdInitiator extends FlowLogic<List<SignedTransaction>> {
+
+        private final int minIterations;
+        private final int maxFunds;
+
+        public ThresholdInitiator(int minIterations, int maxFunds) {
+            if (minIterations <= 0 || maxFunds <= 0) {
+                throw new IllegalArgumentException("Iteration threshold and maximum number of funds must be positive.");
+            }
+            this.minIterations = minIterations;
+            this.maxFunds = maxFunds;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            final Party me = getServiceHub().getMyInfo().getLegalIdentity();
+            // Compacting changes the states being paged through, so they are read in full before compacting.
+            final List<ETFundState> due = due();
+
+            final List<SignedTransaction> reissued = new ArrayList<>(due.size());
+            for (ETFundState state : due) {
+                final Party counterparty = state.getBuyer().equals(me) ? state.getSeller() : state.getBuyer();
+                reissued.add(subFlow(new Initiator(counterparty, state.getStructuredProduct().getReferenceId())));
+            }
+            return reissued;
+        }
+
+        /**
+         * Returns up to [maxFunds] of the unconsumed funds that can be compacted and have been exercised at least
+         * [minIterations] times. [ETFundState] has no queryable schema, so every live fund is paged through and the
+         * iteration count is checked on each state.
+         */
+        private List<ETFundState> due() {
+            final KeysetPager<ETFundState> pages = KeysetPager.of(getServiceHub().getVaultService(), ETFundState.class,
+                    Vault.StateStatus.UNCONSUMED, null, Instant.now(), DEFAULT_PAGE_SIZE);
+            final List<ETFundState> due = new ArrayList<>();
+            while (due.size() < maxFunds && pages.hasNext()) {
+                for (StateAndRef<ETFundState> stateAndRef : pages.next().getStates()) {
+                    final ETFundState state = stateAndRef.getState().getData();
+                    if (due.size() < maxFunds
+                            && state.getIterationNo() >= minIterations
+                            && state.getContract() instanceof ETFundCompactionContract) {
+                        due.add(state);
+                    }
+                }
+            }
+            return due;
+        }
+    }
+
+    public static class Acceptor extends FlowLogic<Void> {
+
+        private final Party otherParty;
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RECEIVING_EXIT,
+                RECEIVING_REISSUE
+        );
+
+        private static final ProgressTracker.Step RECEIVING_EXIT = new ProgressTracker.Step(
+                "Verifying, signing and recording the exit of the ETF state.");
+        private static final ProgressTracker.Step RECEIVING_REISSUE = new ProgressTracker.Step(
+                "Verifying, signing and recording the reissue of the ETF state.");
+
+        public Acceptor(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /**
+         * Signs an exit followed by its reissue or, when the initiator resumes a compaction, a lone reissue of an
+         * exit recorded in an earlier session.
+         */
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+            final Set<Party> participants = ImmutableSet.of(getServiceHub().getMyInfo().getLegalIdentity(), otherParty);
+
+            progressTracker.setCurrentStep(RECEIVING_EXIT);
+            final SignedTransaction received = receiveVerified(keyPair);
+            final SignedTransaction reissueTx;
+            if (singleCommand(received) instanceof ETFundCompactionContract.Commands.Exit) {
+                exitedState(received, getServiceHub());
+                subFlow(new FinalityFlow(received.plus(received.signWithECDSA(keyPair)), participants));
+
+                progressTracker.setCurrentStep(RECEIVING_REISSUE);
+                reissueTx = receiveVerified(keyPair);
+                checkReissue(reissueTx, received.getId());
+            } else {
+                progressTracker.setCurrentStep(RECEIVING_REISSUE);
+                reissueTx = received;
+                checkReissue(reissueTx, null);
+            }
+            subFlow(new FinalityFlow(reissueTx.plus(reissueTx.signWithECDSA(keyPair)), participants));
+            return null;
+        }
+
+        /**
+         * Receives a transaction, checks its signatures, then fetches the dependencies we lack and runs the contracts.
+         */
+        @Suspendable
+        private SignedTransaction receiveVerified(KeyPair keyPair) throws FlowException {
+            final ETFNotaryService notaries = getServiceHub().cordaService(ETFNotaryService.class);
+            final SignedTransaction tx = receive(SignedTransaction.class, otherParty).unwrap(received -> {
+                final Party notary = received.getTx().getNotary();
+                if (notary == null || !notaries.isNotary(notary)) {
+                    throw new FlowException(received.getId() + " does not use a known notary");
+                }
+                return received;
+            });
+            // The signatures first, so a proposal with a bad signature costs no downloads.
+            final WireTransaction wireTx;
+            try {
+                wireTx = tx.verifySignatures(keyPair.getPublic(), tx.getTx().getNotary().getOwningKey());
+            } catch (SignatureException ex) {
+                throw new FlowException(tx.getId() + " failed signature checks", ex);
+            }
+            subFlow(new ResolveTransactionsFlow(tx, otherParty));
+            wireTx.toLedgerTransaction(getServiceHub()).verify();
+            return tx;
+        }
+
+        /**
+         * Checks that the transaction reissues, unchanged, a fund exited in a transaction we have recorded, which
+         * must be the given one if not null, and that the fund has no live state.
+         */
+        private void checkReissue(SignedTransaction tx, SecureHash expectedExitTxId) throws FlowException {
+            final CommandData command = singleCommand(tx);
+            if (!(command instanceof ETFundCompactionContract.Commands.Reissue)) {
+                throw new FlowException(tx.getId() + " is not an ETF reissue");
+            }
+            final SecureHash exitTxId = ((ETFundCompactionContract.Commands.Reissue) command).getExitTxId();
+            if (expectedExitTxId != null && !expectedExitTxId.equals(exitTxId)) {
+                throw new FlowException(tx.getId() + " does not reissue the ETF exited in " + expectedExitTxId);
+            }
+            final SignedTransaction exitTx = getServiceHub().getValidatedTransactions().getTransaction(exitTxId);
+            if (exitTx == null) {
+                throw new FlowException(tx.getId() + " reissues the ETF exited in " + exitTxId + ", which we have not recorded");
+            }
+            final ETFundState exited = exitedState(exitTx, getServiceHub());
+            final ContractState reissued = tx.getTx().getOutputs().get(0).getData();
+            if (!(reissued instanceof ETFundState) || !equivalent(exited, (ETFundState) reissued)) {
+                throw new FlowException(tx.getId() + " does not reissue the same ETF state");
+            }
+            final String referenceId = exited.getStructuredProduct().getReferenceId();
+            if (getServiceHub().cordaService(ETFundReferenceService.class).lookup(referenceId) != null) {
+                throw new FlowException("ETF " + referenceId + " already has a live state");
+            }
+        }
+
+        /**
+         * Whether the reissued state carries the same fund, parties, contract and exercise history as the exited one.
+         */
+        static boolean equivalent(ETFundState exited, ETFundState reissued) {
+            return exited.getStructuredProduct().getReferenceId().equals(reissued.getStructuredProduct().getReferenceId())
+                    && exited.getBuyer().equals(reissued.getBuyer())
+                    && exited.getSeller().equals(reissued.getSeller())
+                    && exited.getContract().getClass().equals(reissued.getContract().getClass())
+                    && Objects.equals(exited.getStatus(), reissued.getStatus())
+                    && exited.getIterationNo() == reissued.getIterationNo()
+                    && Float.compare(exited.getEtfRate(), reissued.getEtfRate()) == 0
+                    && Float.compare(exited.getStructuredProduct().getMaxExposure(),
+                            reissued.getStructuredProduct().getMaxExposure()) == 0;
+        }
+    }
+
+    /**
+     * Returns the fund state retired by an exit transaction, checking that it is one and that the fund was governed
+     * by [ETFundCompactionContract], so the compaction rules were applied to it.
+     */
+    static ETFundState exitedState(SignedTransaction exitTx, ServiceHub services) throws FlowException {
+        if (!(singleCommand(exitTx) instanceof ETFundCompactionContract.Commands.Exit)) {
+            throw new FlowException(exitTx.getId() + " is not an ETF exit");
+        }
+        final ContractState exited = exitTx.getTx().toLedgerTransaction(services).getInputs().get(0).getState().getData();
+        if (!(exited instanceof ETFundState) || !(exited.getContract() instanceof ETFundCompactionContract)) {
+            throw new FlowException(exitTx.getId() + " does not exit a compactable ETF state");
+        }
+        return (ETFundState) exited;
+    }
+
+    private static CommandData singleCommand(SignedTransaction tx) throws FlowException {
+        final List<Command> commands = tx.getTx().getCommands();
+        if (commands.size() != 1) {
+            throw new FlowException("A compaction transaction holds a single command");
+        }
+        return commands.get(0).getValue();
+    }
+}
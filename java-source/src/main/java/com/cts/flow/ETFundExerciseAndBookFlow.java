@@ -0,0 +1,266 @@
+package com.cts.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.cts.contract.ETFRateCommand;
+import com.cts.contract.ETFundBookContract;
+import com.cts.contract.ETFundContract;
+import com.cts.service.ETFNavService;
+import com.cts.service.ETFFlowMetrics;
+import com.cts.service.ETFNotaryService;
+import com.cts.service.ETFRateOracle;
+import com.cts.service.ETFTransactionVerifier;
+import com.cts.service.ETFundReferenceService;
+import com.cts.state.ETFBookState;
+import com.cts.state.ETFundState;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.StateAndContract;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionType;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.flows.FinalityFlow;
+import net.corda.flows.ResolveTransactionsFlow;
+
+import java.security.KeyPair;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Exercises an [ETFundState] and books the resulting trade in a single transaction.
+ * <p>
+ * The transaction consumes the current fund state and produces both the exercised fund state and an [ETFBookState]
+ * for the exposure drawn down, under an Exercise and a Booking command. The fund is therefore never exercised without
+ * being booked, and each rate event costs one notarisation and one counterparty round trip instead of two.
+ */
+public class ETFundExerciseAndBookFlow {
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+
+        private final String etfundRefId;
+        // Null to take the rate from the NAV of the fund's basket.
+        private final Float etfRate;
+        private final Party otherParty;
+        // Null to exercise without an oracle's attestation of the rate.
+        private final Party oracle;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                EXTRACTING_SP,
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                SENDING_TRANSACTION
+        );
+
+        private static final ProgressTracker.Step EXTRACTING_SP = new ProgressTracker.Step(
+                "Extracting Structured Product Details from vault.");
+        private static final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step(
+                "Generating Exercising and Booking transaction and states.");
+        private static final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step(
+                "Verifying Exercising and Booking contract constraints.");
+        private static final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step(
+                "Signing transaction with our private key.");
+        private static final ProgressTracker.Step SENDING_TRANSACTION = new ProgressTracker.Step(
+                "Sending proposed transaction to CounterParty for review.");
+
+        public Initiator(Party otherParty, String etfundRefId, float etfRate) {
+            this(otherParty, etfundRefId, etfRate, null);
+        }
+
+        /**
+         * Exercises the fund at the current NAV of its basket, see [ETFNavService].
+         */
+        public Initiator(Party otherParty, String etfundRefId) {
+            this(otherParty, etfundRefId, null, null);
+        }
+
+        /**
+         * Exercises the fund with its rate carried in an [ETFRateCommand] signed by the given oracle. If no rate is
+         * given, the oracle's current rate is used.
+         */
+        public Initiator(Party otherParty, String etfundRefId, Float etfRate, Party oracle) {
+            this.etfundRefId = etfundRefId;
+            this.etfRate = etfRate;
+            this.otherParty = otherParty;
+            this.oracle = oracle;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        private float etfRate() throws FlowException {
+            if (etfRate != null) {
+                return etfRate;
+            }
+            if (oracle != null) {
+                return subFlow(new ETFRateOracleFlow.Query(oracle, Collections.singletonList(etfundRefId))).get(0).getEtfRate();
+            }
+            try {
+                return getServiceHub().cordaService(ETFNavService.class).etfRate(etfundRefId);
+            } catch (IllegalArgumentException ex) {
+                throw new FlowException(ex.getMessage(), ex);
+            }
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            return getServiceHub().cordaService(ETFFlowMetrics.class)
+                    .time(this, progressTracker, timer -> call(timer));
+        }
+
+        @Suspendable
+        private SignedTransaction call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+
+            // Stage 1.
+            timer.step(EXTRACTING_SP);
+            final StateAndRef<ETFundState> inputStateAndRef = getServiceHub()
+                    .cordaService(ETFundReferenceService.class)
+                    .lookup(etfundRefId);
+            if (inputStateAndRef == null) {
+                throw new FlowException("No Input state found for Reference ID " + etfundRefId);
+            }
+            final Party notary = inputStateAndRef.getState().getNotary();
+            final ETFundState inputState = inputStateAndRef.getState().component1();
+            // Read before exercising, the output may share the structured product with the input.
+            final float exposureBefore = inputState.getStructuredProduct().getMaxExposure();
+            final ETFundState outputState;
+            try {
+                outputState = ETFundExercisingFlow.exercisedState(inputState, etfRate());
+            } catch (IllegalArgumentException ex) {
+                throw new FlowException(ex.getMessage(), ex);
+            }
+            final float bookedValue = exposureBefore - outputState.getStructuredProduct().getMaxExposure();
+
+            // Stage 2.
+            timer.step(GENERATING_TRANSACTION);
+            // The booking carries the fund reference as its external id, so it can be matched to the exercise.
+            final ETFBookState booking = new ETFBookState(
+                    Math.round(bookedValue),
+                    outputState.getSeller(),
+                    outputState.getBuyer(),
+                    new UniqueIdentifier(etfundRefId));
+            final Command exerciseCommand = new Command(new ETFundContract.Commands.Exercise(), outputState.getParticipants());
+            final Command bookingCommand = new Command(new ETFundBookContract.Commands.Booking(), outputState.getParticipants());
+            final TransactionBuilder unsignedTx = new TransactionType.General.Builder(notary).withItems(
+                    inputStateAndRef,
+                    outputState,
+                    new StateAndContract(booking, ETFundBookContract.ETF_CONTRACT_ID),
+                    exerciseCommand,
+                    bookingCommand);
+            if (oracle != null) {
+                unsignedTx.addCommand(new Command(new ETFRateCommand(etfundRefId, outputState.getEtfRate()), oracle.getOwningKey()));
+            }
+            unsignedTx.setTime(Instant.now(), Duration.ofSeconds(60));
+
+            // Stage 3.
+            timer.step(VERIFYING_TRANSACTION);
+            unsignedTx.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+
+            // Stage 4.
+            timer.step(SIGNING_TRANSACTION);
+            SignedTransaction partSignedTx = unsignedTx.signWith(keyPair).toSignedTransaction(false);
+            if (oracle != null) {
+                final List<TransactionSignature> oracleSigs = subFlow(
+                        new ETFRateOracleFlow.Sign(oracle, Collections.singletonList(partSignedTx)));
+                partSignedTx = partSignedTx.plus(oracleSigs.get(0));
+            }
+
+            // Stage 5.
+            timer.step(SENDING_TRANSACTION);
+            this.send(otherParty, partSignedTx);
+
+            return waitForLedgerCommit(partSignedTx.getId());
+        }
+    }
+
+    public static class Acceptor extends FlowLogic<Void> {
+
+        private final Party otherParty;
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RECEIVING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                FINALISING_TRANSACTION
+        );
+
+        private static final ProgressTracker.Step RECEIVING_TRANSACTION = new ProgressTracker.Step(
+                "Receiving proposed transaction from Bank.");
+        private static final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step(
+                "Verifying signatures and contract constraints.");
+        private static final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step(
+                "Signing proposed transaction with our private key.");
+        private static final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step(
+                "Obtaining notary signature and recording transaction.");
+
+        public Acceptor(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            return getServiceHub().cordaService(ETFFlowMetrics.class)
+                    .time(this, progressTracker, timer -> call(timer));
+        }
+
+        @Suspendable
+        private Void call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
+            final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
+            final ETFNotaryService notaries = getServiceHub().cordaService(ETFNotaryService.class);
+            final ETFTransactionVerifier verifier = getServiceHub().cordaService(ETFTransactionVerifier.class);
+
+            timer.step(RECEIVING_TRANSACTION);
+            final SignedTransaction partSignedTx = receive(SignedTransaction.class, otherParty)
+                    .unwrap(tx ->
+                    {
+                        timer.step(VERIFYING_TRANSACTION);
+                        final Party notary = tx.getTx().getNotary();
+                        if (notary == null || !notaries.isNotary(notary)) {
+                            throw new FlowException(tx.getId() + " does not use a known notary");
+                        }
+                        return tx;
+                    });
+            // Check that the signature of the other party is valid before fetching anything, so a proposal with a
+            // bad signature costs no downloads. Our signature and the notary's signature are allowed to be
+            // omitted at this stage as this is only a partially signed transaction.
+            verifier.checkSignatures(partSignedTx, timer,
+                    keyPair.getPublic(), partSignedTx.getTx().getNotary().getOwningKey());
+            // Fetch the input transactions and attachments we do not hold from the initiator, so the
+            // transaction can be resolved against our storage.
+            subFlow(new ResolveTransactionsFlow(partSignedTx, otherParty));
+            // Runs both the fund contract and the booking contract.
+            verifier.verify(partSignedTx, getServiceHub(), timer);
+            ETFundExercisingFlow.checkAttestedRates(partSignedTx.getTx(),
+                    ETFRateOracle.requiredOracleKey(getServiceHub()));
+
+            timer.step(SIGNING_TRANSACTION);
+            final DigitalSignature.WithKey mySig = partSignedTx.signWithECDSA(keyPair);
+            final SignedTransaction signedTx = partSignedTx.plus(mySig);
+
+            timer.step(FINALISING_TRANSACTION);
+            final Set<Party> participants = ImmutableSet.of(getServiceHub().getMyInfo().getLegalIdentity(), otherParty);
+            subFlow(new FinalityFlow(signedTx, participants));
+
+            return null;
+        }
+    }
+}
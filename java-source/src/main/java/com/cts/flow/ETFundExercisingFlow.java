@@ -1,14 +1,22 @@
 package com.cts.flow;
 
 import co.paralleluniverse.fibers.Suspendable;
+import com.cts.contract.ETFRateCommand;
 import com.cts.contract.ETFundContract;
 import com.cts.state.ETFundStateStatus;
 //import com.cts.bfs.cordapp.fxproduct.util.StructuredProductsHelper;
 import com.cts.state.ETFundState;
-import com.cts.bfs.cordapp.fxproduct.vault.VaultManager;
+import com.cts.service.ETFFlowMetrics;
+import com.cts.service.ETFNavService;
+import com.cts.service.ETFNotaryService;
+import com.cts.service.ETFRateOracle;
+import com.cts.service.ETFTransactionVerifier;
+import com.cts.service.ETFundReferenceService;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.TransactionType;
 import net.corda.core.crypto.DigitalSignature;
 import net.corda.core.crypto.Party;
@@ -19,12 +27,13 @@ import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.transactions.WireTransaction;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.flows.FinalityFlow;
+import net.corda.flows.ResolveTransactionsFlow;
 
 import java.security.KeyPair;
 import java.security.PublicKey;
-import java.security.SignatureException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -39,11 +48,77 @@ import java.util.Set;
  * All methods called within the [FlowLogic] sub-class need to be annotated with the @Suspendable annotation.
  */
 public class ETFundExercisingFlow {
+
+    /**
+     * Builds the state produced by exercising the given fund at the given rate. Shared with
+     * [ETFundExerciseAndBookFlow] so both flows exercise a fund the same way.
+     */
+    static ETFundState exercisedState(ETFundState inputState, float etfRate) {
+        final float tradeValue = tradeValue(inputState, etfRate);
+        final ETFundState outputState;
+        try {
+            outputState = inputState.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Error while cloning input state");
+        }
+        //set rest of the output state fields
+        outputState.setEtfRate(etfRate);
+        outputState.setIterationNo(inputState.getIterationNo() + 1);
+        outputState.setStatus(ETFundStateStatus.EXERCISING);
+        outputState.getStructuredProduct().setMaxExposure(inputState.getStructuredProduct().getMaxExposure() - tradeValue);
+        return outputState;
+    }
+
+    /**
+     * The value traded by one exercise of the fund: one unit at the given rate, but never more than the exposure the
+     * fund has left, so an exercise cannot take the exposure below zero. This is the exposure the exercise draws
+     * down, and the value [ETFundExerciseAndBookFlow] books.
+     */
+    static float tradeValue(ETFundState inputState, float etfRate) {
+        if (!(etfRate > 0) || Float.isInfinite(etfRate)) {
+            throw new IllegalArgumentException("The ETF rate must be a positive number, not " + etfRate);
+        }
+        final float maxExposure = inputState.getStructuredProduct().getMaxExposure();
+        if (!(maxExposure > 0)) {
+            throw new IllegalArgumentException("ETF " + inputState.getStructuredProduct().getReferenceId()
+                    + " has no exposure left to exercise");
+        }
+        return Math.min(etfRate, maxExposure);
+    }
+
+    /**
+     * Checks that every fund the transaction exercises has its rate attested by the given oracle, i.e. carries an
+     * [ETFRateCommand] the oracle is a signer of; that the oracle has signed is checked with the other signatures, and
+     * that the fund is at the signed rate by its contract. Does nothing without a required oracle, see
+     * [ETFRateOracle.requiredOracleKey].
+     */
+    static void checkAttestedRates(WireTransaction tx, PublicKey oracle) throws FlowException {
+        if (oracle == null) {
+            return;
+        }
+        final Set<String> attested = new HashSet<>();
+        for (Command command : tx.getCommands()) {
+            if (command.getValue() instanceof ETFRateCommand && command.getSigners().contains(oracle)) {
+                attested.add(((ETFRateCommand) command.getValue()).getReferenceId());
+            }
+        }
+        for (TransactionState<ContractState> output : tx.getOutputs()) {
+            if (output.getData() instanceof ETFundState) {
+                final String referenceId = ((ETFundState) output.getData()).getStructuredProduct().getReferenceId();
+                if (!attested.contains(referenceId)) {
+                    throw new FlowException(tx.getId() + " exercises ETF " + referenceId
+                            + " without a rate attested by the required oracle");
+                }
+            }
+        }
+    }
+
     public static class Initiator extends FlowLogic<SignedTransaction> {
 
         // private final IOUState iou;
         private final String etfundRefId;
-        private final float etfRate;
+        // Null to take the rate from the NAV of the fund's basket.
+        private final Float etfRate;
         private final Party otherParty;
 
         // The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
@@ -75,52 +150,76 @@ public class ETFundExercisingFlow {
             this.otherParty = otherParty;
         }
 
+        /**
+         * Exercises the fund at the current NAV of its basket, see [ETFNavService].
+         */
+        public Initiator(Party otherParty, String etfundRefId) {
+            this.etfundRefId = etfundRefId;
+            this.etfRate = null;
+            this.otherParty = otherParty;
+        }
+
         @Override
         public ProgressTracker getProgressTracker() {
             return progressTracker;
         }
 
+        private float etfRate() throws FlowException {
+            if (etfRate != null) {
+                return etfRate;
+            }
+            try {
+                return getServiceHub().cordaService(ETFNavService.class).etfRate(etfundRefId);
+            } catch (IllegalArgumentException ex) {
+                throw new FlowException(ex.getMessage(), ex);
+            }
+        }
+
         /**
          * The flow logic is encapsulated within the call() method.
          */
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            FlowLogContext.put(this, etfundRefId, otherParty);
+            try {
+                return getServiceHub().cordaService(ETFFlowMetrics.class)
+                        .time(this, progressTracker, timer -> call(timer));
+            } finally {
+                FlowLogContext.clear();
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
             // Prep.
             // Obtain a reference to our key pair. Currently, the only key pair used is the one which is registered with
             // the NetWorkMapService. In a future milestone release we'll implement HD key generation such that new keys
             // can be generated for each transaction.
             final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
-            // Obtain a reference to the notary we want to use.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryNodes().get(0).getNotaryIdentity();
 
             // Stage 1.
-            progressTracker.setCurrentStep(EXTRACTING_SP);
+            timer.step(EXTRACTING_SP);
 
-            VaultManager vaultManager = new VaultManager(getServiceHub().getVaultService());
-
-            StateAndRef<ETFundState> inputStateAndRef = vaultManager.getETFundStateFromReference(etfundRefId);
-            ETFundState  inputState , outputState = null;
+            // Resolved through the node's reference cache rather than a vault query per exercise.
+            StateAndRef<ETFundState> inputStateAndRef = getServiceHub()
+                    .cordaService(ETFundReferenceService.class)
+                    .lookup(etfundRefId);
 
             if (inputStateAndRef == null) {
                 throw new RuntimeException("No Input state found for Reference ID passed in");
             }
+            // The fund's chain stays on the notary its input state is assigned to.
+            final Party notary = inputStateAndRef.getState().getNotary();
+            final ETFundState outputState;
             try {
-                inputState = inputStateAndRef.getState().component1();
-                outputState = inputState.clone();
-                //set rest of the output state fields
-                outputState.setEtfRate(etfRate);
-                outputState.setIterationNo(inputState.getIterationNo() + 1);
-                outputState.setStatus(ETFundStateStatus.EXERCISING);
-//                float tradeValue = StructuredProductsHelper.getTradeValueBasedOnFXRate(outputState.getStructuredProduct() , fxRate);
-//                float oldMaxExposure = outputState.getStructuredProduct().getMaxExposure();
-                outputState.getStructuredProduct().setMaxExposure(oldMaxExposure - tradeValue);
-            } catch (CloneNotSupportedException e) {
-                throw new RuntimeException("Error while cloning input state");
+                outputState = exercisedState(inputStateAndRef.getState().component1(), etfRate());
+            } catch (IllegalArgumentException ex) {
+                throw new FlowException(ex.getMessage(), ex);
             }
 
             // Stage 1.
-            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            timer.step(GENERATING_TRANSACTION);
             // Generate an unsigned transaction.
             final Command txCommand = new Command(new ETFundContract.Commands.Exercise(), outputState.getParticipants());
             final TransactionBuilder unsignedTx = new TransactionType.General.Builder(notary).
@@ -129,16 +228,16 @@ public class ETFundExercisingFlow {
 
             unsignedTx.setTime(Instant.now(), Duration.ofSeconds(60));
             // Stage 2.
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            timer.step(VERIFYING_TRANSACTION);
             // Verify that the transaction is valid.
             unsignedTx.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
 
             // Stage 3.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            timer.step(SIGNING_TRANSACTION);
             final SignedTransaction partSignedTx = unsignedTx.signWith(keyPair).toSignedTransaction(false);
 
             // Stage 4.
-            progressTracker.setCurrentStep(SENDING_TRANSACTION);
+            timer.step(SENDING_TRANSACTION);
             // Send the state across the wire to the designated counterparty.
             // -----------------------
             // Flow jumps to Acceptor.
@@ -182,15 +281,25 @@ public class ETFundExercisingFlow {
         @Suspendable
         @Override
         public Void call() throws FlowException {
+            FlowLogContext.put(this, null, otherParty);
+            try {
+                return getServiceHub().cordaService(ETFFlowMetrics.class)
+                        .time(this, progressTracker, timer -> call(timer));
+            } finally {
+                FlowLogContext.clear();
+            }
+        }
+
+        @Suspendable
+        private Void call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
             // Prep.
             // Obtain a reference to our key pair.
             final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryNodes().get(0).getNotaryIdentity();
-            // Obtain a reference to the notary we want to use and its public key.
-            final PublicKey notaryPubKey = notary.getOwningKey();
+            final ETFNotaryService notaries = getServiceHub().cordaService(ETFNotaryService.class);
+            final ETFTransactionVerifier verifier = getServiceHub().cordaService(ETFTransactionVerifier.class);
 
             // Stage 5.
-            progressTracker.setCurrentStep(RECEIVING_TRANSACTION);
+            timer.step(RECEIVING_TRANSACTION);
             // All messages come off the wire as UntrustworthyData. You need to 'unwrap' them. This is where you
             // validate what you have just received.
 
@@ -198,37 +307,40 @@ public class ETFundExercisingFlow {
                     .unwrap(tx ->
                     {
                         // Stage 6.
-                        progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-                        try {
-                            // Check that the signature of the other party is valid.
-                            // Our signature and the notary's signature are allowed to be omitted at this stage as
-                            // this is only a partially signed transaction.
-                            final WireTransaction wireTx = tx.verifySignatures(keyPair.getPublic(), notaryPubKey);
-
-                            // Run the contract's verify function.
-                            // We want to be sure that the agreed-upon IOU is valid under the rules of the contract.
-                            // To do this we need to run the contract's verify() function.
-                            wireTx.toLedgerTransaction(getServiceHub()).verify();
-                        } catch (SignatureException ex) {
-                            throw new FlowException(tx.getId() + " failed signature checks", ex);
+                        timer.step(VERIFYING_TRANSACTION);
+                        // The notary is chosen by the initiator, so it only has to be one we recognise.
+                        final Party notary = tx.getTx().getNotary();
+                        if (notary == null || !notaries.isNotary(notary)) {
+                            throw new FlowException(tx.getId() + " does not use a known notary");
                         }
                         return tx;
                     });
+            // Check that the signature of the other party is valid before fetching anything, so a proposal with a
+            // bad signature costs no downloads. Our signature and the notary's signature are allowed to be
+            // omitted at this stage as this is only a partially signed transaction.
+            verifier.checkSignatures(partSignedTx, timer,
+                    keyPair.getPublic(), partSignedTx.getTx().getNotary().getOwningKey());
+            // Fetch the input transactions and attachments we do not hold from the initiator, so the
+            // transaction can be resolved against our storage.
+            subFlow(new ResolveTransactionsFlow(partSignedTx, otherParty));
+            // Run the contract's verify function to be sure that the agreed-upon ETF is valid under its rules.
+            verifier.verify(partSignedTx, getServiceHub(), timer);
+            checkAttestedRates(partSignedTx.getTx(), ETFRateOracle.requiredOracleKey(getServiceHub()));
+            FlowLogContext.refId(partSignedTx);
 
-            System.out.println("Before Signing Transaction: ");
             // Stage 7.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            timer.step(SIGNING_TRANSACTION);
             // Sign the transaction with our key pair and add it to the transaction.
             // We now have 'validation consensus'. We still require uniqueness consensus.
             // Technically validation consensus for this type of agreement implicitly provides uniqueness consensus.
             final DigitalSignature.WithKey mySig = partSignedTx.signWithECDSA(keyPair);
             // Add our signature to the transaction.
             final SignedTransaction signedTx = partSignedTx.plus(mySig);
-            System.out.println("Transaction Signed: ");
+            getLogger().debug("Signed transaction {}", signedTx.getId());
             // Stage 8.
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            timer.step(FINALISING_TRANSACTION);
             final Set<Party> participants = ImmutableSet.of(getServiceHub().getMyInfo().getLegalIdentity(), otherParty);
-            System.out.println("Participants: "+ participants);
+            getLogger().debug("Finalising transaction {} with {}", signedTx.getId(), participants);
             // FinalityFlow() notarises the transaction and records it in each party's vault.
             subFlow(new FinalityFlow(signedTx, participants));
 
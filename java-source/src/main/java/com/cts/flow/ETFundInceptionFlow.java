@@ -2,6 +2,9 @@ package com.cts.flow;
 
 import co.paralleluniverse.fibers.Suspendable;
 import com.cts.contract.ETFundContract;
+import com.cts.service.ETFFlowMetrics;
+import com.cts.service.ETFNotaryService;
+import com.cts.service.ETFTransactionVerifier;
 import com.cts.state.ETFundState;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.Command;
@@ -12,13 +15,11 @@ import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
-import net.corda.core.transactions.WireTransaction;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.flows.FinalityFlow;
+import net.corda.flows.ResolveTransactionsFlow;
 
 import java.security.KeyPair;
-import java.security.PublicKey;
-import java.security.SignatureException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Set;
@@ -76,16 +77,29 @@ public class ETFundInceptionFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            FlowLogContext.put(this, etfundState.getStructuredProduct().getReferenceId(), otherParty);
+            try {
+                return getServiceHub().cordaService(ETFFlowMetrics.class)
+                        .time(this, progressTracker, timer -> call(timer));
+            } finally {
+                FlowLogContext.clear();
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
             // Prep.
             // Obtain a reference to our key pair. Currently, the only key pair used is the one which is registered with
             // the NetWorkMapService. In a future milestone release we'll implement HD key generation such that new keys
             // can be generated for each transaction.
             final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
-            // Obtain a reference to the notary we want to use.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryNodes().get(0).getNotaryIdentity();
+            // Obtain a reference to the notary we want to use. New funds are spread across the network's notaries.
+            final Party notary = getServiceHub()
+                    .cordaService(ETFNotaryService.class)
+                    .forIssuance(etfundState.getStructuredProduct().getReferenceId());
 
             // Stage 1.
-            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            timer.step(GENERATING_TRANSACTION);
             // Generate an unsigned transaction.
             final Command txCommand = new Command(new ETFundBookContract.Commands.Inception(), etfundState.getParticipants());
             final TransactionBuilder unsignedTx = new TransactionType.General.Builder(notary).withItems(etfundState, txCommand);
@@ -93,16 +107,16 @@ public class ETFundInceptionFlow {
             unsignedTx.setTime(Instant.now(), Duration.ofSeconds(60));
 
             // Stage 2.
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            timer.step(VERIFYING_TRANSACTION);
             // Verify that the transaction is valid.
             unsignedTx.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
 
             // Stage 3.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            timer.step(SIGNING_TRANSACTION);
             final SignedTransaction partSignedTx = unsignedTx.signWith(keyPair).toSignedTransaction(false);
 
             // Stage 4.
-            progressTracker.setCurrentStep(SENDING_TRANSACTION);
+            timer.step(SENDING_TRANSACTION);
             // Send the state across the wire to the designated counterparty.
             // -----------------------
             // Flow jumps to Acceptor.
@@ -144,15 +158,25 @@ public class ETFundInceptionFlow {
         @Suspendable
         @Override
         public Void call() throws FlowException {
+            FlowLogContext.put(this, null, otherParty);
+            try {
+                return getServiceHub().cordaService(ETFFlowMetrics.class)
+                        .time(this, progressTracker, timer -> call(timer));
+            } finally {
+                FlowLogContext.clear();
+            }
+        }
+
+        @Suspendable
+        private Void call(ETFFlowMetrics.FlowTimer timer) throws FlowException {
             // Prep.
             // Obtain a reference to our key pair.
             final KeyPair keyPair = getServiceHub().getLegalIdentityKey();
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryNodes().get(0).getNotaryIdentity();
-            // Obtain a reference to the notary we want to use and its public key.
-            final PublicKey notaryPubKey = notary.getOwningKey();
+            final ETFNotaryService notaries = getServiceHub().cordaService(ETFNotaryService.class);
+            final ETFTransactionVerifier verifier = getServiceHub().cordaService(ETFTransactionVerifier.class);
 
             // Stage 5.
-            progressTracker.setCurrentStep(RECEIVING_TRANSACTION);
+            timer.step(RECEIVING_TRANSACTION);
             // All messages come off the wire as UntrustworthyData. You need to 'unwrap' them. This is where you
             // validate what you have just received.
 
@@ -160,25 +184,28 @@ public class ETFundInceptionFlow {
                     .unwrap(tx ->
                     {
                         // Stage 6.
-                        progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-                        try {
-                            // Check that the signature of the other party is valid.
-                            // Our signature and the notary's signature are allowed to be omitted at this stage as
-                            // this is only a partially signed transaction.
-                            final WireTransaction wireTx = tx.verifySignatures(keyPair.getPublic(), notaryPubKey);
-
-                            // Run the contract's verify function.
-                            // We want to be sure that the agreed-upon IOU is valid under the rules of the contract.
-                            // To do this we need to run the contract's verify() function.
-                            wireTx.toLedgerTransaction(getServiceHub()).verify();
-                        } catch (SignatureException ex) {
-                            throw new FlowException(tx.getId() + " failed signature checks", ex);
+                        timer.step(VERIFYING_TRANSACTION);
+                        // The notary is chosen by the initiator, so it only has to be one we recognise.
+                        final Party notary = tx.getTx().getNotary();
+                        if (notary == null || !notaries.isNotary(notary)) {
+                            throw new FlowException(tx.getId() + " does not use a known notary");
                         }
                         return tx;
                     });
+            // Check that the signature of the other party is valid before fetching anything, so a proposal with a
+            // bad signature costs no downloads. Our signature and the notary's signature are allowed to be
+            // omitted at this stage as this is only a partially signed transaction.
+            verifier.checkSignatures(partSignedTx, timer,
+                    keyPair.getPublic(), partSignedTx.getTx().getNotary().getOwningKey());
+            // Fetch the input transactions and attachments we do not hold from the initiator, so the
+            // transaction can be resolved against our storage.
+            subFlow(new ResolveTransactionsFlow(partSignedTx, otherParty));
+            // Run the contract's verify function to be sure that the agreed-upon ETF is valid under its rules.
+            verifier.verify(partSignedTx, getServiceHub(), timer);
+            FlowLogContext.refId(partSignedTx);
 
             // Stage 7.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            timer.step(SIGNING_TRANSACTION);
             // Sign the transaction with our key pair and add it to the transaction.
             // We now have 'validation consensus'. We still require uniqueness consensus.
             // Technically validation consensus for this type of agreement implicitly provides uniqueness consensus.
@@ -187,7 +214,7 @@ public class ETFundInceptionFlow {
             final SignedTransaction signedTx = partSignedTx.plus(mySig);
 
             // Stage 8.
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            timer.step(FINALISING_TRANSACTION);
             final Set<Party> participants = ImmutableSet.of(getServiceHub().getMyInfo().getLegalIdentity(), otherParty);
             // FinalityFlow() notarises the transaction and records it in each party's vault.
             subFlow(new FinalityFlow(signedTx, participants));
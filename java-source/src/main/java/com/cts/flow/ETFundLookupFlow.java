@@ -0,0 +1,37 @@
+package com.cts.flow;
+
+import com.cts.service.ETFundReferenceService;
+import com.cts.state.ETFundState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+import java.util.List;
+
+/**
+ * Returns the current unconsumed state of each of the given funds from the node's [ETFundReferenceService], in the
+ * order given. Funds with no live state are left out. [ETFundState] is not persisted in a queryable schema, so this
+ * is how RPC clients find funds by reference id.
+ */
+@StartableByRPC
+public class ETFundLookupFlow extends FlowLogic<List<StateAndRef<ETFundState>>> {
+    private final List<String> referenceIds;
+
+    public ETFundLookupFlow(List<String> referenceIds) {
+        this.referenceIds = referenceIds;
+    }
+
+    @Override
+    public List<StateAndRef<ETFundState>> call() {
+        final ETFundReferenceService references = getServiceHub().cordaService(ETFundReferenceService.class);
+        final ImmutableList.Builder<StateAndRef<ETFundState>> found = ImmutableList.builder();
+        for (String referenceId : referenceIds) {
+            final StateAndRef<ETFundState> state = references.lookup(referenceId);
+            if (state != null) {
+                found.add(state);
+            }
+        }
+        return found.build();
+    }
+}
@@ -0,0 +1,55 @@
+package com.cts.flow;
+
+import com.cts.state.ETFundState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.MDC;
+
+/**
+ * Puts the flow id, fund reference id and counterparty of the running flow in the logging MDC, so every line a flow
+ * logs can be traced back to it. The MDC is thread local, which Quasar makes fiber local, so the context follows
+ * the flow across suspensions.
+ */
+final class FlowLogContext {
+    static final String FLOW_ID = "flowId";
+    static final String REF_ID = "refId";
+    static final String COUNTERPARTY = "counterparty";
+
+    private FlowLogContext() { }
+
+    static void put(FlowLogic<?> flow, String refId, Party counterparty) {
+        MDC.put(FLOW_ID, flow.getRunId().getUuid().toString());
+        MDC.put(COUNTERPARTY, counterparty.getName().toString());
+        refId(refId);
+    }
+
+    /**
+     * Sets the reference id once it is known, e.g. when an acceptor has received the proposed transaction.
+     */
+    static void refId(String refId) {
+        if (refId != null) {
+            MDC.put(REF_ID, refId);
+        }
+    }
+
+    /**
+     * Sets the reference id of the fund proposed in the given transaction.
+     */
+    static void refId(SignedTransaction tx) {
+        for (TransactionState<ContractState> output : tx.getTx().getOutputs()) {
+            if (output.getData() instanceof ETFundState) {
+                refId(((ETFundState) output.getData()).getStructuredProduct().getReferenceId());
+                return;
+            }
+        }
+    }
+
+    static void clear() {
+        MDC.remove(FLOW_ID);
+        MDC.remove(REF_ID);
+        MDC.remove(COUNTERPARTY);
+    }
+}
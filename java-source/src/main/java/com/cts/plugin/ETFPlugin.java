@@ -1,6 +1,7 @@
 package com.cts.plugin;
 
-import com.example.api.ETFApi;
+import com.cts.api.ETFApi;
+import com.cts.api.ETFundEndPoint;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -15,14 +16,16 @@ public class ETFPlugin implements WebServerPluginRegistry {
     /**
      * A list of classes that expose web APIs.
      */
-    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(ETFApi::new);
+    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(ETFApi::new, ETFundEndPoint::new);
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
      */
     private final Map<String, String> staticServeDirs = ImmutableMap.of(
             // This will serve the exampleWeb directory in resources to /web/example
-            "example", getClass().getClassLoader().getResource("exampleWeb").toExternalForm()
+            "example", getClass().getClassLoader().getResource("exampleWeb").toExternalForm(),
+            // This will serve the etfWeb directory in resources to /web/etf
+            "etf", getClass().getClassLoader().getResource("etfWeb").toExternalForm()
     );
 
     @Override public List<Function<CordaRPCOps, ?>> getWebApis() { return webApis; }
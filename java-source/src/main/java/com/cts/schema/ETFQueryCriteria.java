@@ -0,0 +1,57 @@
+package com.cts.schema;
+
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.QueryCriteria;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+
+/**
+ * Vault query criteria over the indexed columns of [ETFSchemaV2]. They match the booking and result states, the
+ * states persisted in that schema.
+ */
+public final class ETFQueryCriteria {
+    private ETFQueryCriteria() { }
+
+    /**
+     * Matches the states with the given fund reference id. Served by the reference id index.
+     */
+    public static QueryCriteria byReferenceId(String referenceId, Vault.StateStatus stateStatus) {
+        return new QueryCriteria.VaultCustomQueryCriteria<>(Builder.equal(column("referenceId"), referenceId), stateStatus);
+    }
+
+    /**
+     * Matches the states with any of the given fund reference ids. Served by the reference id index.
+     */
+    public static QueryCriteria byReferenceIds(Collection<String> referenceIds, Vault.StateStatus stateStatus) {
+        return new QueryCriteria.VaultCustomQueryCriteria<>(Builder.in(column("referenceId"), referenceIds), stateStatus);
+    }
+
+    /**
+     * Matches the states where the party is either the buyer or the seller.
+     */
+    public static QueryCriteria byParty(CordaX500Name party, Vault.StateStatus stateStatus) {
+        final String name = party.toString();
+        final QueryCriteria asBuyer = new QueryCriteria.VaultCustomQueryCriteria<>(Builder.equal(column("buyer"), name), stateStatus);
+        final QueryCriteria asSeller = new QueryCriteria.VaultCustomQueryCriteria<>(Builder.equal(column("seller"), name), stateStatus);
+        return asBuyer.or(asSeller);
+    }
+
+    /**
+     * Matches the states in the given lifecycle status. Combined with [byParty] this is served by the
+     * (status, party) indexes.
+     */
+    public static QueryCriteria byStatus(String status, Vault.StateStatus stateStatus) {
+        return new QueryCriteria.VaultCustomQueryCriteria<>(Builder.equal(column("status"), status), stateStatus);
+    }
+
+    private static Field column(String name) {
+        try {
+            return ETFSchemaV2.PersistentETFund.class.getDeclaredField(name);
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException("ETF schema is missing column " + name, ex);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.cts.schema;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.UUID;
+
+/**
+ * The ETF schema of the booking and result states. Replaces the template IOU table of [ETFSchemaV1] with the columns
+ * the APIs query on; the states map to this version only, so each is persisted once.
+ *
+ * Lookups by linear id and by fund reference id are indexed, as is the (status, party) pair used by the listings. The
+ * lifecycle columns, status, iteration_no and etf_rate, are nullable: only states with a lifecycle populate them, and
+ * the booking and result states leave them null.
+ */
+public class ETFSchemaV2 extends MappedSchema {
+    public ETFSchemaV2() {
+        super(ETFSchema.class, 2, ImmutableList.of(PersistentETFund.class));
+    }
+
+    @Entity
+    @Table(name = "etf_states", indexes = {
+            @Index(name = "etf_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "etf_reference_id_idx", columnList = "reference_id"),
+            @Index(name = "etf_status_buyer_idx", columnList = "status, buyer"),
+            @Index(name = "etf_status_seller_idx", columnList = "status, seller")
+    })
+    public static class PersistentETFund extends PersistentState {
+        @Column(name = "reference_id") private String referenceId;
+        @Column(name = "status", nullable = true) private String status;
+        @Column(name = "iteration_no", nullable = true) private Integer iterationNo;
+        @Column(name = "etf_rate", nullable = true) private Float etfRate;
+        @Column(name = "exposure") private Float exposure;
+        @Column(name = "buyer") private String buyer;
+        @Column(name = "seller") private String seller;
+        @Column(name = "linear_id") private UUID linearId;
+
+        /**
+         * @param referenceId the fund reference id the states are looked up by.
+         * @param status the lifecycle status of the state, e.g. INCEPTION or EXERCISING, or null if it has none.
+         * @param iterationNo the number of times the fund has been exercised, or null.
+         * @param etfRate the rate the state was last exercised at, or null.
+         * @param exposure the remaining exposure of the fund, or the booked value.
+         * @param buyer the X.500 name of the buying party.
+         * @param seller the X.500 name of the selling party.
+         * @param linearId the id of the linear chain the state belongs to.
+         */
+        public PersistentETFund(String referenceId, String status, Integer iterationNo, Float etfRate,
+                                Float exposure, String buyer, String seller, UUID linearId) {
+            this.referenceId = referenceId;
+            this.status = status;
+            this.iterationNo = iterationNo;
+            this.etfRate = etfRate;
+            this.exposure = exposure;
+            this.buyer = buyer;
+            this.seller = seller;
+            this.linearId = linearId;
+        }
+
+        /**
+         * Required by Hibernate.
+         */
+        public PersistentETFund() {
+        }
+
+        public String getReferenceId() { return referenceId; }
+        public String getStatus() { return status; }
+        public Integer getIterationNo() { return iterationNo; }
+        public Float getEtfRate() { return etfRate; }
+        public Float getExposure() { return exposure; }
+        public String getBuyer() { return buyer; }
+        public String getSeller() { return seller; }
+        public UUID getLinearId() { return linearId; }
+    }
+}
@@ -0,0 +1,157 @@
+package com.cts.schema;
+
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Pages through the states of one type in (time, state ref) order, starting each page after the last state of the
+ * previous one instead of at a page number.
+ *
+ * The time is the recorded time, or the consumed time when paging over CONSUMED states, and is bounded by [to], so
+ * states recorded while paging are not read. Since a page is found by where the last one ended, states consumed
+ * while paging never shift the later pages, and each query costs the same however far the paging has got.
+ *
+ * The vault can only filter on the time, so a page starts at the time of the previous page's last state and skips the
+ * states already returned at that time. It asks for that many more states to still fill the page.
+ */
+public class KeysetPager<T extends ContractState> implements Iterator<KeysetPager.Page<T>> {
+
+    /**
+     * Runs one vault query, on the node or over RPC.
+     */
+    public interface Query<T extends ContractState> {
+        Vault.Page<T> query(QueryCriteria criteria, PageSpecification paging, Sort sorting);
+    }
+
+    /**
+     * The states of one page and their metadata, in the same order.
+     */
+    public static final class Page<T extends ContractState> {
+        private final List<StateAndRef<T>> states = new ArrayList<>();
+        private final List<Vault.StateMetadata> statesMetadata = new ArrayList<>();
+
+        public List<StateAndRef<T>> getStates() { return states; }
+        public List<Vault.StateMetadata> getStatesMetadata() { return statesMetadata; }
+    }
+
+    private static final Sort byRecordedTime = sort(Sort.VaultStateAttribute.RECORDED_TIME);
+    private static final Sort byConsumedTime = sort(Sort.VaultStateAttribute.CONSUMED_TIME);
+
+    private final Query<T> query;
+    private final Vault.StateStatus status;
+    private final boolean consumedSide;
+    private final Instant from;
+    private final Instant to;
+    private final int pageSize;
+
+    // The time of the last state returned, and the states returned at exactly that time.
+    private Instant last;
+    private final Set<StateRef> returnedAtLast = new HashSet<>();
+    private boolean done;
+
+    /**
+     * Pages over the node's vault.
+     */
+    public static <T extends ContractState> KeysetPager<T> of(
+            VaultService vault, Class<T> type, Vault.StateStatus status, Instant from, Instant to, int pageSize) {
+        return new KeysetPager<>((criteria, paging, sorting) -> vault.queryBy(type, criteria, paging, sorting),
+                status, from, to, pageSize);
+    }
+
+    /**
+     * Pages over a node's vault through RPC.
+     */
+    public static <T extends ContractState> KeysetPager<T> of(
+            CordaRPCOps rpcOps, Class<T> type, Vault.StateStatus status, Instant from, Instant to, int pageSize) {
+        return new KeysetPager<>((criteria, paging, sorting) -> rpcOps.vaultQueryBy(criteria, paging, sorting, type),
+                status, from, to, pageSize);
+    }
+
+    /**
+     * @param from the start of the time range, or null for the start of the vault.
+     * @param to the end of the time range.
+     */
+    public KeysetPager(Query<T> query, Vault.StateStatus status, Instant from, Instant to, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        this.query = query;
+        this.status = status;
+        this.consumedSide = status == Vault.StateStatus.CONSUMED;
+        this.from = from;
+        this.to = to;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    /**
+     * Returns the next page, which is short or empty only if it is the last.
+     */
+    @Override
+    public Page<T> next() {
+        if (done) {
+            throw new NoSuchElementException();
+        }
+        final Instant start = last != null ? last : from;
+        final ColumnPredicate<Instant> range = start == null
+                ? new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.LESS_THAN_OR_EQUAL, to)
+                : new ColumnPredicate.Between<>(start, to);
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(status, null, null, null, null,
+                new QueryCriteria.TimeCondition(
+                        consumedSide ? QueryCriteria.TimeInstantType.CONSUMED : QueryCriteria.TimeInstantType.RECORDED,
+                        range));
+        final int requested = pageSize + returnedAtLast.size();
+        final Vault.Page<T> result = query.query(
+                criteria, new PageSpecification(1, requested), consumedSide ? byConsumedTime : byRecordedTime);
+
+        final Page<T> page = new Page<>();
+        for (int i = 0; i < result.getStates().size(); i++) {
+            final StateAndRef<T> state = result.getStates().get(i);
+            final Vault.StateMetadata metadata = result.getStatesMetadata().get(i);
+            final Instant time = consumedSide ? metadata.getConsumedTime() : metadata.getRecordedTime();
+            if (time.equals(last)) {
+                if (!returnedAtLast.add(state.getRef())) {
+                    continue;
+                }
+            } else {
+                last = time;
+                returnedAtLast.clear();
+                returnedAtLast.add(state.getRef());
+            }
+            page.states.add(state);
+            page.statesMetadata.add(metadata);
+        }
+        done = result.getStates().size() < requested;
+        return page;
+    }
+
+    private static Sort sort(Sort.VaultStateAttribute time) {
+        return new Sort(ImmutableSet.of(
+                new Sort.SortColumn(new SortAttribute.Standard(time), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+    }
+}
@@ -0,0 +1,29 @@
+package com.cts.service;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * The total maxExposure of the live funds of a party, or of a single fund, as returned by [ETFExposureService].
+ */
+@CordaSerializable
+public class ETFExposure {
+    private final String name;
+    private final double exposure;
+    private final int funds;
+
+    public ETFExposure(String name, double exposure, int funds) {
+        this.name = name;
+        this.exposure = exposure;
+        this.funds = funds;
+    }
+
+    /** The party's X.500 name, or the fund's reference id. */
+    public String getName() { return name; }
+    public double getExposure() { return exposure; }
+    public int getFunds() { return funds; }
+
+    @Override
+    public String toString() {
+        return String.format("%s(name=%s, exposure=%s, funds=%s)", getClass().getSimpleName(), name, exposure, funds);
+    }
+}
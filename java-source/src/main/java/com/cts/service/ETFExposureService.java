@@ -0,0 +1,108 @@
+package com.cts.service;
+
+import com.cts.schema.KeysetPager;
+import com.cts.state.ETFundState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers how much maxExposure a party, or a single fund, has across the live ETF states without scanning the vault.
+ *
+ * The totals are held in an [ExposureIndex], built from a [KeysetPager] snapshot of the unconsumed [ETFundState]s
+ * when the node starts and kept current from the vault update feed, which is subscribed to first so no update is
+ * missed. Updates that arrive while the snapshot is being read are held back and applied after it. Served over RPC
+ * by [com.cts.flow.ETFExposureFlow] and by the web server at /api/ETF/exposure.
+ */
+@CordaService
+public class ETFExposureService extends SingletonSerializeAsToken {
+    static private final Logger logger = LoggerFactory.getLogger(ETFExposureService.class);
+    public static final int SNAPSHOT_PAGE_SIZE = 1000;
+
+    private final ExposureIndex index = new ExposureIndex();
+    // The updates received while the snapshot is read; null once it has been.
+    private List<Vault.Update<ContractState>> pending = new ArrayList<>();
+
+    public ETFExposureService(AppServiceHub serviceHub) {
+        serviceHub.getVaultService().getUpdates().subscribe(this::onUpdate);
+
+        // Paged by key rather than page number, so funds consumed while it is read do not shift the later pages.
+        final KeysetPager<ETFundState> snapshot = KeysetPager.of(serviceHub.getVaultService(), ETFundState.class,
+                Vault.StateStatus.UNCONSUMED, null, Instant.now(), SNAPSHOT_PAGE_SIZE);
+        while (snapshot.hasNext()) {
+            snapshot.next().getStates().forEach(this::produced);
+        }
+        synchronized (this) {
+            pending.forEach(this::apply);
+            pending = null;
+        }
+        logger.info("Indexed the exposure of {} ETFs", index.liveFunds());
+    }
+
+    /**
+     * Returns the total maxExposure of the live funds the party is buyer or seller of.
+     */
+    public ETFExposure partyExposure(Party party) {
+        return new ETFExposure(party.getName().toString(), index.partyExposure(party), index.partyFunds(party));
+    }
+
+    /**
+     * Returns the maxExposure of the given fund, or null if it has no live state.
+     */
+    public ETFExposure fundExposure(String referenceId) {
+        final double exposure = index.fundExposure(referenceId);
+        return Double.isNaN(exposure) ? null : new ETFExposure(referenceId, exposure, 1);
+    }
+
+    /**
+     * Returns the totals of every party with a live fund.
+     */
+    public List<ETFExposure> parties() {
+        return index.parties();
+    }
+
+    private synchronized void onUpdate(Vault.Update<ContractState> update) {
+        if (pending != null) {
+            pending.add(update);
+        } else {
+            apply(update);
+        }
+    }
+
+    private void apply(Vault.Update<ContractState> update) {
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            if (consumed.getState().getData() instanceof ETFundState) {
+                final ETFundState state = (ETFundState) consumed.getState().getData();
+                index.consumed(consumed.getRef(), state.getStructuredProduct().getReferenceId());
+            }
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            if (produced.getState().getData() instanceof ETFundState) {
+                produced(produced.getRef(), (ETFundState) produced.getState().getData());
+            }
+        }
+    }
+
+    private void produced(StateAndRef<ETFundState> produced) {
+        produced(produced.getRef(), produced.getState().getData());
+    }
+
+    private void produced(StateRef ref, ETFundState state) {
+        index.produced(ref,
+                state.getStructuredProduct().getReferenceId(),
+                state.getBuyer(),
+                state.getSeller(),
+                state.getStructuredProduct().getMaxExposure());
+    }
+}
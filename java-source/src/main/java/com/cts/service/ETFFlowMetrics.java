@@ -0,0 +1,276 @@
+package com.cts.service;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.ProgressTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long the ETF flows spend in each of their [ProgressTracker] steps, and how many flows were started,
+ * completed and failed.
+ *
+ * A flow runs the body of its call() through [time], which hands it a [FlowTimer], and moves through its steps with
+ * [FlowTimer.step] instead of setting the progress tracker's step directly. Steps are named after the static field they are declared in, e.g.
+ * SIGNING_TRANSACTION. The metrics are rendered in the Prometheus text format by [render], which is served over RPC
+ * by [com.cts.flow.ETFMetricsFlow] and by the web server at /api/ETF/metrics. They are also published on the node's
+ * platform MBean server as [OBJECT_NAME], so a JMX scraper such as Jolokia can read them without starting a flow.
+ *
+ * The steps of the flows picked by [ProgressLogSampler] are also logged, to the com.cts.flow.progress logger.
+ */
+@CordaService
+public class ETFFlowMetrics extends SingletonSerializeAsToken {
+    static private final Logger logger = LoggerFactory.getLogger(ETFFlowMetrics.class);
+    static private final Logger progressLogger = LoggerFactory.getLogger("com.cts.flow.progress");
+    public static final String OBJECT_NAME = "com.cts:type=ETFFlowMetrics";
+    private static final Map<Class<?>, Map<ProgressTracker.Step, String>> stepNames = new ConcurrentHashMap<>();
+
+    private final Map<String, FlowCounters> flows = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> steps = new ConcurrentHashMap<>();
+
+    public ETFFlowMetrics(AppServiceHub serviceHub) {
+        if (serviceHub != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Jmx(this), new ObjectName(OBJECT_NAME));
+            } catch (JMException ex) {
+                // Several nodes can share a JVM in tests; the first one's metrics are published.
+                logger.info("ETF flow metrics are not published over JMX: {}", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The metrics as a JMX attribute, in the same format as [render].
+     */
+    public interface MetricsMXBean {
+        String getPrometheusText();
+    }
+
+    private static final class Jmx implements MetricsMXBean {
+        private final ETFFlowMetrics metrics;
+
+        private Jmx(ETFFlowMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public String getPrometheusText() {
+            return metrics.render();
+        }
+    }
+
+    /**
+     * The body of a flow's call(), given the timer it moves through its steps with.
+     */
+    public interface TimedCall<T> extends Serializable {
+        @Suspendable
+        T call(FlowTimer timer) throws FlowException;
+    }
+
+    /**
+     * Runs the body of the flow under a new [FlowTimer], counting the flow as completed or failed by its outcome, and
+     * logs the failures.
+     */
+    @Suspendable
+    public <T> T time(FlowLogic<?> flow, ProgressTracker progressTracker, TimedCall<T> body) throws FlowException {
+        final FlowTimer timer = start(flow, progressTracker);
+        try {
+            final T result = body.call(timer);
+            timer.completed();
+            return result;
+        } catch (FlowException | RuntimeException ex) {
+            timer.failed();
+            flow.getLogger().warn("Flow failed: {}", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    /**
+     * Counts the flow as started and starts timing it.
+     */
+    public FlowTimer start(FlowLogic<?> flow, ProgressTracker progressTracker) {
+        return start(flow.getClass(), flow.getRunId().getUuid(), progressTracker);
+    }
+
+    FlowTimer start(Class<?> flowClass, UUID runId, ProgressTracker progressTracker) {
+        final String name = flowName(flowClass);
+        final FlowCounters counters = flows.computeIfAbsent(name, key -> new FlowCounters());
+        counters.started.increment();
+        return new FlowTimer(this, name, flowClass, progressTracker, ProgressLogSampler.isSampled(runId));
+    }
+
+    /**
+     * Returns every metric in the Prometheus text exposition format, version 0.0.4.
+     */
+    public String render() {
+        final StringBuilder out = new StringBuilder(4096);
+        final Map<String, FlowCounters> sortedFlows = new TreeMap<>(flows);
+        counter(out, sortedFlows, "started", "Flows started.", counters -> counters.started);
+        counter(out, sortedFlows, "completed", "Flows that returned a result.", counters -> counters.completed);
+        counter(out, sortedFlows, "failed", "Flows that threw an exception.", counters -> counters.failed);
+
+        out.append("# HELP etf_flow_duration_seconds Time from the start of a flow to its result.\n");
+        out.append("# TYPE etf_flow_duration_seconds histogram\n");
+        for (Map.Entry<String, FlowCounters> flow : sortedFlows.entrySet()) {
+            flow.getValue().duration.writeTo(out, "etf_flow_duration_seconds", "flow=\"" + flow.getKey() + "\"");
+        }
+
+        out.append("# HELP etf_flow_step_duration_seconds Time spent in each progress tracker step of a flow.\n");
+        out.append("# TYPE etf_flow_step_duration_seconds histogram\n");
+        for (Map.Entry<String, LatencyHistogram> step : new TreeMap<>(steps).entrySet()) {
+            final int separator = step.getKey().indexOf('/');
+            final String labels = "flow=\"" + step.getKey().substring(0, separator) + "\",step=\""
+                    + step.getKey().substring(separator + 1) + "\"";
+            step.getValue().writeTo(out, "etf_flow_step_duration_seconds", labels);
+        }
+        return out.toString();
+    }
+
+    private interface CounterField {
+        LongAdder of(FlowCounters counters);
+    }
+
+    private static void counter(StringBuilder out, Map<String, FlowCounters> flows, String name, String help,
+                                CounterField field) {
+        out.append("# HELP etf_flows_").append(name).append("_total ").append(help).append('\n');
+        out.append("# TYPE etf_flows_").append(name).append("_total counter\n");
+        for (Map.Entry<String, FlowCounters> flow : flows.entrySet()) {
+            out.append("etf_flows_").append(name).append("_total{flow=\"").append(flow.getKey()).append("\"} ")
+                    .append(field.of(flow.getValue()).sum()).append('\n');
+        }
+    }
+
+    private void recordStep(String flow, String step, long nanos) {
+        steps.computeIfAbsent(flow + "/" + step, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    private void recordEnd(String flow, boolean completed, long nanos) {
+        // A flow restored from a checkpoint after a restart was started before this instance was created.
+        final FlowCounters counters = flows.computeIfAbsent(flow, key -> new FlowCounters());
+        (completed ? counters.completed : counters.failed).increment();
+        counters.duration.record(nanos);
+    }
+
+    /**
+     * Names a flow class after its outer class and itself, e.g. ETFundInceptionFlow.Initiator.
+     */
+    static String flowName(Class<?> flowClass) {
+        final String name = flowClass.getName();
+        return name.substring(name.lastIndexOf('.') + 1).replace('$', '.');
+    }
+
+    /**
+     * Maps each step declared as a static field of the flow class to the name of its field.
+     */
+    static Map<ProgressTracker.Step, String> stepNames(Class<?> flowClass) {
+        return stepNames.computeIfAbsent(flowClass, type -> {
+            final Map<ProgressTracker.Step, String> names = new IdentityHashMap<>();
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) && ProgressTracker.Step.class.isAssignableFrom(field.getType())) {
+                    try {
+                        field.setAccessible(true);
+                        names.put((ProgressTracker.Step) field.get(null), field.getName());
+                    } catch (IllegalAccessException ex) {
+                        throw new IllegalStateException("Cannot read step " + field, ex);
+                    }
+                }
+            }
+            return names;
+        });
+    }
+
+    private static class FlowCounters {
+        private final LongAdder started = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LatencyHistogram duration = new LatencyHistogram();
+    }
+
+    /**
+     * Times a single run of a flow. Created by [start]; checkpointed with the flow.
+     */
+    public static class FlowTimer {
+        private final ETFFlowMetrics metrics;
+        private final String flow;
+        private final Class<?> flowClass;
+        private final ProgressTracker progressTracker;
+        private final boolean sampled;
+        private final long flowStart;
+        private volatile String currentStep;
+        private long stepStart;
+
+        private FlowTimer(ETFFlowMetrics metrics, String flow, Class<?> flowClass, ProgressTracker progressTracker,
+                          boolean sampled) {
+            this.metrics = metrics;
+            this.flow = flow;
+            this.flowClass = flowClass;
+            this.progressTracker = progressTracker;
+            this.sampled = sampled;
+            this.flowStart = System.nanoTime();
+        }
+
+        /**
+         * Moves the progress tracker to the given step, recording the time spent in the previous one.
+         */
+        public void step(ProgressTracker.Step step) {
+            final long now = System.nanoTime();
+            endStep(now);
+            final String name = stepNames(flowClass).get(step);
+            currentStep = name != null ? name : step.getLabel().replace("\\", "\\\\").replace("\"", "\\\"");
+            stepStart = now;
+            progressTracker.setCurrentStep(step);
+            if (sampled) {
+                progressLogger.info("{} entered {}", flow, currentStep);
+            }
+        }
+
+        /**
+         * Records time spent in a part of the current step, e.g. the signature checks while verifying. May be called
+         * from any thread.
+         */
+        public void record(String part, long nanos) {
+            final String step = currentStep;
+            if (step != null) {
+                metrics.recordStep(flow, step + "." + part, nanos);
+            }
+        }
+
+        public void completed() {
+            end(true);
+        }
+
+        public void failed() {
+            end(false);
+        }
+
+        private void end(boolean completed) {
+            final long now = System.nanoTime();
+            endStep(now);
+            currentStep = null;
+            metrics.recordEnd(flow, completed, now - flowStart);
+        }
+
+        private void endStep(long now) {
+            if (currentStep != null) {
+                metrics.recordStep(flow, currentStep, now - stepStart);
+            }
+        }
+    }
+}
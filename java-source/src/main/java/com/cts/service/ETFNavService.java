@@ -0,0 +1,120 @@
+package com.cts.service;
+
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Holds the node's [NavEngine], so the exercising flows can take a fund's etfRate from the NAV of its basket rather
+ * than from the caller.
+ *
+ * The baskets are read at startup from the CSV file named by the etf.nav.baskets property, one "refId,constituent,
+ * units" line per constituent of a fund, and opening prices from the file named by etf.nav.prices, one
+ * "constituent,price" line each. Either line format may be preceded by a header. Prices are then kept current through
+ * [tick], e.g. by [com.cts.flow.ETFNavTickFlow].
+ */
+@CordaService
+public class ETFNavService extends SingletonSerializeAsToken {
+    public static final String BASKETS_PROPERTY = "etf.nav.baskets";
+    public static final String PRICES_PROPERTY = "etf.nav.prices";
+    static private final Logger logger = LoggerFactory.getLogger(ETFNavService.class);
+
+    private final NavEngine engine;
+
+    public ETFNavService(AppServiceHub serviceHub) {
+        this(System.getProperty(BASKETS_PROPERTY), System.getProperty(PRICES_PROPERTY));
+    }
+
+    ETFNavService(String basketsFile, String pricesFile) {
+        final NavEngine.Builder baskets = NavEngine.builder();
+        if (basketsFile != null) {
+            readCsv(basketsFile, 3, fields -> baskets.add(fields[0], fields[1], Double.parseDouble(fields[2])));
+        }
+        this.engine = baskets.build();
+        if (pricesFile != null) {
+            readCsv(pricesFile, 2, fields -> tick(fields[0], Double.parseDouble(fields[1])));
+        }
+        logger.info("Loaded {} ETF baskets over {} constituents", engine.fundCount(), engine.constituentCount());
+    }
+
+    /**
+     * Returns the NAV per share of the given fund as an etfRate.
+     *
+     * @throws IllegalArgumentException if the fund has no basket or not all of its constituents are priced yet.
+     */
+    public float etfRate(String fundRefId) {
+        final int fund = engine.fund(fundRefId);
+        if (fund < 0) {
+            throw new IllegalArgumentException("No basket for ETF " + fundRefId);
+        }
+        final double nav = engine.nav(fund);
+        if (Double.isNaN(nav)) {
+            throw new IllegalArgumentException("The basket of ETF " + fundRefId + " is not fully priced.");
+        }
+        return (float) nav;
+    }
+
+    /**
+     * Sets the price of a constituent. Constituents held by no basket are ignored.
+     *
+     * @return whether the constituent is held by any basket.
+     */
+    public boolean tick(String constituentId, double price) {
+        final int constituent = engine.constituent(constituentId);
+        if (constituent < 0) {
+            return false;
+        }
+        engine.tick(constituent, price);
+        return true;
+    }
+
+    /**
+     * Recomputes every NAV from the current prices.
+     */
+    public void revalue() {
+        engine.revalue();
+    }
+
+    private interface LineHandler {
+        void handle(String[] fields);
+    }
+
+    private static void readCsv(String file, int fieldCount, LineHandler handler) {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final String[] fields = line.split(",");
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+                try {
+                    if (fields.length != fieldCount) {
+                        throw new IllegalArgumentException("expected " + fieldCount + " fields");
+                    }
+                    handler.handle(fields);
+                } catch (IllegalArgumentException ex) {
+                    // A header line does not parse as a number, and is only allowed first.
+                    if (lineNumber > 1) {
+                        throw new IllegalArgumentException(file + " line " + lineNumber + ": " + ex.getMessage(), ex);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot read " + file, ex);
+        }
+    }
+}
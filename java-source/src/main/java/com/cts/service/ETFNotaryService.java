@@ -0,0 +1,118 @@
+package com.cts.service;
+
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Chooses the notary for new ETF issuance so that load can be spread over every notary in the network.
+ *
+ * The notary list is cached and refreshed whenever the network map changes. Only issuance goes through this service:
+ * once issued, a fund's transactions must stay on the notary its states are assigned to, so the exercising flows use
+ * the notary of their input state.
+ *
+ * The strategy is taken from the etf.notary.selection system property and defaults to [Strategy.ROUND_ROBIN].
+ */
+@CordaService
+public class ETFNotaryService extends SingletonSerializeAsToken {
+    public static final String STRATEGY_PROPERTY = "etf.notary.selection";
+
+    public enum Strategy {
+        /** The same fund reference id always maps to the same notary. */
+        PINNED,
+        /** Each new fund goes to the next notary in turn. */
+        ROUND_ROBIN,
+        /** Each new fund goes to the notary that was picked least recently. */
+        LEAST_RECENTLY_USED
+    }
+
+    private final AppServiceHub serviceHub;
+    private final Strategy strategy;
+    private final AtomicLong nextIndex = new AtomicLong();
+    private final Map<Party, Long> lastUsed = new HashMap<>();
+    private volatile List<Party> notaries;
+
+    public ETFNotaryService(AppServiceHub serviceHub) {
+        this(serviceHub, Strategy.valueOf(System.getProperty(STRATEGY_PROPERTY, Strategy.ROUND_ROBIN.name())));
+    }
+
+    public ETFNotaryService(AppServiceHub serviceHub, Strategy strategy) {
+        this.serviceHub = serviceHub;
+        this.strategy = strategy;
+        refresh();
+        serviceHub.getNetworkMapCache().getChanged().subscribe(change -> refresh());
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Returns the notary to issue the fund with the given reference id on.
+     */
+    public Party forIssuance(String referenceId) {
+        final List<Party> current = notaries;
+        if (current.isEmpty()) {
+            throw new IllegalStateException("No notaries are registered in the network map.");
+        }
+        switch (strategy) {
+            case PINNED:
+                return current.get(Math.floorMod(referenceId.hashCode(), current.size()));
+            case LEAST_RECENTLY_USED:
+                return leastRecentlyUsed(current);
+            case ROUND_ROBIN:
+            default:
+                return current.get((int) Math.floorMod(nextIndex.getAndIncrement(), (long) current.size()));
+        }
+    }
+
+    /**
+     * Assigns each of the new funds to a notary and groups them by it, keeping their original order within a group.
+     */
+    public <T> Map<Party, List<T>> assignForIssuance(List<T> funds, Function<T, String> referenceIdOf) {
+        final Map<Party, List<T>> assigned = new LinkedHashMap<>();
+        for (T fund : funds) {
+            assigned.computeIfAbsent(forIssuance(referenceIdOf.apply(fund)), notary -> new ArrayList<>()).add(fund);
+        }
+        return assigned;
+    }
+
+    /**
+     * Returns true if the party is one of the notaries currently in the network map.
+     */
+    public boolean isNotary(Party party) {
+        return notaries.contains(party);
+    }
+
+    private synchronized Party leastRecentlyUsed(List<Party> current) {
+        Party chosen = current.get(0);
+        long oldest = Long.MAX_VALUE;
+        for (Party notary : current) {
+            final long used = lastUsed.getOrDefault(notary, Long.MIN_VALUE);
+            if (used < oldest) {
+                oldest = used;
+                chosen = notary;
+            }
+        }
+        lastUsed.put(chosen, nextIndex.getAndIncrement());
+        return chosen;
+    }
+
+    private void refresh() {
+        final List<Party> latest = new ArrayList<>(serviceHub.getNetworkMapCache().getNotaryIdentities());
+        // Sort so that every node maps a pinned fund to the same notary.
+        latest.sort(Comparator.comparing(party -> party.getName().toString()));
+        notaries = Collections.unmodifiableList(latest);
+    }
+}
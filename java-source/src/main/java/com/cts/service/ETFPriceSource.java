@@ -0,0 +1,76 @@
+package com.cts.service;
+
+import com.cts.api.RateFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stands in for a market data feed: the current etfRate of each fund, read from a rate file in the same CSV format
+ * as the bulk exercise upload, i.e. "refId,etfRate" lines.
+ *
+ * The file is re-read when its modification time changes, checked at most once per [RELOAD_CHECK_MILLIS], so rates
+ * can be moved by replacing the file. Each read replaces the whole set of rates at once.
+ */
+public class ETFPriceSource {
+    static private final Logger logger = LoggerFactory.getLogger(ETFPriceSource.class);
+    public static final long RELOAD_CHECK_MILLIS = 1000;
+
+    private final Path file;
+    private volatile Map<String, Float> rates = Collections.emptyMap();
+    private volatile long loadedModified = -1;
+    private volatile long nextCheck;
+
+    public ETFPriceSource(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the current rate of the given fund, or null if the feed has none.
+     */
+    public Float rate(String referenceId) {
+        if (file == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (now >= nextCheck) {
+            nextCheck = now + RELOAD_CHECK_MILLIS;
+            reloadIfModified();
+        }
+        return rates.get(referenceId);
+    }
+
+    private synchronized void reloadIfModified() {
+        try {
+            final long modified = Files.getLastModifiedTime(file).toMillis();
+            if (modified == loadedModified) {
+                return;
+            }
+            final Map<String, Float> loaded = new HashMap<>();
+            try (InputStream in = Files.newInputStream(file); RateFileReader rows = RateFileReader.csv(in)) {
+                while (rows.hasNext()) {
+                    final RateFileReader.Row row = rows.next();
+                    if (row.isValid()) {
+                        loaded.put(row.getRefId(), row.getEtfRate());
+                    } else {
+                        logger.warn("Skipping row {} of {}: {}", row.getRow(), file, row.getError());
+                    }
+                }
+            }
+            rates = loaded;
+            loadedModified = modified;
+            logger.info("Loaded {} rates from {}", loaded.size(), file);
+        } catch (IOException | UncheckedIOException ex) {
+            // Keep serving the last rates that were read.
+            logger.error("Cannot read rates from {}", file, ex);
+        }
+    }
+}
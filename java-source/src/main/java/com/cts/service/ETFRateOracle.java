@@ -0,0 +1,128 @@
+package com.cts.service;
+
+import com.cts.contract.ETFRateCommand;
+import net.corda.core.contracts.Command;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.FilteredTransaction;
+import net.corda.core.transactions.FilteredTransactionVerificationException;
+
+import java.nio.file.Paths;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Attests the rate funds are exercised at, following the usual oracle pattern: flows [query] the rate, put it in an
+ * [ETFRateCommand] with the oracle as a signer, and ask the oracle to [sign] a [FilteredTransaction] that reveals only
+ * those commands. The oracle signs only if every revealed command names it as a signer and states the rate the price
+ * source currently holds for the fund.
+ *
+ * Both calls take many funds or transactions at once, so a bulk exercise pays one oracle round trip per call rather
+ * than one per fund. Rates come from the [ETFPriceSource] file named by the etf.oracle.rates property.
+ *
+ * Rates are only attested when an exercise asks for it, unless the etf.oracle.required property names an oracle: the
+ * acceptors of a node started with it refuse exercises whose rates that oracle has not signed, see
+ * [requiredOracleKey], and a web server started with it has every exercise attested by that oracle.
+ */
+@CordaService
+public class ETFRateOracle extends SingletonSerializeAsToken {
+    public static final String RATES_PROPERTY = "etf.oracle.rates";
+    public static final String REQUIRED_ORACLE_PROPERTY = "etf.oracle.required";
+
+    private final PublicKey myKey;
+    private final ETFPriceSource prices;
+    private final BiFunction<FilteredTransaction, PublicKey, TransactionSignature> signer;
+
+    public ETFRateOracle(AppServiceHub serviceHub) {
+        this(serviceHub, new ETFPriceSource(System.getProperty(RATES_PROPERTY) != null
+                ? Paths.get(System.getProperty(RATES_PROPERTY))
+                : null));
+    }
+
+    ETFRateOracle(AppServiceHub serviceHub, ETFPriceSource prices) {
+        this(serviceHub.getMyInfo().getLegalIdentities().get(0).getOwningKey(), prices, serviceHub::createSignature);
+    }
+
+    ETFRateOracle(PublicKey myKey,
+                  ETFPriceSource prices,
+                  BiFunction<FilteredTransaction, PublicKey, TransactionSignature> signer) {
+        this.myKey = myKey;
+        this.prices = prices;
+        this.signer = signer;
+    }
+
+    /**
+     * Returns the key of the oracle named by the etf.oracle.required property, or null if exercises need no oracle.
+     *
+     * @throws IllegalStateException if the named oracle is not in the network map.
+     */
+    public static PublicKey requiredOracleKey(ServiceHub serviceHub) {
+        final String name = System.getProperty(REQUIRED_ORACLE_PROPERTY);
+        if (name == null) {
+            return null;
+        }
+        final Party oracle = serviceHub.getIdentityService().wellKnownPartyFromX500Name(CordaX500Name.parse(name));
+        if (oracle == null) {
+            throw new IllegalStateException("Unknown oracle " + name);
+        }
+        return oracle.getOwningKey();
+    }
+
+    /**
+     * Returns the current rate of each of the given funds, in order.
+     *
+     * @throws IllegalArgumentException if the price source has no rate for one of them.
+     */
+    public List<ETFRateCommand> query(List<String> referenceIds) {
+        final List<ETFRateCommand> rates = new ArrayList<>(referenceIds.size());
+        for (String referenceId : referenceIds) {
+            final Float rate = prices.rate(referenceId);
+            if (rate == null) {
+                throw new IllegalArgumentException("No rate for ETF " + referenceId);
+            }
+            rates.add(new ETFRateCommand(referenceId, rate));
+        }
+        return rates;
+    }
+
+    /**
+     * Signs each of the given transactions, in order.
+     *
+     * @throws IllegalArgumentException if a transaction's Merkle tree does not verify, reveals anything but rate
+     * commands for this oracle, reveals no rate command, or states a rate that is not the current one.
+     */
+    public List<TransactionSignature> sign(List<FilteredTransaction> transactions) {
+        final List<TransactionSignature> signatures = new ArrayList<>(transactions.size());
+        for (FilteredTransaction ftx : transactions) {
+            try {
+                ftx.verify();
+            } catch (FilteredTransactionVerificationException ex) {
+                throw new IllegalArgumentException("Filtered transaction " + ftx.getId() + " does not verify.", ex);
+            }
+            if (ftx.getCommands().isEmpty() || !ftx.checkWithFun(this::isCurrentRate)) {
+                throw new IllegalArgumentException("Filtered transaction " + ftx.getId() + " does not state current rates.");
+            }
+            signatures.add(signer.apply(ftx, myKey));
+        }
+        return signatures;
+    }
+
+    private boolean isCurrentRate(Object element) {
+        if (!(element instanceof Command) || !(((Command<?>) element).getValue() instanceof ETFRateCommand)) {
+            return false;
+        }
+        final Command<?> command = (Command<?>) element;
+        final ETFRateCommand rate = (ETFRateCommand) command.getValue();
+        final Float current = prices.rate(rate.getReferenceId());
+        return command.getSigners().contains(myKey)
+                && current != null
+                && Float.compare(current, rate.getEtfRate()) == 0;
+    }
+}
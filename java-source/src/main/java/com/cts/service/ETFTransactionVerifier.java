@@ -0,0 +1,107 @@
+package com.cts.service;
+
+import net.corda.core.flows.FlowException;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
+
+import java.security.PublicKey;
+import java.security.SignatureException;
+
+/**
+ * Validates a transaction proposed by a counterparty, for the acceptor side of every ETF flow.
+ *
+ * The signatures are checked first with [checkSignatures], as they are the cheapest check and the one an invalid
+ * proposal most often fails. Acceptors call it before fetching the dependencies and attachments from the counterparty
+ * with [ResolveTransactionsFlow], so a proposal with a bad or missing signature costs no downloads. [verify] then
+ * resolves the transaction against the node's storage and runs its contracts.
+ *
+ * The checks run on the flow's own thread, one after the other. Overlapping them is not possible here: a flow must not
+ * block its thread waiting on another, and resolution needs the dependencies fetched by a subflow, which can only run
+ * on the flow's thread. The time spent in signatures, resolution and contracts is recorded as sub-steps of the flow's
+ * current step in [ETFFlowMetrics], to show where acceptor latency goes.
+ */
+@CordaService
+public class ETFTransactionVerifier extends SingletonSerializeAsToken {
+
+    /**
+     * One check of a transaction.
+     */
+    interface Check<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Runs the contracts of a resolved transaction.
+     */
+    interface Contracts<L> {
+        void verify(L ledgerTx) throws Exception;
+    }
+
+    public ETFTransactionVerifier(AppServiceHub serviceHub) {
+    }
+
+    /**
+     * Checks every signature on the transaction except those allowed to be missing. Needs nothing from the node's
+     * storage, so it is called before the dependencies are fetched.
+     *
+     * @return the wire transaction whose signatures were checked.
+     * @throws FlowException if a signature is missing or invalid.
+     */
+    public WireTransaction checkSignatures(SignedTransaction tx,
+                                           ETFFlowMetrics.FlowTimer timer,
+                                           PublicKey... allowedToBeMissing) throws FlowException {
+        return checkSignatures(tx.getId().toString(), timer, () -> tx.verifySignatures(allowedToBeMissing));
+    }
+
+    /**
+     * Resolves the transaction against the node's storage and verifies its contracts. The dependencies and attachments
+     * must already be in the node's storage, fetched with [ResolveTransactionsFlow].
+     *
+     * @throws FlowException if the transaction cannot be resolved or the contracts reject it.
+     */
+    public void verify(SignedTransaction tx, ServiceHub services, ETFFlowMetrics.FlowTimer timer) throws FlowException {
+        verify(tx.getId().toString(), timer, () -> tx.getTx().toLedgerTransaction(services), LedgerTransaction::verify);
+    }
+
+    static <W> W checkSignatures(String txId,
+                                 ETFFlowMetrics.FlowTimer timer,
+                                 Check<W> signatures) throws FlowException {
+        try {
+            final long start = System.nanoTime();
+            final W verified = signatures.run();
+            timer.record("signatures", System.nanoTime() - start);
+            return verified;
+        } catch (SignatureException ex) {
+            throw new FlowException(txId + " failed signature checks", ex);
+        } catch (FlowException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new FlowException(txId + " could not be verified", ex);
+        }
+    }
+
+    static <L> void verify(String txId,
+                           ETFFlowMetrics.FlowTimer timer,
+                           Check<L> resolution,
+                           Contracts<L> contracts) throws FlowException {
+        try {
+            long start = System.nanoTime();
+            final L ledgerTx = resolution.run();
+            long end = System.nanoTime();
+            timer.record("resolution", end - start);
+
+            start = end;
+            contracts.verify(ledgerTx);
+            timer.record("contracts", System.nanoTime() - start);
+        } catch (FlowException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new FlowException(txId + " could not be verified", ex);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.cts.service;
+
+import com.cts.schema.KeysetPager;
+import com.cts.state.ETFundState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.time.Instant;
+
+/**
+ * Resolves fund reference ids to the current unconsumed [ETFundState] for the exercising flows.
+ *
+ * Holds a bounded [ReferenceIndex] of the funds used recently, kept current from the vault update feed, so an
+ * exercise resolves its input from transaction storage without querying the vault. A fund the index does not hold is
+ * looked up in the vault and added to it. [ETFundState] is not persisted in a queryable schema, so that lookup pages
+ * through the unconsumed funds with a [KeysetPager] until it finds it. The index holds at most
+ * [MAX_CACHED_FUNDS_PROPERTY] funds, [DEFAULT_MAX_CACHED_FUNDS] unless set.
+ */
+@CordaService
+public class ETFundReferenceService extends SingletonSerializeAsToken {
+    public static final String MAX_CACHED_FUNDS_PROPERTY = "etf.references.maxCachedFunds";
+    public static final long DEFAULT_MAX_CACHED_FUNDS = 100_000;
+    public static final int LOOKUP_PAGE_SIZE = 1000;
+
+    private final AppServiceHub serviceHub;
+    private final ReferenceIndex references = new ReferenceIndex(
+            Long.getLong(MAX_CACHED_FUNDS_PROPERTY, DEFAULT_MAX_CACHED_FUNDS));
+
+    public ETFundReferenceService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.getVaultService().getUpdates().subscribe(this::onUpdate);
+    }
+
+    /**
+     * Returns the unconsumed state for the given reference id, or null if there is none.
+     */
+    public StateAndRef<ETFundState> lookup(String referenceId) {
+        final StateRef ref = references.get(referenceId);
+        if (ref != null) {
+            return serviceHub.toStateAndRef(ref);
+        }
+        // Not used recently, or has no live state. The feed is subscribed to first, so a state it reports while the
+        // vault is read is never replaced by the older one read.
+        final KeysetPager<ETFundState> funds = KeysetPager.of(serviceHub.getVaultService(), ETFundState.class,
+                Vault.StateStatus.UNCONSUMED, null, Instant.now(), LOOKUP_PAGE_SIZE);
+        while (funds.hasNext()) {
+            for (StateAndRef<ETFundState> state : funds.next().getStates()) {
+                if (state.getState().getData().getStructuredProduct().getReferenceId().equals(referenceId)) {
+                    references.read(referenceId, state.getRef());
+                    return state;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void onUpdate(Vault.Update<ContractState> update) {
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            final String referenceId = referenceIdOf(consumed);
+            if (referenceId != null) {
+                references.consumed(referenceId, consumed.getRef());
+            }
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            final String referenceId = referenceIdOf(produced);
+            if (referenceId != null) {
+                references.produced(referenceId, produced.getRef());
+            }
+        }
+    }
+
+    private static String referenceIdOf(StateAndRef<ContractState> stateAndRef) {
+        final ContractState state = stateAndRef.getState().getData();
+        if (!(state instanceof ETFundState)) {
+            return null;
+        }
+        return ((ETFundState) state).getStructuredProduct().getReferenceId();
+    }
+}
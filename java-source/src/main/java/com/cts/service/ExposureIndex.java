@@ -0,0 +1,146 @@
+package com.cts.service;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Running totals of the maxExposure of the live funds, per fund and per party, for [ETFExposureService].
+ *
+ * Funds and parties are numbered the first time they are seen, and every total is held in a primitive array indexed
+ * by that number, so an update or a lookup is a hash lookup and a few array accesses. A fund's number is kept after
+ * it is consumed, so it is reused if the fund is produced again.
+ *
+ * The StateRef of each fund's current state is kept so that a consumed state only removes the fund if it is still
+ * the current one; updates can then be applied in any order relative to a vault snapshot taken while they arrive.
+ */
+public final class ExposureIndex {
+    private final Map<String, Integer> fundIndex = new HashMap<>();
+    private final Map<Party, Integer> partyIndex = new HashMap<>();
+    private final List<Party> parties = new ArrayList<>();
+
+    private StateRef[] fundRef = new StateRef[1024];
+    private int[] fundBuyer = new int[1024];
+    private int[] fundSeller = new int[1024];
+    private double[] fundExposure = new double[1024];
+
+    private double[] partyExposure = new double[16];
+    private int[] partyFunds = new int[16];
+    private int liveFunds;
+
+    /**
+     * Makes the given state the current one of its fund, replacing the fund's previous state if any.
+     */
+    public synchronized void produced(StateRef ref, String referenceId, Party buyer, Party seller, double exposure) {
+        final int fund = fundNumber(referenceId);
+        if (fundRef[fund] != null) {
+            remove(fund);
+        }
+        fundRef[fund] = ref;
+        fundBuyer[fund] = partyNumber(buyer);
+        fundSeller[fund] = partyNumber(seller);
+        fundExposure[fund] = exposure;
+        add(fund, 1);
+        liveFunds++;
+    }
+
+    /**
+     * Removes the fund if the given state is its current one.
+     */
+    public synchronized void consumed(StateRef ref, String referenceId) {
+        final Integer fund = fundIndex.get(referenceId);
+        if (fund != null && ref.equals(fundRef[fund])) {
+            remove(fund);
+        }
+    }
+
+    /**
+     * Returns the total maxExposure of the live funds the party is buyer or seller of.
+     */
+    public synchronized double partyExposure(Party party) {
+        final Integer p = partyIndex.get(party);
+        return p != null ? partyExposure[p] : 0;
+    }
+
+    /**
+     * Returns the number of live funds the party is buyer or seller of.
+     */
+    public synchronized int partyFunds(Party party) {
+        final Integer p = partyIndex.get(party);
+        return p != null ? partyFunds[p] : 0;
+    }
+
+    /**
+     * Returns the maxExposure of the given fund, or NaN if it has no live state.
+     */
+    public synchronized double fundExposure(String referenceId) {
+        final Integer fund = fundIndex.get(referenceId);
+        return fund != null && fundRef[fund] != null ? fundExposure[fund] : Double.NaN;
+    }
+
+    public synchronized int liveFunds() {
+        return liveFunds;
+    }
+
+    /**
+     * Returns the totals of every party with at least one live fund.
+     */
+    public synchronized List<ETFExposure> parties() {
+        final List<ETFExposure> totals = new ArrayList<>();
+        for (int p = 0; p < parties.size(); p++) {
+            if (partyFunds[p] > 0) {
+                totals.add(new ETFExposure(parties.get(p).getName().toString(), partyExposure[p], partyFunds[p]));
+            }
+        }
+        return totals;
+    }
+
+    private void remove(int fund) {
+        add(fund, -1);
+        fundRef[fund] = null;
+        liveFunds--;
+    }
+
+    /**
+     * Adds the fund to the totals of its buyer and seller, or takes it off them if sign is -1.
+     */
+    private void add(int fund, int sign) {
+        partyExposure[fundBuyer[fund]] += sign * fundExposure[fund];
+        partyFunds[fundBuyer[fund]] += sign;
+        if (fundSeller[fund] != fundBuyer[fund]) {
+            partyExposure[fundSeller[fund]] += sign * fundExposure[fund];
+            partyFunds[fundSeller[fund]] += sign;
+        }
+    }
+
+    private int fundNumber(String referenceId) {
+        return fundIndex.computeIfAbsent(referenceId, key -> {
+            final int fund = fundIndex.size();
+            if (fund == fundRef.length) {
+                final int capacity = fund * 2;
+                fundRef = Arrays.copyOf(fundRef, capacity);
+                fundBuyer = Arrays.copyOf(fundBuyer, capacity);
+                fundSeller = Arrays.copyOf(fundSeller, capacity);
+                fundExposure = Arrays.copyOf(fundExposure, capacity);
+            }
+            return fund;
+        });
+    }
+
+    private int partyNumber(Party party) {
+        return partyIndex.computeIfAbsent(party, key -> {
+            final int p = parties.size();
+            parties.add(key);
+            if (p == partyExposure.length) {
+                partyExposure = Arrays.copyOf(partyExposure, p * 2);
+                partyFunds = Arrays.copyOf(partyFunds, p * 2);
+            }
+            return p;
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package com.cts.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed bucket bounds, cheap enough to record on every flow step.
+ *
+ * Recording is a short scan over the bounds and two [LongAdder] increments: no locks, no allocation and no sampling,
+ * so concurrent flows do not contend. Buckets are cumulative when written out, in the Prometheus histogram format, so
+ * percentiles can be computed and aggregated across nodes by the scraper.
+ */
+public final class LatencyHistogram {
+    /**
+     * Upper bounds of the buckets in milliseconds, covering a local signature check up to a slow notarisation.
+     */
+    static final double[] BOUNDS_MILLIS = {1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_MILLIS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            BOUNDS_NANOS[i] = (long) (BOUNDS_MILLIS[i] * 1_000_000);
+        }
+    }
+
+    // One more bucket than bounds, for the values above the last bound.
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            // The clock is not comparable across a node restart, so a step resumed from a checkpoint is not timed.
+            return;
+        }
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Appends the histogram as the _bucket, _sum and _count samples of the named metric, in seconds.
+     *
+     * @param labels the labels of the series, already formatted as name="value" pairs separated by commas.
+     */
+    void writeTo(StringBuilder out, String name, String labels) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(BOUNDS_MILLIS[i] / 1000)
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[BOUNDS_MILLIS.length].sum();
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,216 @@
+package com.cts.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Values ETF baskets off-ledger, one NAV per share for each fund, kept current as constituent prices tick.
+ *
+ * Funds and constituents are numbered when the engine is built, and the baskets are held twice in flat primitive
+ * arrays: fund -> (constituent, units) for a full revaluation, and constituent -> (fund, units) for a tick. A tick
+ * adjusts the NAV of each fund holding the constituent by units * price change, so its cost is one multiply-add per
+ * holder whatever the size of the baskets, and nothing is allocated. [revalue] recomputes every NAV from the prices in
+ * parallel, which also discards the rounding that many small adjustments accumulate.
+ *
+ * A fund's NAV is NaN until every one of its constituents has been priced.
+ */
+public final class NavEngine {
+    private final String[] fundIds;
+    private final Map<String, Integer> fundIndex;
+    private final String[] constituentIds;
+    private final Map<String, Integer> constituentIndex;
+
+    // The basket of fund f is entries basketStart[f] until basketStart[f + 1].
+    private final int[] basketStart;
+    private final int[] basketConstituent;
+    private final double[] basketUnits;
+
+    // The holders of constituent c are entries holderStart[c] until holderStart[c + 1].
+    private final int[] holderStart;
+    private final int[] holderFund;
+    private final double[] holderUnits;
+
+    private final double[] prices;
+    private final double[] navs;
+    private final int[] unpriced;
+
+    private NavEngine(Builder builder) {
+        fundIds = builder.fundIds.toArray(new String[0]);
+        fundIndex = new HashMap<>(builder.fundIndex);
+        constituentIds = builder.constituentIds.toArray(new String[0]);
+        constituentIndex = new HashMap<>(builder.constituentIndex);
+
+        final int entries = builder.entryFund.size();
+        basketStart = new int[fundIds.length + 1];
+        holderStart = new int[constituentIds.length + 1];
+        for (int i = 0; i < entries; i++) {
+            basketStart[builder.entryFund.get(i) + 1]++;
+            holderStart[builder.entryConstituent.get(i) + 1]++;
+        }
+        for (int f = 0; f < fundIds.length; f++) {
+            basketStart[f + 1] += basketStart[f];
+        }
+        for (int c = 0; c < constituentIds.length; c++) {
+            holderStart[c + 1] += holderStart[c];
+        }
+
+        basketConstituent = new int[entries];
+        basketUnits = new double[entries];
+        holderFund = new int[entries];
+        holderUnits = new double[entries];
+        final int[] basketNext = Arrays.copyOf(basketStart, fundIds.length);
+        final int[] holderNext = Arrays.copyOf(holderStart, constituentIds.length);
+        for (int i = 0; i < entries; i++) {
+            final int f = builder.entryFund.get(i);
+            final int c = builder.entryConstituent.get(i);
+            final double units = builder.entryUnits.get(i);
+            basketConstituent[basketNext[f]] = c;
+            basketUnits[basketNext[f]++] = units;
+            holderFund[holderNext[c]] = f;
+            holderUnits[holderNext[c]++] = units;
+        }
+
+        prices = new double[constituentIds.length];
+        Arrays.fill(prices, Double.NaN);
+        navs = new double[fundIds.length];
+        unpriced = new int[fundIds.length];
+        for (int f = 0; f < fundIds.length; f++) {
+            unpriced[f] = basketStart[f + 1] - basketStart[f];
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int fundCount() {
+        return fundIds.length;
+    }
+
+    public int constituentCount() {
+        return constituentIds.length;
+    }
+
+    /**
+     * Returns the number of the fund with the given reference id, or -1 if it has no basket.
+     */
+    public int fund(String fundId) {
+        final Integer f = fundIndex.get(fundId);
+        return f != null ? f : -1;
+    }
+
+    /**
+     * Returns the number of the given constituent, or -1 if no basket holds it.
+     */
+    public int constituent(String constituentId) {
+        final Integer c = constituentIndex.get(constituentId);
+        return c != null ? c : -1;
+    }
+
+    /**
+     * Returns the NAV per share of the given fund, or NaN while any of its constituents is unpriced.
+     */
+    public synchronized double nav(int fund) {
+        return unpriced[fund] == 0 ? navs[fund] : Double.NaN;
+    }
+
+    public synchronized double price(int constituent) {
+        return prices[constituent];
+    }
+
+    /**
+     * Sets the price of a constituent and adjusts the NAV of every fund holding it.
+     */
+    public synchronized void tick(int constituent, double price) {
+        if (Double.isNaN(price) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("Price of " + constituentIds[constituent] + " must be finite: " + price);
+        }
+        final double previous = prices[constituent];
+        prices[constituent] = price;
+        final int end = holderStart[constituent + 1];
+        if (Double.isNaN(previous)) {
+            for (int h = holderStart[constituent]; h < end; h++) {
+                navs[holderFund[h]] += holderUnits[h] * price;
+                unpriced[holderFund[h]]--;
+            }
+        } else {
+            final double change = price - previous;
+            for (int h = holderStart[constituent]; h < end; h++) {
+                navs[holderFund[h]] += holderUnits[h] * change;
+            }
+        }
+    }
+
+    /**
+     * Ticks the constituents with the given numbers to the given prices, in order.
+     */
+    public synchronized void tick(int[] constituents, double[] newPrices) {
+        if (constituents.length != newPrices.length) {
+            throw new IllegalArgumentException("Expected one price per constituent.");
+        }
+        for (int i = 0; i < constituents.length; i++) {
+            tick(constituents[i], newPrices[i]);
+        }
+    }
+
+    /**
+     * Recomputes the NAV of every fund from the current prices, spreading the funds over the common fork-join pool.
+     */
+    public synchronized void revalue() {
+        IntStream.range(0, fundIds.length).parallel().forEach(f -> {
+            // Like the ticks, the sum only covers the priced constituents, so a later first tick adds to it.
+            double nav = 0;
+            for (int i = basketStart[f]; i < basketStart[f + 1]; i++) {
+                final double price = prices[basketConstituent[i]];
+                if (!Double.isNaN(price)) {
+                    nav += basketUnits[i] * price;
+                }
+            }
+            navs[f] = nav;
+        });
+    }
+
+    /**
+     * Collects basket entries and numbers funds and constituents in the order they are first seen.
+     */
+    public static final class Builder {
+        private final List<String> fundIds = new ArrayList<>();
+        private final Map<String, Integer> fundIndex = new HashMap<>();
+        private final List<String> constituentIds = new ArrayList<>();
+        private final Map<String, Integer> constituentIndex = new HashMap<>();
+        private final List<Integer> entryFund = new ArrayList<>();
+        private final List<Integer> entryConstituent = new ArrayList<>();
+        private final List<Double> entryUnits = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds the given units of a constituent to the basket backing one share of a fund.
+         */
+        public Builder add(String fundId, String constituentId, double units) {
+            if (Double.isNaN(units) || Double.isInfinite(units)) {
+                throw new IllegalArgumentException("Units of " + constituentId + " in " + fundId + " must be finite.");
+            }
+            entryFund.add(index(fundId, fundIds, fundIndex));
+            entryConstituent.add(index(constituentId, constituentIds, constituentIndex));
+            entryUnits.add(units);
+            return this;
+        }
+
+        public NavEngine build() {
+            return new NavEngine(this);
+        }
+
+        private static int index(String id, List<String> ids, Map<String, Integer> index) {
+            return index.computeIfAbsent(id, key -> {
+                ids.add(key);
+                return ids.size() - 1;
+            });
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.cts.service;
+
+import java.util.UUID;
+
+/**
+ * Decides which flows have their progress steps logged, so the progress of a sample of flows can be followed in the
+ * logs without writing a line for every step of every flow.
+ *
+ * The rate is set with the etf.log.progress.sampleRate system property, from 0 (none) to 1 (every flow), and
+ * defaults to 0.01. The decision depends only on the flow's run id, so the node and the web server log the progress of
+ * the same flows.
+ */
+public final class ProgressLogSampler {
+    public static final String SAMPLE_RATE_PROPERTY = "etf.log.progress.sampleRate";
+    public static final double DEFAULT_SAMPLE_RATE = 0.01;
+
+    private static final int SCALE = 10_000;
+    private static final int threshold = threshold(System.getProperty(SAMPLE_RATE_PROPERTY));
+
+    private ProgressLogSampler() { }
+
+    public static boolean isSampled(UUID runId) {
+        return threshold > 0 && Math.floorMod(runId.hashCode(), SCALE) < threshold;
+    }
+
+    static int threshold(String sampleRate) {
+        double rate = DEFAULT_SAMPLE_RATE;
+        if (sampleRate != null) {
+            try {
+                rate = Double.parseDouble(sampleRate);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid " + SAMPLE_RATE_PROPERTY + " " + sampleRate, ex);
+            }
+        }
+        return (int) Math.round(Math.min(Math.max(rate, 0), 1) * SCALE);
+    }
+}
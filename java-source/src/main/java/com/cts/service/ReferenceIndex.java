@@ -0,0 +1,57 @@
+package com.cts.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.corda.core.contracts.StateRef;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The StateRef of the current state of recently used funds, by reference id, for [ETFundReferenceService].
+ *
+ * Holds at most the given number of funds, evicting the least recently used, so a miss does not mean the fund has no
+ * live state. The vault feed and the reads from the vault both write to it, in any order. The feed's produced states
+ * replace the entry, while a state read from the vault only fills in funds the feed has not reported, since it may be
+ * older. A consumed state only removes the entry if it is still the current one.
+ */
+public final class ReferenceIndex {
+    private final Cache<String, StateRef> cache;
+    private final ConcurrentMap<String, StateRef> references;
+
+    public ReferenceIndex(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        this.references = cache.asMap();
+    }
+
+    /**
+     * Makes the given state the current one of its fund.
+     */
+    public void produced(String referenceId, StateRef ref) {
+        references.put(referenceId, ref);
+    }
+
+    /**
+     * Records a state read from the vault, unless the fund already has one.
+     */
+    public void read(String referenceId, StateRef ref) {
+        references.putIfAbsent(referenceId, ref);
+    }
+
+    /**
+     * Removes the fund if the given state is its current one.
+     */
+    public void consumed(String referenceId, StateRef ref) {
+        references.remove(referenceId, ref);
+    }
+
+    /**
+     * Returns the current state of the fund, or null if it is not held.
+     */
+    public StateRef get(String referenceId) {
+        return cache.getIfPresent(referenceId);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+}
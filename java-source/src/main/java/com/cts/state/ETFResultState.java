@@ -1,6 +1,6 @@
 package com.cts.state;
 
-import com.example.schema.ETFSchemaV1;
+import com.cts.schema.ETFSchemaV2;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
@@ -29,14 +29,25 @@ public class ETFResultState implements LinearState, QueryableState {
      * @param lender the party issuing the IOU.
      * @param borrower the party receiving and approving the IOU.
      */
-    public IOUState(Integer value,
-                    Party lender,
-                    Party borrower)
+    public ETFResultState(Integer value,
+                          Party lender,
+                          Party borrower)
+    {
+        this(value, lender, borrower, null);
+    }
+
+    /**
+     * @param referenceId the reference id of the fund the result is for, persisted as the state's reference_id.
+     */
+    public ETFResultState(Integer value,
+                          Party lender,
+                          Party borrower,
+                          String referenceId)
     {
         this.value = value;
         this.lender = lender;
         this.borrower = borrower;
-        this.linearId = new UniqueIdentifier();
+        this.linearId = new UniqueIdentifier(referenceId);
     }
 
     public Integer getValue() { return value; }
@@ -48,19 +59,24 @@ public class ETFResultState implements LinearState, QueryableState {
     }
 
     @Override public PersistentState generateMappedObject(MappedSchema schema) {
-        if (schema instanceof ETFSchemaV1) {
-//            return new IOUSchemaV1.PersistentIOU(
-//                    this.lender.getName().toString(),
-//                    this.borrower.getName().toString(),
-//                    this.value,
-//                    this.linearId.getId());
+        if (schema instanceof ETFSchemaV2) {
+            // No lifecycle: status, iteration and rate are left null.
+            return new ETFSchemaV2.PersistentETFund(
+                    this.linearId.getExternalId(),
+                    null,
+                    null,
+                    null,
+                    this.value.floatValue(),
+                    this.borrower.getName().toString(),
+                    this.lender.getName().toString(),
+                    this.linearId.getId());
         } else {
-            throw new IllegalArgumentException("Unrecognised schema $schema");
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
         }
     }
 
     @Override public Iterable<MappedSchema> supportedSchemas() {
-        return ImmutableList.of(new IOUSchemaV1());
+        return ImmutableList.of(new ETFSchemaV2());
     }
 
     @Override
@@ -1,15 +1,21 @@
 package com.cts.api;
 
 import com.cts.flow.ETFFlow;
+import com.cts.schema.ETFQueryCriteria;
+import com.cts.state.ETFBookState;
 import com.cts.state.ETFState;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import net.corda.core.contracts.StateAndRef;
+import com.google.common.collect.ImmutableSet;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.messaging.FlowProgressHandle;
-import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
 import net.corda.core.transactions.SignedTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,23 +27,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
-import static java.util.stream.Collectors.toList;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CREATED;
 
 // This API is accessible from /api/example. All paths specified below are relative to it.
 @Path("ETF")
 public class ETFApi {
-    private final CordaRPCOps rpcOps;
+    private final RpcConnectionPool rpc;
     private final CordaX500Name myLegalName;
+    private final NetworkIdentityCache identities;
 
     private final List<String> serviceNames = ImmutableList.of("Controller", "Network Map Service");
 
     static private final Logger logger = LoggerFactory.getLogger(ETFApi.class);
 
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
+
     public ETFApi(CordaRPCOps rpcOps) {
-        this.rpcOps = rpcOps;
+        this.rpc = RpcConnectionPool.of(rpcOps);
         this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+        this.identities = NetworkIdentityCache.of(rpcOps);
     }
 
     /**
@@ -58,22 +68,55 @@ public class ETFApi {
     @Path("peers")
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, List<CordaX500Name>> getPeers() {
-        List<NodeInfo> nodeInfoSnapshot = rpcOps.networkMapSnapshot();
-        return ImmutableMap.of("peers", nodeInfoSnapshot
-                .stream()
-                .map(node -> node.getLegalIdentities().get(0).getName())
-                .filter(name -> !name.equals(myLegalName) && !serviceNames.contains(name.getOrganisation()))
-                .collect(toList()));
+        return ImmutableMap.of("peers", identities.peers(myLegalName, serviceNames));
     }
 
     /**
-     * Displays all IOU states that exist in the node's vault.
+     * Displays one page of the booking states in the node's vault.
+     *
+     * Pages are numbered from 1 and capped at [MAX_PAGE_SIZE] states. Results are ordered by recorded time (sort=asc
+     * or sort=desc), then by state ref so that states recorded in the same instant keep a stable order across pages.
+     * They can be restricted by vault status (vaultStatus=UNCONSUMED, CONSUMED or ALL) and to the states where the
+     * given party is buyer or seller. Bookings have no lifecycle status of their own. The total number of matching
+     * states is returned in the X-Total-Count header.
      */
     @GET
     @Path("ious")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<ETFBookState>> getBookings() {
-        return rpcOps.vaultQuery(IOUState.class).getStates();
+    public Response getBookings(@DefaultValue("1") @QueryParam("page") int page,
+                                @DefaultValue("" + DEFAULT_PAGE_SIZE) @QueryParam("pageSize") int pageSize,
+                                @DefaultValue("desc") @QueryParam("sort") String sort,
+                                @DefaultValue("UNCONSUMED") @QueryParam("vaultStatus") String vaultStatus,
+                                @QueryParam("party") CordaX500Name party) {
+        if (page < 1) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'page' must be at least 1.\n").build();
+        }
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'pageSize' must be between 1 and " + MAX_PAGE_SIZE + ".\n").build();
+        }
+        final Sort.Direction direction;
+        final Vault.StateStatus stateStatus;
+        try {
+            direction = Sort.Direction.valueOf(sort.toUpperCase());
+            stateStatus = Vault.StateStatus.valueOf(vaultStatus.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity("Query parameters 'sort' or 'vaultStatus' have the wrong format.\n").build();
+        }
+
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(stateStatus);
+        if (party != null) {
+            criteria = criteria.and(ETFQueryCriteria.byParty(party, stateStatus));
+        }
+        final Sort sorting = new Sort(ImmutableSet.of(
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), direction),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), direction),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), direction)));
+
+        final Vault.Page<ETFBookState> result = rpc.query().vaultQueryBy(
+                criteria, new PageSpecification(page, pageSize), sorting, ETFBookState.class);
+        return Response.ok(result.getStates())
+                .header("X-Total-Count", result.getTotalStatesAvailable())
+                .build();
     }
 
     /**
@@ -97,15 +140,15 @@ public class ETFApi {
             return Response.status(BAD_REQUEST).entity("Query parameter 'partyName' missing or has wrong format.\n").build();
         }
 
-        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
+        final Party otherParty = identities.wellKnownPartyFromX500Name(partyName);
         if (otherParty == null) {
             return Response.status(BAD_REQUEST).entity("Party named " + partyName + "cannot be found.\n").build();
         }
 
         try {
-            FlowProgressHandle<SignedTransaction> flowHandle = rpcOps
+            FlowProgressHandle<SignedTransaction> flowHandle = rpc.flows()
                     .startTrackedFlowDynamic(ExampleFlow.Initiator.class, iouValue, otherParty);
-            flowHandle.getProgress().subscribe(evt -> System.out.printf(">> %s\n", evt));
+            flowHandle.getProgress().subscribe(evt -> logger.debug("Flow {} progress: {}", flowHandle.getId(), evt));
 
             // The line below blocks and waits for the flow to return.
             final SignedTransaction result = flowHandle
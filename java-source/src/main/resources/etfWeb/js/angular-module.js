@@ -23,11 +23,12 @@ app.config(['$qProvider', function ($qProvider) {
     $qProvider.errorOnUnhandledRejections(false);
 }]);
 
-app.controller('DemoAppController', function($http, $location, $uibModal) {
+app.controller('DemoAppController', function($http, $location, $scope, $uibModal) {
     const demoApp = this;
 
     // We identify the node.
     const apiBaseURL = "/api/example/";
+    const streamURL = "/api/ETF/stream";
     let peers = [];
 
     $http.get(apiBaseURL + "me").then((response) => demoApp.thisNode = response.data.me);
@@ -49,12 +50,28 @@ app.controller('DemoAppController', function($http, $location, $uibModal) {
         modalInstance.result.then(() => {}, () => {});
     };
 
+    // States currently shown, keyed by their "txhash(index)" state ref.
+    let states = {};
+    const render = () => demoApp.ious = Object.keys(states).map((key) => states[key]).reverse();
+
     demoApp.getIOUs = () => $http.get(apiBaseURL + "ious")
-        .then((response) => demoApp.ious = Object.keys(response.data)
-            .map((key) => response.data[key].state.data)
-            .reverse());
+        .then((response) => {
+            states = {};
+            response.data.forEach((stateAndRef) =>
+                states[`${stateAndRef.ref.txhash}(${stateAndRef.ref.index})`] = stateAndRef.state.data);
+            render();
+        });
 
-    demoApp.getIOUs();
+    // After the initial load, apply the deltas pushed by the node rather than re-downloading the listing.
+    const stream = new EventSource(streamURL);
+    stream.addEventListener("vault-update", (event) => $scope.$apply(() => {
+        const update = JSON.parse(event.data);
+        update.consumed.forEach((delta) => delete states[delta.ref]);
+        update.produced.forEach((delta) => states[delta.ref] = delta.state);
+        render();
+    }));
+    // The node drops clients that fall behind, so reload the listing whenever the stream reconnects.
+    stream.onopen = () => demoApp.getIOUs();
 });
 
 app.controller('ModalInstanceCtrl', function ($http, $location, $uibModalInstance, $uibModal, demoApp, apiBaseURL, peers) {
@@ -77,10 +94,7 @@ app.controller('ModalInstanceCtrl', function ($http, $location, $uibModalInstanc
 
             // Create PO and handle success / fail responses.
             $http.put(createIOUEndpoint).then(
-                (result) => {
-                    modalInstance.displayMessage(result);
-                    demoApp.getIOUs();
-                },
+                (result) => modalInstance.displayMessage(result),
                 (result) => {
                     modalInstance.displayMessage(result);
                 }
@@ -0,0 +1,311 @@
+package com.cts;
+
+import com.cts.contract.ETFundCompactionContract;
+import com.cts.flow.ETFundExercisingFlow;
+import com.cts.flow.ETFundInceptionFlow;
+import com.cts.state.ETFund;
+import com.cts.state.ETFundState;
+import com.cts.state.ETFundStateStatus;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.node.services.transactions.ValidatingNotaryService;
+import net.corda.nodeapi.User;
+import net.corda.nodeapi.internal.ServiceInfo;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * Measures flow throughput and latency on a local network, to size nodes before a product launch.
+ * <p>
+ * Starts a notary, an ETFSponsor node and a number of AP nodes with the driver, then starts ETF inception and
+ * exercising flows from the sponsor over RPC at a fixed target rate for a fixed time. Each inception is with the
+ * next AP in turn; each exercise picks a fund that has already been incepted and is not being exercised, and is
+ * counted as dropped if there is none. When the report is written it holds one CSV line per flow type with the
+ * throughput and the p50, p99 and p99.9 latencies. Throughput is over the wall-clock time from the first start to
+ * the last completion, so flows that finish after the target duration are not counted as if they fitted in it.
+ * <p>
+ * Run with ./gradlew runLoadDriver -Pload="aps=4 rate=50 duration=120 exercise=0.7". The options, all optional, are:
+ * <p>
+ * - aps: the number of AP nodes (default 2).
+ * - rate: the flows started per second (default 20).
+ * - duration: the length of the run in seconds (default 60).
+ * - exercise: the fraction of flows that are exercises (default 0.5).
+ * - maxInFlight: the flows that may be running at once; starts beyond it are counted as dropped (default 500).
+ * - report: the report file (default build/reports/load/flows.csv).
+ * <p>
+ * Latency is measured from the time a flow was due to start, so a node that falls behind the target rate shows it in
+ * the latencies rather than hiding it.
+ */
+public class LoadDriver {
+    private static final String INCEPTION = "ETFundInceptionFlow";
+    private static final String EXERCISING = "ETFundExercisingFlow";
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = options(args);
+        final int aps = Integer.parseInt(options.getOrDefault("aps", "2"));
+        final int rate = Integer.parseInt(options.getOrDefault("rate", "20"));
+        final int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        final double exercise = Double.parseDouble(options.getOrDefault("exercise", "0.5"));
+        final int maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "500"));
+        final File report = new File(options.getOrDefault("report", "build/reports/load/flows.csv"));
+
+        final Set<String> permissions = ImmutableSet.of(
+                "StartFlow." + ETFundInceptionFlow.Initiator.class.getName(),
+                "StartFlow." + ETFundExercisingFlow.Initiator.class.getName());
+        final User user = new User("user1", "test", permissions);
+        driver(new DriverParameters().setIsDebug(false).setStartNodesInProcess(false), dsl -> {
+            try {
+                dsl.startNode(new NodeParameters()
+                        .setProvidedName(new CordaX500Name("Controller", "London", "GB"))
+                        .setAdvertisedServices(ImmutableSet.of(new ServiceInfo(ValidatingNotaryService.Companion.getType(), null)))).get();
+                final NodeHandle sponsor = dsl.startNode(new NodeParameters()
+                        .setProvidedName(new CordaX500Name("ETFSponsor", "London", "GB"))
+                        .setRpcUsers(ImmutableList.of(user))).get();
+                final List<Party> apParties = new ArrayList<>(aps);
+                for (int i = 1; i <= aps; i++) {
+                    final NodeHandle ap = dsl.startNode(new NodeParameters()
+                            .setProvidedName(new CordaX500Name("AP" + i, "New York", "US"))
+                            .setRpcUsers(ImmutableList.of(user))).get();
+                    apParties.add(ap.getNodeInfo().getLegalIdentities().get(0));
+                }
+
+                final LoadDriver load = new LoadDriver(sponsor.getRpc(), apParties, exercise, maxInFlight);
+                final long elapsedNanos = load.run(rate, duration);
+                load.writeReport(report, elapsedNanos);
+                System.out.println("Load report written to " + report.getAbsolutePath());
+            } catch (Throwable e) {
+                System.err.println("Encountered exception in load run: " + e.getMessage());
+                e.printStackTrace();
+            }
+            return null;
+        });
+    }
+
+    private final CordaRPCOps sponsor;
+    private final Party sponsorParty;
+    private final List<Party> aps;
+    private final double exercise;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final AtomicInteger nextAp = new AtomicInteger();
+    // Funds that have been incepted and are not being exercised, with the AP they were incepted with.
+    private final Queue<Fund> idleFunds = new ConcurrentLinkedQueue<>();
+    private final Map<String, FlowStats> stats = new HashMap<>();
+    // The System.nanoTime() of the latest completion.
+    private final AtomicLong lastCompletion = new AtomicLong();
+
+    private LoadDriver(CordaRPCOps sponsor, List<Party> aps, double exercise, int maxInFlight) {
+        this.sponsor = sponsor;
+        this.sponsorParty = sponsor.nodeInfo().getLegalIdentities().get(0);
+        this.aps = aps;
+        this.exercise = exercise;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        stats.put(INCEPTION, new FlowStats());
+        stats.put(EXERCISING, new FlowStats());
+    }
+
+    /**
+     * Starts flows at the given rate for the given number of seconds, then waits for the running flows to finish.
+     * Returns the nanoseconds from the start to the last completion.
+     */
+    private long run(int rate, int duration) throws InterruptedException {
+        final long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final AtomicInteger due = new AtomicInteger();
+        scheduler.scheduleAtFixedRate(() -> startFlow(start + due.getAndIncrement() * periodNanos),
+                0, periodNanos, TimeUnit.NANOSECONDS);
+        scheduler.awaitTermination(duration, TimeUnit.SECONDS);
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+
+        // Wait for the flows still running.
+        if (!inFlight.tryAcquire(maxInFlight, 5, TimeUnit.MINUTES)) {
+            System.err.println((maxInFlight - inFlight.availablePermits())
+                    + " flows were still running after 5 minutes and are left out of the report");
+        }
+        return Math.max(lastCompletion.get() - start, 1);
+    }
+
+    private void startFlow(long dueNanos) {
+        final boolean exercising = ThreadLocalRandom.current().nextDouble() < exercise;
+        final Fund fund = exercising ? idleFunds.poll() : null;
+        final FlowStats flowStats = stats.get(exercising ? EXERCISING : INCEPTION);
+        if (exercising && fund == null) {
+            // No fund is free to exercise; starting an inception instead would skew the mix.
+            flowStats.dropped();
+            return;
+        }
+        if (!inFlight.tryAcquire()) {
+            flowStats.dropped();
+            if (fund != null) {
+                idleFunds.add(fund);
+            }
+            return;
+        }
+        flowStats.started();
+        try {
+            final Fund target = fund != null ? fund : newFund();
+            final CordaFuture<SignedTransaction> result = fund != null
+                    ? sponsor.startFlowDynamic(ETFundExercisingFlow.Initiator.class, target.ap, target.refId,
+                            (float) (1 + ThreadLocalRandom.current().nextDouble())).getReturnValue()
+                    : sponsor.startFlowDynamic(ETFundInceptionFlow.Initiator.class, target.state(sponsorParty), target.ap)
+                            .getReturnValue();
+            result.then(future -> {
+                try {
+                    future.get();
+                    final long now = System.nanoTime();
+                    flowStats.completed(now - dueNanos);
+                    lastCompletion.accumulateAndGet(now, Math::max);
+                    idleFunds.add(target);
+                } catch (Exception e) {
+                    flowStats.failed();
+                    // A fund whose exercise failed is still unconsumed and can be exercised again.
+                    if (fund != null) {
+                        idleFunds.add(target);
+                    }
+                } finally {
+                    inFlight.release();
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            flowStats.failed();
+            if (fund != null) {
+                idleFunds.add(fund);
+            }
+            inFlight.release();
+        }
+    }
+
+    private Fund newFund() {
+        return new Fund("LOAD-" + UUID.randomUUID(), aps.get(Math.floorMod(nextAp.getAndIncrement(), aps.size())));
+    }
+
+    private void writeReport(File report, long elapsedNanos) throws IOException {
+        final double elapsedSeconds = elapsedNanos / 1e9;
+        report.getAbsoluteFile().getParentFile().mkdirs();
+        try (PrintWriter out = new PrintWriter(report, StandardCharsets.UTF_8.name())) {
+            out.println("flow,started,completed,failed,dropped,throughput_per_sec,p50_ms,p99_ms,p999_ms,max_ms");
+            for (String type : Arrays.asList(INCEPTION, EXERCISING)) {
+                final FlowStats flowStats = stats.get(type);
+                final long[] latencies = flowStats.sortedLatencies();
+                out.printf("%s,%d,%d,%d,%d,%.2f,%.1f,%.1f,%.1f,%.1f%n",
+                        type,
+                        flowStats.started.get(),
+                        latencies.length,
+                        flowStats.failed.get(),
+                        flowStats.dropped.get(),
+                        latencies.length / elapsedSeconds,
+                        percentile(latencies, 0.50),
+                        percentile(latencies, 0.99),
+                        percentile(latencies, 0.999),
+                        percentile(latencies, 1.0));
+            }
+        }
+    }
+
+    /**
+     * Returns the given percentile of sorted nanosecond latencies in milliseconds, by the nearest-rank method.
+     */
+    static double percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile * sortedNanos.length);
+        return sortedNanos[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    private static Map<String, String> options(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected option=value but got " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    /**
+     * A fund started by the load driver.
+     */
+    private static class Fund {
+        private final String refId;
+        private final Party ap;
+
+        private Fund(String refId, Party ap) {
+            this.refId = refId;
+            this.ap = ap;
+        }
+
+        private ETFundState state(Party sponsor) {
+            final ETFund etfund = new ETFund();
+            etfund.setReferenceId(refId);
+            etfund.setBuyer(ap.getName().getOrganisation());
+            etfund.setSeller(sponsor.getName().getOrganisation());
+            etfund.setMaxExposure(1_000_000f);
+            return new ETFundState(etfund, ap, sponsor, ETFundStateStatus.INCEPTION,
+                    new ETFundCompactionContract());
+        }
+    }
+
+    /**
+     * Counts and latencies of one flow type.
+     */
+    private static class FlowStats {
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger dropped = new AtomicInteger();
+        private long[] latencies = new long[1024];
+        private int completed;
+
+        private void started() { started.incrementAndGet(); }
+        private void failed() { failed.incrementAndGet(); }
+        private void dropped() { dropped.incrementAndGet(); }
+
+        private synchronized void completed(long latencyNanos) {
+            if (completed == latencies.length) {
+                latencies = Arrays.copyOf(latencies, completed * 2);
+            }
+            latencies[completed++] = latencyNanos;
+        }
+
+        private synchronized long[] sortedLatencies() {
+            final long[] sorted = Arrays.copyOf(latencies, completed);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.cts.api;
+
+import com.cts.schema.InMemoryVault;
+import com.cts.schema.KeysetPager;
+import com.cts.state.ETFBookState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ETFStateExporterTests {
+    private static final Instant t0 = Instant.parse("2017-09-01T10:00:00Z");
+
+    @Test
+    public void plainFieldsAreWrittenAsTheyAre() {
+        assertEquals("ETF-1", ETFStateExporter.csvField("ETF-1"));
+        assertEquals("2017-09-01T10:00:00Z", ETFStateExporter.csvField("2017-09-01T10:00:00Z"));
+    }
+
+    @Test
+    public void partyNamesAreQuoted() {
+        assertEquals("\"O=AP1, L=New York, C=US\"", ETFStateExporter.csvField("O=AP1, L=New York, C=US"));
+    }
+
+    @Test
+    public void quotesAreDoubled() {
+        assertEquals("\"say \"\"hi\"\"\"", ETFStateExporter.csvField("say \"hi\""));
+    }
+
+    @Test
+    public void nullIsAnEmptyField() {
+        assertEquals("", ETFStateExporter.csvField(null));
+    }
+
+    @Test
+    public void pagingOverRpcReadsEveryUnconsumedStateOnce() {
+        final InMemoryVault vault = new InMemoryVault();
+        final StateAndRef<ETFBookState> consumedBefore = vault.record(t0);
+        vault.consume(consumedBefore.getRef(), t0.plusSeconds(1));
+        final List<StateAndRef<ETFBookState>> recorded = new ArrayList<>();
+        for (int i = 2; i < 7; i++) {
+            recorded.add(vault.record(t0.plusSeconds(i)));
+        }
+        // Several states at one time, so pages of two end in the middle of them.
+        for (int i = 0; i < 5; i++) {
+            recorded.add(vault.record(t0.plusSeconds(7)));
+        }
+        vault.record(t0.plusSeconds(20));
+        // Each query consumes the first state, which by then has already been read.
+        vault.afterQuery = () -> vault.consume(recorded.get(0).getRef(), t0.plusSeconds(30));
+
+        final KeysetPager<ETFBookState> pages = KeysetPager.of(
+                rpcOps(vault), ETFBookState.class, Vault.StateStatus.UNCONSUMED, null, t0.plusSeconds(10), 2);
+        final List<StateAndRef<ETFBookState>> paged = new ArrayList<>();
+        while (pages.hasNext()) {
+            paged.addAll(pages.next().getStates());
+        }
+        assertEquals(recorded.size(), paged.size());
+        assertEquals(new HashSet<>(recorded), new HashSet<>(paged));
+        assertFalse(paged.contains(consumedBefore));
+        // The states at distinct times come back in time order, before the ones sharing a later time.
+        assertEquals(recorded.subList(0, 5), paged.subList(0, 5));
+        assertTrue(vault.queries > 1);
+    }
+
+    /**
+     * A node that answers vault queries from the in-memory vault and nothing else.
+     */
+    private static CordaRPCOps rpcOps(InMemoryVault vault) {
+        return (CordaRPCOps) Proxy.newProxyInstance(
+                CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class}, (self, method, args) -> {
+                    switch (method.getName()) {
+                        case "vaultQueryBy":
+                            return vault.query((QueryCriteria) args[0], (PageSpecification) args[1], (Sort) args[2]);
+                        case "equals":
+                            return self == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,95 @@
+package com.cts.api;
+
+import com.google.common.base.Ticker;
+import net.corda.core.crypto.SecureHash;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FlowJobTableTests {
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    @Test
+    public void runningJobReportsLatestProgressStep() {
+        FlowJobTable table = new FlowJobTable();
+        UUID id = UUID.randomUUID();
+        table.start(id);
+        table.progress(id, "Signing transaction with our private key.");
+
+        FlowJobTable.FlowJob job = table.get(id);
+        assertEquals(FlowJobTable.FlowJob.Status.RUNNING, job.getStatus());
+        assertEquals("Signing transaction with our private key.", job.getProgress());
+        assertEquals(1, table.runningCount());
+    }
+
+    @Test
+    public void completedJobKeepsTransactionId() {
+        FlowJobTable table = new FlowJobTable();
+        UUID id = UUID.randomUUID();
+        SecureHash txId = SecureHash.sha256("tx");
+        table.start(id);
+        table.complete(id, txId);
+
+        FlowJobTable.FlowJob job = table.get(id);
+        assertEquals(FlowJobTable.FlowJob.Status.COMPLETED, job.getStatus());
+        assertEquals(txId, job.getTxId());
+        assertEquals(0, table.runningCount());
+    }
+
+    @Test
+    public void completedJobsAreBounded() {
+        FlowJobTable table = new FlowJobTable(1, 1, TimeUnit.MINUTES);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        table.start(first);
+        table.start(second);
+        table.fail(first, "boom");
+        table.fail(second, "boom");
+
+        assertNull(table.get(first));
+        assertEquals(FlowJobTable.FlowJob.Status.FAILED, table.get(second).getStatus());
+    }
+
+    @Test
+    public void runningJobThatNeverFinishesExpiresAsFailed() {
+        FakeTicker ticker = new FakeTicker();
+        FlowJobTable table = new FlowJobTable(10, 60, 10, 15, TimeUnit.MINUTES, ticker);
+        UUID id = UUID.randomUUID();
+        table.start(id);
+
+        ticker.nanos = TimeUnit.MINUTES.toNanos(61);
+        assertEquals(0, table.runningCount());
+        FlowJobTable.FlowJob job = table.get(id);
+        assertEquals(FlowJobTable.FlowJob.Status.FAILED, job.getStatus());
+        assertNotNull(job.getError());
+
+        // A late outcome does not bring the job back.
+        table.complete(id, SecureHash.sha256("tx"));
+        assertEquals(FlowJobTable.FlowJob.Status.FAILED, table.get(id).getStatus());
+    }
+
+    @Test
+    public void runningJobsAreBounded() {
+        FlowJobTable table = new FlowJobTable(1, 60, 10, 15, TimeUnit.MINUTES, new FakeTicker());
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        table.start(first);
+        table.start(second);
+
+        assertEquals(1, table.runningCount());
+        assertEquals(FlowJobTable.FlowJob.Status.FAILED, table.get(first).getStatus());
+        assertEquals(FlowJobTable.FlowJob.Status.RUNNING, table.get(second).getStatus());
+    }
+}
@@ -0,0 +1,72 @@
+package com.cts.api;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateFileReaderTests {
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void csvSkipsHeaderAndBlankLines() throws IOException {
+        try (RateFileReader reader = RateFileReader.csv(stream("refId,etfRate\nETF-1,1.25\n\nETF-2, 0.5\n"))) {
+            RateFileReader.Row first = reader.next();
+            assertEquals(1, first.getRow());
+            assertEquals("ETF-1", first.getRefId());
+            assertEquals(1.25f, first.getEtfRate(), 0f);
+
+            RateFileReader.Row second = reader.next();
+            assertEquals(2, second.getRow());
+            assertEquals("ETF-2", second.getRefId());
+            assertEquals(0.5f, second.getEtfRate(), 0f);
+
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void csvReportsMalformedRowsWithoutStopping() throws IOException {
+        try (RateFileReader reader = RateFileReader.csv(stream("ETF-1,abc\nETF-2\nETF-3,2.0\n"))) {
+            assertFalse(reader.next().isValid());
+            assertFalse(reader.next().isValid());
+            RateFileReader.Row last = reader.next();
+            assertTrue(last.isValid());
+            assertEquals(3, last.getRow());
+        }
+    }
+
+    @Test
+    public void jsonReadsArrayOfRates() throws IOException {
+        String content = "[{\"refId\": \"ETF-1\", \"etfRate\": 1.5}, {\"etfRate\": \"2.5\", \"refId\": \"ETF-2\", \"note\": {}}]";
+        try (RateFileReader reader = RateFileReader.json(stream(content))) {
+            RateFileReader.Row first = reader.next();
+            assertEquals("ETF-1", first.getRefId());
+            assertEquals(1.5f, first.getEtfRate(), 0f);
+
+            RateFileReader.Row second = reader.next();
+            assertEquals("ETF-2", second.getRefId());
+            assertEquals(2.5f, second.getEtfRate(), 0f);
+
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void jsonReportsMissingReference() throws IOException {
+        try (RateFileReader reader = RateFileReader.json(stream("[{\"etfRate\": 1.5}]"))) {
+            RateFileReader.Row row = reader.next();
+            assertFalse(row.isValid());
+            assertEquals("Missing refId.", row.getError());
+        }
+    }
+}
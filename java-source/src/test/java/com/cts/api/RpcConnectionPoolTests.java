@@ -0,0 +1,188 @@
+package com.cts.api;
+
+import net.corda.core.messaging.CordaRPCOps;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RpcConnectionPoolTests {
+
+    @Test
+    public void spreadsQueriesAndFlowsOverSeparateConnections() {
+        final FakeNode node = new FakeNode();
+        final RpcConnectionPool pool = new RpcConnectionPool(node.proxy(), node, 3, 2, 0);
+        assertEquals(5, node.opened.size());
+
+        final Set<CordaRPCOps> queries = new HashSet<>();
+        final Set<CordaRPCOps> flows = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            queries.add(pool.query());
+            flows.add(pool.flows());
+        }
+        assertEquals(3, queries.size());
+        assertEquals(2, flows.size());
+        queries.retainAll(flows);
+        assertTrue(queries.isEmpty());
+    }
+
+    @Test
+    public void replacesAConnectionThatFailsSeveralHealthChecksInARow() {
+        final FakeNode node = new FakeNode();
+        final RpcConnectionPool pool = new RpcConnectionPool(node.proxy(), node, 2, 1, 0, 3, 0);
+        final FakeConnection broken = node.opened.get(0);
+        broken.up = false;
+
+        pool.checkAll();
+        // Out of use, but neither closed nor replaced after one failure.
+        assertFalse(broken.closed);
+        assertEquals(3, node.opened.size());
+        for (int i = 0; i < 4; i++) {
+            pool.query().currentNodeTime();
+        }
+        assertEquals(1, pool.status().values().stream().filter(up -> !up).count());
+
+        pool.checkAll();
+        pool.checkAll();
+        assertTrue(broken.closed);
+        assertEquals(4, node.opened.size());
+        for (int i = 0; i < 4; i++) {
+            pool.query().currentNodeTime();
+        }
+        assertTrue(pool.status().values().stream().allMatch(up -> up));
+    }
+
+    @Test
+    public void takesBackAConnectionThatAnswersAgain() {
+        final FakeNode node = new FakeNode();
+        final RpcConnectionPool pool = new RpcConnectionPool(node.proxy(), node, 2, 1, 0, 3, 0);
+        final FakeConnection slow = node.opened.get(0);
+        slow.up = false;
+        pool.checkAll();
+        slow.up = true;
+        pool.checkAll();
+
+        assertFalse(slow.closed);
+        assertEquals(3, node.opened.size());
+        assertTrue(pool.status().values().stream().allMatch(up -> up));
+    }
+
+    @Test
+    public void closesAReplacedConnectionOnceItsCallsHaveFinished() throws Exception {
+        final FakeNode node = new FakeNode();
+        final RpcConnectionPool pool = new RpcConnectionPool(node.proxy(), node, 1, 0, 0, 1, 0);
+        final FakeConnection broken = node.opened.get(0);
+        final Thread caller = new Thread(() -> pool.query().nodeInfo());
+        caller.start();
+        assertTrue(broken.entered.await(5, TimeUnit.SECONDS));
+
+        broken.up = false;
+        pool.checkAll();
+        assertEquals(2, node.opened.size());
+        assertFalse(broken.closed);
+
+        broken.release.countDown();
+        caller.join(5000);
+        pool.checkAll();
+        assertTrue(broken.closed);
+    }
+
+    @Test
+    public void fallsBackToTheWebserverConnectionWhileTheNodeIsDown() {
+        final FakeNode node = new FakeNode();
+        final CordaRPCOps webserver = node.proxy();
+        final RpcConnectionPool pool = new RpcConnectionPool(webserver, node, 2, 1, 0, 1, 0);
+        node.down = true;
+        node.opened.forEach(connection -> connection.up = false);
+
+        pool.checkAll();
+        assertSame(webserver, pool.query());
+        assertSame(webserver, pool.flows());
+        assertFalse(pool.status().values().stream().anyMatch(up -> up));
+
+        // The next check reconnects once the node is back.
+        node.down = false;
+        pool.checkAll();
+        assertFalse(pool.query() == webserver);
+    }
+
+    @Test
+    public void singlePoolAlwaysUsesTheGivenConnection() {
+        final CordaRPCOps webserver = new FakeNode().proxy();
+        final RpcConnectionPool pool = RpcConnectionPool.single(webserver);
+        assertSame(webserver, pool.query());
+        assertSame(webserver, pool.flows());
+        assertTrue(pool.status().isEmpty());
+    }
+
+    private static class FakeNode implements RpcConnectionPool.Connector {
+        final List<FakeConnection> opened = new ArrayList<>();
+        boolean down;
+
+        @Override
+        public RpcConnectionPool.Connection connect() {
+            if (down) {
+                throw new IllegalStateException("Connection refused");
+            }
+            final FakeConnection connection = new FakeConnection();
+            opened.add(connection);
+            return connection;
+        }
+
+        CordaRPCOps proxy() {
+            return new FakeConnection().proxy;
+        }
+    }
+
+    /**
+     * A connection whose proxy only answers the health check, and only while it is up, and a long call.
+     */
+    private static class FakeConnection implements RpcConnectionPool.Connection {
+        volatile boolean up = true;
+        volatile boolean closed;
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CordaRPCOps proxy = (CordaRPCOps) Proxy.newProxyInstance(
+                CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class}, (self, method, args) -> {
+                    switch (method.getName()) {
+                        case "currentNodeTime":
+                            if (!up) {
+                                throw new IllegalStateException("Connection lost");
+                            }
+                            return Instant.now();
+                        case "nodeInfo":
+                            // A long call, held until released.
+                            entered.countDown();
+                            release.await();
+                            return null;
+                        case "equals":
+                            return self == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        @Override
+        public CordaRPCOps getProxy() {
+            return proxy;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
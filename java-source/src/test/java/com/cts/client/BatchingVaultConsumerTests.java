@@ -0,0 +1,200 @@
+package com.cts.client;
+
+import com.cts.contract.ETFundBookContract;
+import com.cts.state.ETFBookState;
+import net.corda.core.contracts.AlwaysAcceptAttachmentConstraint;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.cts.client.BatchingVaultConsumer.OverflowPolicy.BLOCK;
+import static com.cts.client.BatchingVaultConsumer.OverflowPolicy.CONFLATE;
+import static com.cts.client.BatchingVaultConsumer.OverflowPolicy.FAIL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchingVaultConsumerTests {
+    private static final Party sponsor = party("ETFSponsor", "London", "GB");
+    private static final Party ap = party("AP1", "New York", "US");
+
+    @Test
+    public void writesFullBatchesInOrderAndTheRestOnFlush() throws Exception {
+        final RecordingSink sink = new RecordingSink(false);
+        final List<StateAndRef<ETFBookState>> states = new ArrayList<>();
+        try (BatchingVaultConsumer<ETFBookState> consumer = new BatchingVaultConsumer<>(sink, BLOCK, 100, 3, 60000)) {
+            for (int i = 0; i < 7; i++) {
+                states.add(booking(new UniqueIdentifier(), i));
+                consumer.produced(states.get(i));
+            }
+            consumer.flush();
+            assertEquals(Arrays.asList(3, 3, 1), sink.batchSizes());
+            assertEquals(states, sink.states());
+        }
+    }
+
+    @Test
+    public void writesAPartBatchOnceTheOldestEventHasWaited() throws Exception {
+        final RecordingSink sink = new RecordingSink(false);
+        try (BatchingVaultConsumer<ETFBookState> consumer = new BatchingVaultConsumer<>(sink, BLOCK, 100, 100, 50)) {
+            consumer.produced(booking(new UniqueIdentifier(), 1));
+            consumer.consumed(booking(new UniqueIdentifier(), 2));
+            assertTrue(sink.written.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(2), sink.batchSizes());
+        }
+    }
+
+    @Test
+    public void conflatesWaitingEventsForTheSameLinearIdOnceTheQueueIsFull() throws Exception {
+        final RecordingSink sink = new RecordingSink(true);
+        final UniqueIdentifier fund = new UniqueIdentifier();
+        final StateAndRef<ETFBookState> first = booking(new UniqueIdentifier(), 0);
+        final StateAndRef<ETFBookState> other = booking(new UniqueIdentifier(), 10);
+        final StateAndRef<ETFBookState> latest = booking(fund, 3);
+        try (BatchingVaultConsumer<ETFBookState> consumer = new BatchingVaultConsumer<>(sink, CONFLATE, 2, 1, 0)) {
+            consumer.produced(first);
+            // The writer is now held in the sink with the first event.
+            assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+            consumer.produced(booking(fund, 1));
+            consumer.produced(other);
+            consumer.consumed(booking(fund, 1));
+            consumer.produced(latest);
+            sink.release.countDown();
+            consumer.flush();
+            // The fund keeps its place in the queue but carries its latest state.
+            assertEquals(Arrays.asList(first, latest, other), sink.states());
+            assertEquals(2, consumer.getConflated());
+        }
+    }
+
+    @Test
+    public void queuesEveryEventWhileThereIsRoom() throws Exception {
+        final RecordingSink sink = new RecordingSink(false);
+        final UniqueIdentifier fund = new UniqueIdentifier();
+        final List<StateAndRef<ETFBookState>> states = Arrays.asList(
+                booking(fund, 1), booking(new UniqueIdentifier(), 10), booking(fund, 1), booking(fund, 3));
+        try (BatchingVaultConsumer<ETFBookState> consumer = new BatchingVaultConsumer<>(sink, CONFLATE, 100, 100, 60000)) {
+            consumer.produced(states.get(0));
+            consumer.produced(states.get(1));
+            consumer.consumed(states.get(2));
+            consumer.produced(states.get(3));
+            consumer.flush();
+            assertEquals(states, sink.states());
+            assertEquals(0, consumer.getConflated());
+        }
+    }
+
+    @Test
+    public void failsWhenTheQueueIsFull() throws Exception {
+        final RecordingSink sink = new RecordingSink(true);
+        final BatchingVaultConsumer<ETFBookState> consumer = new BatchingVaultConsumer<>(sink, FAIL, 2, 1, 0);
+        consumer.produced(booking(new UniqueIdentifier(), 1));
+        // The writer is now held in the sink with the first event.
+        assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+        consumer.produced(booking(new UniqueIdentifier(), 2));
+        consumer.produced(booking(new UniqueIdentifier(), 3));
+        try {
+            consumer.produced(booking(new UniqueIdentifier(), 4));
+            fail("Expected the queue to overflow");
+        } catch (IOException expected) {
+        }
+        sink.release.countDown();
+        try {
+            consumer.close();
+            fail("Expected close to report the overflow");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void blocksWhenTheQueueIsFullUntilTheSinkCatchesUp() throws Exception {
+        final RecordingSink sink = new RecordingSink(true);
+        final List<StateAndRef<ETFBookState>> states = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            states.add(booking(new UniqueIdentifier(), i));
+        }
+        try (BatchingVaultConsumer<ETFBookState> consumer = new BatchingVaultConsumer<>(sink, BLOCK, 1, 1, 0)) {
+            consumer.produced(states.get(0));
+            assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+            consumer.produced(states.get(1));
+            final Thread producer = new Thread(() -> {
+                try {
+                    consumer.produced(states.get(2));
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            producer.start();
+            producer.join(200);
+            assertTrue(producer.isAlive());
+
+            sink.release.countDown();
+            producer.join(5000);
+            consumer.flush();
+            assertEquals(states, sink.states());
+        }
+    }
+
+    /**
+     * Keeps the batches written. A held sink waits for [release] before writing, so tests can hold the writer in it.
+     */
+    private static class RecordingSink implements VaultEventSink<ETFBookState> {
+        final List<List<VaultEvent<ETFBookState>>> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release;
+        final CountDownLatch written = new CountDownLatch(1);
+
+        RecordingSink(boolean held) {
+            release = new CountDownLatch(held ? 1 : 0);
+        }
+
+        @Override
+        public void write(List<VaultEvent<ETFBookState>> batch) throws IOException {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            batches.add(new ArrayList<>(batch));
+            written.countDown();
+        }
+
+        @Override
+        public void close() { }
+
+        List<Integer> batchSizes() {
+            return batches.stream().map(List::size).collect(Collectors.toList());
+        }
+
+        List<StateAndRef<ETFBookState>> states() {
+            return batches.stream().flatMap(List::stream).map(VaultEvent::getState).collect(Collectors.toList());
+        }
+    }
+
+    private static StateAndRef<ETFBookState> booking(UniqueIdentifier linearId, int value) {
+        return new StateAndRef<>(
+                new TransactionState<>(new ETFBookState(value, sponsor, ap, linearId),
+                        ETFundBookContract.class.getName(), sponsor, null, AlwaysAcceptAttachmentConstraint.INSTANCE),
+                new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    private static Party party(String organisation, String locality, String country) {
+        return new Party(new CordaX500Name(organisation, locality, country), Crypto.generateKeyPair().getPublic());
+    }
+}
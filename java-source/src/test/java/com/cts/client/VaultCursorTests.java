@@ -0,0 +1,67 @@
+package com.cts.client;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VaultCursorTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Instant t1 = Instant.parse("2017-09-01T10:00:00Z");
+    private static final Instant t2 = Instant.parse("2017-09-01T10:00:01Z");
+
+    @Test
+    public void tracksStatesSharingTheLatestTime() {
+        final VaultCursor cursor = new VaultCursor();
+        final StateRef a = ref();
+        final StateRef b = ref();
+        final StateRef c = ref();
+        assertFalse(cursor.getRecorded().contains(t1, a));
+
+        cursor.getRecorded().advance(t1, a);
+        cursor.getRecorded().advance(t2, b);
+        assertTrue(cursor.getRecorded().contains(t1, c));
+        assertTrue(cursor.getRecorded().contains(t2, b));
+        assertFalse(cursor.getRecorded().contains(t2, c));
+
+        // An earlier time leaves the position where it is.
+        cursor.getRecorded().advance(t1, c);
+        assertEquals(t2, cursor.getRecorded().getTime());
+        assertFalse(cursor.getRecorded().contains(t2, c));
+    }
+
+    @Test
+    public void survivesSaveAndLoad() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("cursor");
+        final VaultCursor cursor = VaultCursor.load(file);
+        assertNull(cursor.getRecorded().getTime());
+
+        final StateRef a = ref();
+        final StateRef b = ref();
+        cursor.getRecorded().advance(t2, a);
+        cursor.getRecorded().advance(t2, b);
+        cursor.save(file);
+
+        final VaultCursor loaded = VaultCursor.load(file);
+        assertEquals(t2, loaded.getRecorded().getTime());
+        assertTrue(loaded.getRecorded().contains(t2, a));
+        assertTrue(loaded.getRecorded().contains(t2, b));
+        assertFalse(loaded.getRecorded().contains(t2, ref()));
+        assertNull(loaded.getConsumed().getTime());
+    }
+
+    private static StateRef ref() {
+        return new StateRef(SecureHash.randomSHA256(), 1);
+    }
+}
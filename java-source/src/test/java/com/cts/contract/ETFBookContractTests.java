@@ -1,8 +1,12 @@
 package com.cts.contract;
 
 import com.cts.state.ETFBookState;
+import com.cts.state.ETFund;
+import com.cts.state.ETFundState;
+import com.cts.state.ETFundStateStatus;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.Party;
 import org.junit.After;
 import org.junit.Before;
@@ -10,18 +14,24 @@ import org.junit.Test;
 
 import java.security.PublicKey;
 
-import static com.example.contract.IOUContract.IOU_CONTRACT_ID;
+import static com.cts.contract.ETFundBookContract.ETF_CONTRACT_ID;
 import static net.corda.testing.CoreTestUtils.*;
 import static net.corda.testing.NodeTestUtils.ledger;
 
+/**
+ * Covers the rules [ETFundBookContract] applies to a booking made with the exercise of an ETF, and to its commands.
+ * The fund states are governed by a compaction contract that accepts everything, so only the booking rules apply.
+ */
 public class ETFBookContractTests {
     static private final Party miniCorp = getMINI_CORP();
     static private final Party megaCorp = getMEGA_CORP();
-    static private final PublicKey[] keys = Iterables.toArray(ImmutableList.of(getMEGA_CORP_PUBKEY(), getMINI_CORP_PUBKEY()), PublicKey.class);
+    static private final PublicKey[] keys = Iterables.toArray(
+            ImmutableList.of(getMEGA_CORP_PUBKEY(), getMINI_CORP_PUBKEY()), PublicKey.class);
+    static private final String FUND_CONTRACT_ID = ETFundCompactionContractTests.PermissiveContract.class.getName();
 
     @Before
     public void setup() {
-        setCordappPackages("com.example.contract");
+        setCordappPackages("com.cts.contract");
     }
 
     @After
@@ -30,13 +40,14 @@ public class ETFBookContractTests {
     }
 
     @Test
-    public void transactionMustIncludeCreateCommand() {
-        Integer iou = 1;
+    public void exercisedBookingMatchesTheExercise() {
         ledger(ledgerDSL -> {
             ledgerDSL.transaction(txDSL -> {
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, miniCorp, megaCorp));
-                txDSL.fails();
-                txDSL.command(keys, IOUContract.Commands.Create::new);
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
                 txDSL.verifies();
                 return null;
             });
@@ -45,14 +56,14 @@ public class ETFBookContractTests {
     }
 
     @Test
-    public void transactionMustHaveNoInputs() {
-        Integer iou = 1;
+    public void exercisedBookingRequiresABookingCommand() {
         ledger(ledgerDSL -> {
             ledgerDSL.transaction(txDSL -> {
-                txDSL.input(IOU_CONTRACT_ID, new IOUState(iou, miniCorp, megaCorp));
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, miniCorp, megaCorp));
-                txDSL.command(keys, IOUContract.Commands.Create::new);
-                txDSL.failsWith("No inputs should be consumed when issuing an IOU.");
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.failsWith("An exercised booking requires a Booking command.");
                 return null;
             });
             return null;
@@ -60,14 +71,16 @@ public class ETFBookContractTests {
     }
 
     @Test
-    public void transactionMustHaveOneOutput() {
-        Integer iou = 1;
+    public void exercisedBookingMustConsumeOneFund() {
         ledger(ledgerDSL -> {
             ledgerDSL.transaction(txDSL -> {
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, miniCorp, megaCorp));
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, miniCorp, megaCorp));
-                txDSL.command(keys, IOUContract.Commands.Create::new);
-                txDSL.failsWith("Only one output state should be created.");
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-2", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("An exercised booking consumes one ETF state.");
                 return null;
             });
             return null;
@@ -75,15 +88,14 @@ public class ETFBookContractTests {
     }
 
     @Test
-    public void lenderMustSignTransaction() {
-        Integer iou = 1;
+    public void exercisedBookingMustProduceOneFund() {
         ledger(ledgerDSL -> {
             ledgerDSL.transaction(txDSL -> {
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, miniCorp, megaCorp));
-                PublicKey[] keys = new PublicKey[1];
-                keys[0] = getMINI_CORP_PUBKEY();
-                txDSL.command(keys, IOUContract.Commands.Create::new);
-                txDSL.failsWith("All of the participants must be signers.");
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("An exercised booking produces one ETF state.");
                 return null;
             });
             return null;
@@ -91,15 +103,16 @@ public class ETFBookContractTests {
     }
 
     @Test
-    public void borrowerMustSignTransaction() {
-        Integer iou = 1;
+    public void exercisedBookingMustProduceOneBooking() {
         ledger(ledgerDSL -> {
             ledgerDSL.transaction(txDSL -> {
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, miniCorp, megaCorp));
-                PublicKey[] keys = new PublicKey[1];
-                keys[0] = getMEGA_CORP_PUBKEY();
-                txDSL.command(keys, IOUContract.Commands.Create::new);
-                txDSL.failsWith("All of the participants must be signers.");
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("An exercised booking produces one booking.");
                 return null;
             });
             return null;
@@ -107,15 +120,15 @@ public class ETFBookContractTests {
     }
 
     @Test
-    public void lenderIsNotBorrower() {
-        Integer iou = 1;
+    public void bookingMustReferenceTheExercisedFund() {
         ledger(ledgerDSL -> {
             ledgerDSL.transaction(txDSL -> {
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, megaCorp, megaCorp));
-                PublicKey[] keys = new PublicKey[1];
-                keys[0] = getMEGA_CORP_PUBKEY();
-                txDSL.command(keys, IOUContract.Commands.Create::new);
-                txDSL.failsWith("The lender and the borrower cannot be the same entity.");
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-2", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("The booking must reference the exercised ETF.");
                 return null;
             });
             return null;
@@ -123,16 +136,104 @@ public class ETFBookContractTests {
     }
 
     @Test
-    public void cannotCreateNegativeValueIOUs() {
-        Integer iou = -1;
+    public void bookingMustBeBetweenTheSellerAndTheBuyer() {
         ledger(ledgerDSL -> {
             ledgerDSL.transaction(txDSL -> {
-                txDSL.output(IOU_CONTRACT_ID, () -> new IOUState(iou, miniCorp, megaCorp));
-                txDSL.command(keys, IOUContract.Commands.Create::new);
-                txDSL.failsWith("The IOU's value must be non-negative.");
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", megaCorp, miniCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("The booking must be between the seller and the buyer of the ETF.");
                 return null;
             });
             return null;
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void bookedValueMustEqualTheExposureDrawnDown() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(99, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("The booked value must equal the exposure drawn down.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transactionMustHaveASingleBookingCommand() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(FUND_CONTRACT_ID, fund("ETF-1", 1000f));
+                txDSL.output(FUND_CONTRACT_ID, () -> fund("ETF-1", 900f));
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundContract.Commands.Exercise::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("There must be a single Booking command.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transactionMustHaveASingleSettlementCommand() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundBookContract.Commands.Settlement::new);
+                txDSL.command(keys, ETFundBookContract.Commands.Settlement::new);
+                txDSL.failsWith("There must be a single Settlement command.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void bookingCommandMustMatchATrade() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith("The Booking command must match a trade.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void settlementCommandMustMatchATrade() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(ETF_CONTRACT_ID, () -> booking(100, "ETF-1", miniCorp, megaCorp));
+                txDSL.command(keys, ETFundBookContract.Commands.Settlement::new);
+                txDSL.failsWith("The Settlement command must match a trade.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    private static ETFundState fund(String referenceId, float maxExposure) {
+        final ETFund etfund = new ETFund();
+        etfund.setReferenceId(referenceId);
+        etfund.setBuyer(megaCorp.getName().getOrganisation());
+        etfund.setSeller(miniCorp.getName().getOrganisation());
+        etfund.setMaxExposure(maxExposure);
+        return new ETFundState(etfund, megaCorp, miniCorp, ETFundStateStatus.INCEPTION, new ETFundCompactionContract());
+    }
+
+    private static ETFBookState booking(int value, String referenceId, Party lender, Party borrower) {
+        return new ETFBookState(value, lender, borrower, new UniqueIdentifier(referenceId));
+    }
+}
@@ -0,0 +1,348 @@
+package com.cts.contract;
+
+import com.cts.state.ETFBookState;
+import com.cts.state.ETFund;
+import com.cts.state.ETFundState;
+import com.cts.state.ETFundStateStatus;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import net.corda.core.contracts.Contract;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.PublicKey;
+
+import static com.cts.contract.ETFundBookContract.ETF_CONTRACT_ID;
+import static com.cts.contract.ETFundCompactionContract.COMPACTION_CONTRACT_ID;
+import static net.corda.testing.CoreTestUtils.*;
+import static net.corda.testing.NodeTestUtils.ledger;
+
+public class ETFundCompactionContractTests {
+    static private final Party miniCorp = getMINI_CORP();
+    static private final Party megaCorp = getMEGA_CORP();
+    static private final PublicKey[] keys = Iterables.toArray(
+            ImmutableList.of(getMEGA_CORP_PUBKEY(), getMINI_CORP_PUBKEY()), PublicKey.class);
+    static private final String DELEGATING_CONTRACT_ID = DelegatingContract.class.getName();
+    static private final String PERMISSIVE_CONTRACT_ID = PermissiveContract.class.getName();
+
+    @Before
+    public void setup() {
+        setCordappPackages("com.cts.contract");
+    }
+
+    @After
+    public void tearDown() {
+        unsetCordappPackages();
+    }
+
+    @Test
+    public void exitConsumesTheFund() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.verifies();
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void exitMustConsumeASingleFund() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-2"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.failsWith("An exit consumes one ETF state.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void exitMustConsumeNothingElse() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                txDSL.input(ETF_CONTRACT_ID, new ETFBookState(1, megaCorp, miniCorp));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.failsWith("An exit consumes nothing but the ETF state.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void exitMustProduceNoFund() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                txDSL.output(COMPACTION_CONTRACT_ID, () -> fund("ETF-1"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.failsWith("An exit produces no ETF state.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void exitMustNameTheExitedFund() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-2"));
+                txDSL.failsWith("The exit must name the exited ETF.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void everyParticipantMustSignTheExit() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                PublicKey[] keys = new PublicKey[1];
+                keys[0] = getMINI_CORP_PUBKEY();
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.failsWith("All of the participants must sign the exit.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void reissueProducesTheFund() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(COMPACTION_CONTRACT_ID, () -> fund("ETF-1"));
+                txDSL.command(keys, () -> reissue("ETF-1"));
+                txDSL.verifies();
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void reissueMustHaveNoInputs() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                txDSL.output(COMPACTION_CONTRACT_ID, () -> fund("ETF-1"));
+                txDSL.command(keys, () -> reissue("ETF-1"));
+                txDSL.failsWith("A reissue consumes no states.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void reissueMustProduceNothingElse() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(COMPACTION_CONTRACT_ID, () -> fund("ETF-1"));
+                txDSL.output(ETF_CONTRACT_ID, () -> new ETFBookState(1, megaCorp, miniCorp));
+                txDSL.command(keys, () -> reissue("ETF-1"));
+                txDSL.failsWith("A reissue produces nothing but the ETF state.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void reissueMustNameTheExitTransaction() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(COMPACTION_CONTRACT_ID, () -> fund("ETF-1"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Reissue("ETF-1", null));
+                txDSL.failsWith("A reissue must name the exit transaction.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void reissueMustNameTheReissuedFund() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(COMPACTION_CONTRACT_ID, () -> fund("ETF-1"));
+                txDSL.command(keys, () -> reissue("ETF-2"));
+                txDSL.failsWith("The reissue must name the reissued ETF.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void everyParticipantMustSignTheReissue() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(COMPACTION_CONTRACT_ID, () -> fund("ETF-1"));
+                PublicKey[] keys = new PublicKey[1];
+                keys[0] = getMEGA_CORP_PUBKEY();
+                txDSL.command(keys, () -> reissue("ETF-1"));
+                txDSL.failsWith("All of the participants must sign the reissue.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transactionMustHaveASingleCompactionCommand() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(COMPACTION_CONTRACT_ID, fund("ETF-1"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.failsWith("There must be a single compaction command.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void otherTransactionsAreVerifiedByTheFundContract() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.output(DELEGATING_CONTRACT_ID, () -> fund("ETF-1"));
+                txDSL.command(keys, ETFundBookContract.Commands.Booking::new);
+                txDSL.failsWith(DelegatingContract.DELEGATED);
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void compactionTransactionsAreNotVerifiedByTheFundContract() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(DELEGATING_CONTRACT_ID, fund("ETF-1"));
+                txDSL.command(keys, () -> new ETFundCompactionContract.Commands.Exit("ETF-1"));
+                txDSL.verifies();
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void exerciseMustBeAtTheSignedRate() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(PERMISSIVE_CONTRACT_ID, fund("ETF-1"));
+                txDSL.output(PERMISSIVE_CONTRACT_ID, () -> exercised("ETF-1", 1.5f));
+                txDSL.command(keys, () -> new ETFRateCommand("ETF-1", 1.25f));
+                txDSL.failsWith("The exercised rate must equal the signed rate.");
+                return null;
+            });
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(PERMISSIVE_CONTRACT_ID, fund("ETF-1"));
+                txDSL.output(PERMISSIVE_CONTRACT_ID, () -> exercised("ETF-1", 1.25f));
+                txDSL.command(keys, () -> new ETFRateCommand("ETF-1", 1.25f));
+                txDSL.verifies();
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void everyExercisedFundMustHaveARateCommand() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(PERMISSIVE_CONTRACT_ID, fund("ETF-1"));
+                txDSL.input(PERMISSIVE_CONTRACT_ID, fund("ETF-2"));
+                txDSL.output(PERMISSIVE_CONTRACT_ID, () -> exercised("ETF-1", 1.25f));
+                txDSL.output(PERMISSIVE_CONTRACT_ID, () -> exercised("ETF-2", 1.25f));
+                txDSL.command(keys, () -> new ETFRateCommand("ETF-1", 1.25f));
+                txDSL.failsWith("Every exercised ETF must have a rate command.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void exerciseMustHaveASingleRateCommandPerFund() {
+        ledger(ledgerDSL -> {
+            ledgerDSL.transaction(txDSL -> {
+                txDSL.input(PERMISSIVE_CONTRACT_ID, fund("ETF-1"));
+                txDSL.output(PERMISSIVE_CONTRACT_ID, () -> exercised("ETF-1", 1.25f));
+                txDSL.command(keys, () -> new ETFRateCommand("ETF-1", 1.25f));
+                txDSL.command(keys, () -> new ETFRateCommand("ETF-1", 1.5f));
+                txDSL.failsWith("There must be a single rate command per ETF.");
+                return null;
+            });
+            return null;
+        });
+    }
+
+    private static ETFundState fund(String referenceId) {
+        final ETFund etfund = new ETFund();
+        etfund.setReferenceId(referenceId);
+        etfund.setBuyer(megaCorp.getName().getOrganisation());
+        etfund.setSeller(miniCorp.getName().getOrganisation());
+        etfund.setMaxExposure(1_000_000f);
+        return new ETFundState(etfund, megaCorp, miniCorp, ETFundStateStatus.INCEPTION, new ETFundCompactionContract());
+    }
+
+    private static ETFundCompactionContract.Commands.Reissue reissue(String referenceId) {
+        return new ETFundCompactionContract.Commands.Reissue(referenceId, SecureHash.randomSHA256());
+    }
+
+    private static ETFundState exercised(String referenceId, float etfRate) {
+        final ETFundState state = fund(referenceId);
+        state.setEtfRate(etfRate);
+        state.setStatus(ETFundStateStatus.EXERCISING);
+        return state;
+    }
+
+    /**
+     * The compaction contract over a fund contract that rejects every transaction it is handed, so the tests can tell
+     * which transactions are delegated.
+     */
+    public static class DelegatingContract extends ETFundCompactionContract {
+        static final String DELEGATED = "Delegated to the fund contract.";
+
+        public DelegatingContract() {
+            super(new Contract() {
+                @Override
+                public void verify(LedgerTransaction tx) {
+                    throw new IllegalArgumentException(DELEGATED);
+                }
+            });
+        }
+    }
+
+    /**
+     * The compaction contract over a fund contract that accepts every transaction, so the tests see only its own rules.
+     */
+    public static class PermissiveContract extends ETFundCompactionContract {
+        public PermissiveContract() {
+            super(new Contract() {
+                @Override
+                public void verify(LedgerTransaction tx) {
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.cts.schema;
+
+import com.cts.contract.ETFundBookContract;
+import com.cts.state.ETFBookState;
+import net.corda.core.contracts.AlwaysAcceptAttachmentConstraint;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A vault of booking states in memory that answers the queries a [KeysetPager] makes: a status, a time range and
+ * the (time, state ref) order. Runs [afterQuery] after each query so tests can change the vault while paging.
+ */
+public class InMemoryVault implements KeysetPager.Query<ETFBookState> {
+    private static final Party sponsor = new Party(new CordaX500Name("ETFSponsor", "London", "GB"), Crypto.generateKeyPair().getPublic());
+    private static final Party ap = new Party(new CordaX500Name("AP1", "New York", "US"), Crypto.generateKeyPair().getPublic());
+
+    private final List<Entry> entries = new ArrayList<>();
+    public Runnable afterQuery = () -> { };
+    public int queries;
+
+    private static final class Entry {
+        final StateAndRef<ETFBookState> state;
+        final Instant recorded;
+        Instant consumed;
+
+        Entry(StateAndRef<ETFBookState> state, Instant recorded) {
+            this.state = state;
+            this.recorded = recorded;
+        }
+    }
+
+    /**
+     * Records a new booking state at the given time and returns it.
+     */
+    public StateAndRef<ETFBookState> record(Instant time) {
+        final StateAndRef<ETFBookState> state = new StateAndRef<>(
+                new TransactionState<>(new ETFBookState(entries.size(), sponsor, ap, new UniqueIdentifier()),
+                        ETFundBookContract.class.getName(), sponsor, null, AlwaysAcceptAttachmentConstraint.INSTANCE),
+                new StateRef(SecureHash.randomSHA256(), 0));
+        entries.add(new Entry(state, time));
+        return state;
+    }
+
+    public void consume(StateRef ref, Instant time) {
+        for (Entry entry : entries) {
+            if (entry.state.getRef().equals(ref)) {
+                entry.consumed = time;
+            }
+        }
+    }
+
+    @Override
+    public Vault.Page<ETFBookState> query(QueryCriteria criteria, PageSpecification paging, Sort sorting) {
+        queries++;
+        final QueryCriteria.VaultQueryCriteria vaultCriteria = (QueryCriteria.VaultQueryCriteria) criteria;
+        final boolean consumedSide = vaultCriteria.getTimeCondition().getType() == QueryCriteria.TimeInstantType.CONSUMED;
+        final ColumnPredicate<?> range = vaultCriteria.getTimeCondition().getPredicate();
+        final List<Entry> matching = entries.stream()
+                .filter(entry -> matches(vaultCriteria.getStatus(), entry))
+                .filter(entry -> {
+                    final Instant time = consumedSide ? entry.consumed : entry.recorded;
+                    return time != null && inRange(range, time);
+                })
+                .sorted(Comparator.<Entry, Instant>comparing(entry -> consumedSide ? entry.consumed : entry.recorded)
+                        .thenComparing(entry -> entry.state.getRef().getTxhash().toString())
+                        .thenComparing(entry -> entry.state.getRef().getIndex()))
+                .skip((long) (paging.getPageNumber() - 1) * paging.getPageSize())
+                .limit(paging.getPageSize())
+                .collect(Collectors.toList());
+        final Vault.Page<ETFBookState> page = new Vault.Page<>(
+                matching.stream().map(entry -> entry.state).collect(Collectors.toList()),
+                matching.stream().map(entry -> new Vault.StateMetadata(entry.state.getRef(), ETFBookState.class.getName(),
+                        entry.recorded, entry.consumed,
+                        entry.consumed == null ? Vault.StateStatus.UNCONSUMED : Vault.StateStatus.CONSUMED,
+                        sponsor, null, null)).collect(Collectors.toList()),
+                matching.size(), vaultCriteria.getStatus(), new ArrayList<>());
+        afterQuery.run();
+        return page;
+    }
+
+    private static boolean matches(Vault.StateStatus status, Entry entry) {
+        switch (status) {
+            case UNCONSUMED:
+                return entry.consumed == null;
+            case CONSUMED:
+                return entry.consumed != null;
+            default:
+                return true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean inRange(ColumnPredicate<?> range, Instant time) {
+        if (range instanceof ColumnPredicate.Between) {
+            final ColumnPredicate.Between<Instant> between = (ColumnPredicate.Between<Instant>) range;
+            return !time.isBefore(between.getRightFromLiteral()) && !time.isAfter(between.getRightToLiteral());
+        }
+        final ColumnPredicate.BinaryComparison<Instant> comparison = (ColumnPredicate.BinaryComparison<Instant>) range;
+        if (comparison.getOperator() != BinaryComparisonOperator.LESS_THAN_OR_EQUAL) {
+            throw new UnsupportedOperationException(comparison.getOperator().toString());
+        }
+        return !time.isAfter(comparison.getRightLiteral());
+    }
+}
@@ -0,0 +1,86 @@
+package com.cts.schema;
+
+import com.cts.state.ETFBookState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.Vault;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeysetPagerTests {
+    private static final Instant t0 = Instant.parse("2017-09-01T10:00:00Z");
+
+    @Test
+    public void returnsEveryStateOnceAcrossStatesSharingATime() {
+        final InMemoryVault vault = new InMemoryVault();
+        final List<StateAndRef<ETFBookState>> recorded = new ArrayList<>();
+        // Seven states at one time, so pages of three end in the middle of them.
+        for (int i = 0; i < 7; i++) {
+            recorded.add(vault.record(t0));
+        }
+        recorded.add(vault.record(t0.plusSeconds(1)));
+
+        final List<StateAndRef<ETFBookState>> paged = readAll(
+                new KeysetPager<>(vault, Vault.StateStatus.ALL, null, t0.plusSeconds(10), 3));
+        assertEquals(recorded.size(), paged.size());
+        assertTrue(paged.containsAll(recorded));
+    }
+
+    @Test
+    public void statesConsumedWhilePagingDoNotShiftTheLaterPages() {
+        final InMemoryVault vault = new InMemoryVault();
+        final List<StateAndRef<ETFBookState>> recorded = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            recorded.add(vault.record(t0.plusSeconds(i)));
+        }
+        // Each query consumes the first state, which by then has already been read.
+        vault.afterQuery = () -> vault.consume(recorded.get(0).getRef(), t0.plusSeconds(20));
+
+        final List<StateAndRef<ETFBookState>> paged = readAll(
+                new KeysetPager<>(vault, Vault.StateStatus.UNCONSUMED, null, t0.plusSeconds(10), 2));
+        assertEquals(recorded, paged);
+    }
+
+    @Test
+    public void statesRecordedAfterTheEndOfTheRangeAreNotRead() {
+        final InMemoryVault vault = new InMemoryVault();
+        final StateAndRef<ETFBookState> before = vault.record(t0);
+        vault.record(t0.plusSeconds(5));
+
+        final KeysetPager<ETFBookState> pager = new KeysetPager<>(vault, Vault.StateStatus.UNCONSUMED, null, t0.plusSeconds(1), 10);
+        final List<StateAndRef<ETFBookState>> states = pager.next().getStates();
+        assertEquals(1, states.size());
+        assertEquals(before, states.get(0));
+        assertFalse(pager.hasNext());
+    }
+
+    @Test
+    public void pagesConsumedStatesByTheirConsumedTime() {
+        final InMemoryVault vault = new InMemoryVault();
+        final StateAndRef<ETFBookState> first = vault.record(t0);
+        final StateAndRef<ETFBookState> second = vault.record(t0.plusSeconds(1));
+        vault.record(t0.plusSeconds(2));
+        vault.consume(second.getRef(), t0.plusSeconds(3));
+        vault.consume(first.getRef(), t0.plusSeconds(4));
+
+        final List<StateAndRef<ETFBookState>> paged = readAll(
+                new KeysetPager<>(vault, Vault.StateStatus.CONSUMED, t0.plusSeconds(3), t0.plusSeconds(10), 1));
+        assertEquals(2, paged.size());
+        assertEquals(second, paged.get(0));
+        assertEquals(first, paged.get(1));
+    }
+
+    private static List<StateAndRef<ETFBookState>> readAll(KeysetPager<ETFBookState> pager) {
+        final List<StateAndRef<ETFBookState>> states = new ArrayList<>();
+        while (pager.hasNext()) {
+            states.addAll(pager.next().getStates());
+        }
+        return states;
+    }
+}
@@ -0,0 +1,64 @@
+package com.cts.service;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.utilities.ProgressTracker;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ETFFlowMetricsTests {
+    private static class TestFlow extends FlowLogic<Void> {
+        private static final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing.");
+        private static final ProgressTracker.Step SENDING_TRANSACTION = new ProgressTracker.Step("Sending.");
+
+        @Override
+        public Void call() {
+            return null;
+        }
+    }
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500_000);          // 0.5ms
+        histogram.record(3_000_000);        // 3ms
+        histogram.record(120_000_000_000L); // above the last bound
+        histogram.record(-1);               // ignored
+        assertEquals(3, histogram.count());
+
+        final StringBuilder out = new StringBuilder();
+        histogram.writeTo(out, "latency", "flow=\"f\"");
+        final String text = out.toString();
+        assertTrue(text, text.contains("latency_bucket{flow=\"f\",le=\"0.001\"} 1\n"));
+        assertTrue(text, text.contains("latency_bucket{flow=\"f\",le=\"0.005\"} 2\n"));
+        assertTrue(text, text.contains("latency_bucket{flow=\"f\",le=\"60.0\"} 2\n"));
+        assertTrue(text, text.contains("latency_bucket{flow=\"f\",le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("latency_count{flow=\"f\"} 3\n"));
+    }
+
+    @Test
+    public void timerRecordsStepsAndOutcome() {
+        final ETFFlowMetrics metrics = new ETFFlowMetrics(null);
+        final ProgressTracker progressTracker = new ProgressTracker(TestFlow.SIGNING_TRANSACTION, TestFlow.SENDING_TRANSACTION);
+
+        final ETFFlowMetrics.FlowTimer completed = metrics.start(TestFlow.class, UUID.randomUUID(), progressTracker);
+        completed.step(TestFlow.SIGNING_TRANSACTION);
+        completed.record("signatures", 1_000_000);
+        completed.step(TestFlow.SENDING_TRANSACTION);
+        completed.completed();
+        metrics.start(TestFlow.class, UUID.randomUUID(), new ProgressTracker(TestFlow.SIGNING_TRANSACTION)).failed();
+
+        final String text = metrics.render();
+        final String flow = "ETFFlowMetricsTests.TestFlow";
+        assertTrue(text, text.contains("etf_flows_started_total{flow=\"" + flow + "\"} 2\n"));
+        assertTrue(text, text.contains("etf_flows_completed_total{flow=\"" + flow + "\"} 1\n"));
+        assertTrue(text, text.contains("etf_flows_failed_total{flow=\"" + flow + "\"} 1\n"));
+        assertTrue(text, text.contains("etf_flow_step_duration_seconds_count{flow=\"" + flow + "\",step=\"SIGNING_TRANSACTION\"} 1\n"));
+        assertTrue(text, text.contains("etf_flow_step_duration_seconds_count{flow=\"" + flow + "\",step=\"SENDING_TRANSACTION\"} 1\n"));
+        assertTrue(text, text.contains("etf_flow_step_duration_seconds_count{flow=\"" + flow + "\",step=\"SIGNING_TRANSACTION.signatures\"} 1\n"));
+        assertTrue(text, text.contains("etf_flow_duration_seconds_count{flow=\"" + flow + "\"} 2\n"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.cts.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ETFPriceSourceTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsRatesAndSkipsInvalidRows() throws Exception {
+        final Path file = folder.newFile("rates.csv").toPath();
+        Files.write(file, "refId,etfRate\nETF-1,1.25\nETF-2,abc\nETF-3,0.5\n".getBytes(StandardCharsets.UTF_8));
+        final ETFPriceSource prices = new ETFPriceSource(file);
+        assertEquals(1.25f, prices.rate("ETF-1"), 0);
+        assertEquals(0.5f, prices.rate("ETF-3"), 0);
+        assertNull(prices.rate("ETF-2"));
+        assertNull(prices.rate("ETF-4"));
+    }
+
+    @Test
+    public void reloadsWhenTheFileChanges() throws Exception {
+        final Path file = folder.newFile("rates.csv").toPath();
+        Files.write(file, "ETF-1,1.25\n".getBytes(StandardCharsets.UTF_8));
+        final ETFPriceSource prices = new ETFPriceSource(file);
+        assertEquals(1.25f, prices.rate("ETF-1"), 0);
+
+        Files.write(file, "ETF-1,1.5\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10_000));
+        Thread.sleep(ETFPriceSource.RELOAD_CHECK_MILLIS + 100);
+        assertEquals(1.5f, prices.rate("ETF-1"), 0);
+    }
+
+    @Test
+    public void hasNoRatesWithoutAFile() {
+        assertNull(new ETFPriceSource(null).rate("ETF-1"));
+    }
+}
@@ -0,0 +1,135 @@
+package com.cts.service;
+
+import com.cts.contract.ETFRateCommand;
+import com.cts.contract.ETFundBookContract;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.PrivacySalt;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.transactions.FilteredTransaction;
+import net.corda.core.transactions.WireTransaction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static net.corda.testing.CoreTestUtils.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ETFRateOracleTests {
+    static private final PublicKey oracleKey = getMINI_CORP_PUBKEY();
+    static private final PublicKey otherKey = getMEGA_CORP_PUBKEY();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<SecureHash> signed = new ArrayList<>();
+
+    @Test
+    public void signsTransactionsRevealingOnlyCurrentRates() throws Exception {
+        final ETFRateOracle oracle = oracle("ETF-1,1.25\nETF-2,0.5\n");
+        final FilteredTransaction first = filter(transaction(rate("ETF-1", 1.25f, oracleKey), booking()),
+                this::isOraclesRate);
+        final FilteredTransaction second = filter(transaction(rate("ETF-2", 0.5f, oracleKey)), this::isOraclesRate);
+
+        assertEquals(2, oracle.sign(ImmutableList.of(first, second)).size());
+        assertEquals(ImmutableList.of(first.getId(), second.getId()), signed);
+    }
+
+    @Test
+    public void rejectsAStaleRate() throws Exception {
+        final ETFRateOracle oracle = oracle("ETF-1,1.5\n");
+        assertRejected(oracle, filter(transaction(rate("ETF-1", 1.25f, oracleKey)), this::isOraclesRate));
+    }
+
+    @Test
+    public void rejectsAFundItHasNoRateFor() throws Exception {
+        final ETFRateOracle oracle = oracle("ETF-1,1.25\n");
+        assertRejected(oracle, filter(transaction(rate("ETF-2", 1.25f, oracleKey)), this::isOraclesRate));
+    }
+
+    @Test
+    public void rejectsAForeignCommand() throws Exception {
+        final ETFRateOracle oracle = oracle("ETF-1,1.25\n");
+        assertRejected(oracle, filter(transaction(rate("ETF-1", 1.25f, oracleKey), booking()),
+                element -> element instanceof Command));
+    }
+
+    @Test
+    public void rejectsARateCommandItIsNotASignerOf() throws Exception {
+        final ETFRateOracle oracle = oracle("ETF-1,1.25\n");
+        assertRejected(oracle, filter(transaction(rate("ETF-1", 1.25f, otherKey)),
+                element -> element instanceof Command));
+    }
+
+    @Test
+    public void rejectsATransactionRevealingMoreThanCommands() throws Exception {
+        final ETFRateOracle oracle = oracle("ETF-1,1.25\n");
+        assertRejected(oracle, filter(transaction(rate("ETF-1", 1.25f, oracleKey)),
+                element -> isOraclesRate(element) || element.equals(getMEGA_CORP())));
+    }
+
+    @Test
+    public void rejectsATransactionRevealingNoRates() throws Exception {
+        final ETFRateOracle oracle = oracle("ETF-1,1.25\n");
+        assertRejected(oracle, filter(transaction(rate("ETF-1", 1.25f, oracleKey)), element -> false));
+    }
+
+    private ETFRateOracle oracle(String rates) throws Exception {
+        final Path file = folder.newFile("rates.csv").toPath();
+        Files.write(file, rates.getBytes(StandardCharsets.UTF_8));
+        return new ETFRateOracle(oracleKey, new ETFPriceSource(file), (ftx, key) -> {
+            assertEquals(oracleKey, key);
+            signed.add(ftx.getId());
+            return null;
+        });
+    }
+
+    private void assertRejected(ETFRateOracle oracle, FilteredTransaction ftx) {
+        try {
+            oracle.sign(ImmutableList.of(ftx));
+            fail("Expected the oracle to refuse to sign");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(ftx.getId().toString()));
+        }
+        assertTrue(signed.isEmpty());
+    }
+
+    /**
+     * What [com.cts.flow.ETFRateOracleFlow.Sign] reveals to the oracle.
+     */
+    private boolean isOraclesRate(Object element) {
+        return element instanceof Command
+                && ((Command<?>) element).getValue() instanceof ETFRateCommand
+                && ((Command<?>) element).getSigners().contains(oracleKey);
+    }
+
+    private static Command<CommandData> rate(String referenceId, float etfRate, PublicKey signer) {
+        return new Command<>(new ETFRateCommand(referenceId, etfRate), signer);
+    }
+
+    private static Command<CommandData> booking() {
+        return new Command<>(new ETFundBookContract.Commands.Booking(), otherKey);
+    }
+
+    @SafeVarargs
+    private static WireTransaction transaction(Command<CommandData>... commands) {
+        return new WireTransaction(Collections.emptyList(), Collections.emptyList(), Collections.emptyList(),
+                ImmutableList.<Command<?>>copyOf(commands), getMEGA_CORP(), null, new PrivacySalt());
+    }
+
+    private static FilteredTransaction filter(WireTransaction wtx, Predicate<Object> reveal) {
+        return wtx.buildFilteredTransaction(reveal);
+    }
+}
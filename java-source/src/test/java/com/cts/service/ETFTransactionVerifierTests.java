@@ -0,0 +1,88 @@
+package com.cts.service;
+
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.utilities.ProgressTracker;
+import org.junit.Test;
+
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ETFTransactionVerifierTests {
+    private static class TestFlow extends FlowLogic<Void> {
+        private static final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step("Verifying.");
+
+        @Override
+        public Void call() {
+            return null;
+        }
+    }
+
+    private final ETFFlowMetrics metrics = new ETFFlowMetrics(null);
+    private final List<String> ran = new ArrayList<>();
+
+    @Test
+    public void recordsTheSignatureCheck() throws Exception {
+        final String verified = ETFTransactionVerifier.checkSignatures("tx", verifying(),
+                () -> ran("signatures", "wire"));
+        assertEquals("wire", verified);
+        assertTrue(metrics.render().contains("step=\"VERIFYING_TRANSACTION.signatures\"} 1\n"));
+    }
+
+    @Test
+    public void aBadSignatureFailsTheFlow() {
+        try {
+            ETFTransactionVerifier.checkSignatures("tx", verifying(),
+                    () -> { throw new SignatureException("Missing signature"); });
+            fail("Expected the signature check to fail");
+        } catch (FlowException ex) {
+            assertEquals("tx failed signature checks", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void resolvesBeforeRunningTheContractsAndRecordsEach() throws Exception {
+        ETFTransactionVerifier.verify("tx", verifying(),
+                () -> ran("resolution", "ledger"),
+                ledgerTx -> ran("contracts " + ledgerTx, null));
+        assertEquals(2, ran.size());
+        assertEquals("resolution", ran.get(0));
+        assertEquals("contracts ledger", ran.get(1));
+
+        final String text = metrics.render();
+        for (String part : new String[]{"resolution", "contracts"}) {
+            assertTrue(text, text.contains("step=\"VERIFYING_TRANSACTION." + part + "\"} 1\n"));
+        }
+    }
+
+    @Test
+    public void aRejectedContractFailsTheFlow() {
+        try {
+            ETFTransactionVerifier.verify("tx", verifying(),
+                    () -> ran("resolution", "ledger"),
+                    ledgerTx -> { throw new IllegalArgumentException("Failed requirement"); });
+            fail("Expected the contracts to reject the transaction");
+        } catch (FlowException ex) {
+            assertEquals("tx could not be verified", ex.getMessage());
+            assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    private ETFFlowMetrics.FlowTimer verifying() {
+        final ETFFlowMetrics.FlowTimer timer = metrics.start(
+                TestFlow.class, UUID.randomUUID(), new ProgressTracker(TestFlow.VERIFYING_TRANSACTION));
+        timer.step(TestFlow.VERIFYING_TRANSACTION);
+        return timer;
+    }
+
+    private <T> T ran(String check, T result) {
+        ran.add(check);
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.cts.service;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExposureIndexTests {
+    private static final Party sponsor = party("ETFSponsor", "London", "GB");
+    private static final Party ap1 = party("AP1", "New York", "US");
+    private static final Party ap2 = party("AP2", "New York", "US");
+
+    @Test
+    public void totalsFollowProducedAndConsumedStates() {
+        final ExposureIndex index = new ExposureIndex();
+        final StateRef fund1 = ref();
+        index.produced(fund1, "ETF-1", ap1, sponsor, 1000);
+        index.produced(ref(), "ETF-2", ap2, sponsor, 500);
+        assertEquals(1500, index.partyExposure(sponsor), 0);
+        assertEquals(2, index.partyFunds(sponsor));
+        assertEquals(1000, index.partyExposure(ap1), 0);
+
+        // Exercising ETF-1 replaces its state with a lower exposure.
+        final StateRef exercised = ref();
+        index.consumed(fund1, "ETF-1");
+        index.produced(exercised, "ETF-1", ap1, sponsor, 800);
+        assertEquals(1300, index.partyExposure(sponsor), 0);
+        assertEquals(800, index.fundExposure("ETF-1"), 0);
+        assertEquals(2, index.liveFunds());
+
+        index.consumed(exercised, "ETF-1");
+        assertEquals(500, index.partyExposure(sponsor), 0);
+        assertEquals(0, index.partyExposure(ap1), 0);
+        assertTrue(Double.isNaN(index.fundExposure("ETF-1")));
+        assertEquals(1, index.liveFunds());
+    }
+
+    @Test
+    public void staleConsumptionIsIgnored() {
+        final ExposureIndex index = new ExposureIndex();
+        final StateRef first = ref();
+        index.produced(first, "ETF-1", ap1, sponsor, 1000);
+        // A newer state arrives before the consumption of the first one is seen.
+        index.produced(ref(), "ETF-1", ap1, sponsor, 900);
+        index.consumed(first, "ETF-1");
+        assertEquals(900, index.fundExposure("ETF-1"), 0);
+        assertEquals(900, index.partyExposure(ap1), 0);
+        assertEquals(1, index.partyFunds(ap1));
+    }
+
+    @Test
+    public void listsPartiesWithLiveFunds() {
+        final ExposureIndex index = new ExposureIndex();
+        final StateRef fund1 = ref();
+        index.produced(fund1, "ETF-1", ap1, sponsor, 1000);
+        index.produced(ref(), "ETF-2", ap2, sponsor, 500);
+        index.consumed(fund1, "ETF-1");
+        final List<ETFExposure> parties = index.parties();
+        assertEquals(2, parties.size());
+        assertEquals(sponsor.getName().toString(), parties.get(0).getName());
+        assertEquals(500, parties.get(0).getExposure(), 0);
+        assertEquals(ap2.getName().toString(), parties.get(1).getName());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        final ExposureIndex index = new ExposureIndex();
+        for (int i = 0; i < 5000; i++) {
+            index.produced(ref(), "ETF-" + i, party("AP" + i, "New York", "US"), sponsor, 1);
+        }
+        assertEquals(5000, index.partyExposure(sponsor), 0);
+        assertEquals(5000, index.liveFunds());
+    }
+
+    private static StateRef ref() {
+        return new StateRef(SecureHash.randomSHA256(), 0);
+    }
+
+    private static Party party(String organisation, String locality, String country) {
+        return new Party(new CordaX500Name(organisation, locality, country), Crypto.generateKeyPair().getPublic());
+    }
+}
@@ -0,0 +1,82 @@
+package com.cts.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NavEngineTests {
+    private static final double DELTA = 1e-9;
+
+    private static NavEngine engine() {
+        return NavEngine.builder()
+                .add("ETF-1", "AAA", 2)
+                .add("ETF-1", "BBB", 0.5)
+                .add("ETF-2", "BBB", 3)
+                .build();
+    }
+
+    @Test
+    public void navIsUnknownUntilEveryConstituentIsPriced() {
+        final NavEngine engine = engine();
+        final int etf1 = engine.fund("ETF-1");
+        engine.tick(engine.constituent("AAA"), 10);
+        assertTrue(Double.isNaN(engine.nav(etf1)));
+
+        engine.tick(engine.constituent("BBB"), 4);
+        assertEquals(22, engine.nav(etf1), DELTA);
+        assertEquals(12, engine.nav(engine.fund("ETF-2")), DELTA);
+    }
+
+    @Test
+    public void ticksAdjustEveryHolder() {
+        final NavEngine engine = engine();
+        final int aaa = engine.constituent("AAA");
+        final int bbb = engine.constituent("BBB");
+        engine.tick(new int[]{aaa, bbb}, new double[]{10, 4});
+        engine.tick(bbb, 6);
+        assertEquals(23, engine.nav(engine.fund("ETF-1")), DELTA);
+        assertEquals(18, engine.nav(engine.fund("ETF-2")), DELTA);
+    }
+
+    @Test
+    public void revalueMatchesIncrementalNav() {
+        final NavEngine engine = engine();
+        final int aaa = engine.constituent("AAA");
+        final int bbb = engine.constituent("BBB");
+        for (int i = 1; i <= 1000; i++) {
+            engine.tick(aaa, 10 + i * 0.01);
+            engine.tick(bbb, 4 - i * 0.001);
+        }
+        final double incremental = engine.nav(engine.fund("ETF-1"));
+        engine.revalue();
+        assertEquals(engine.nav(engine.fund("ETF-1")), incremental, 1e-6);
+        assertEquals(2 * 20 + 0.5 * 3, engine.nav(engine.fund("ETF-1")), DELTA);
+    }
+
+    @Test
+    public void revalueKeepsThePartialNavOfABasketStillBeingPriced() {
+        final NavEngine engine = engine();
+        final int etf1 = engine.fund("ETF-1");
+        engine.tick(engine.constituent("AAA"), 10);
+        engine.revalue();
+        assertTrue(Double.isNaN(engine.nav(etf1)));
+
+        engine.tick(engine.constituent("BBB"), 4);
+        assertEquals(22, engine.nav(etf1), DELTA);
+        assertEquals(12, engine.nav(engine.fund("ETF-2")), DELTA);
+    }
+
+    @Test
+    public void unknownIdsAreNotNumbered() {
+        final NavEngine engine = engine();
+        assertEquals(-1, engine.fund("ETF-3"));
+        assertEquals(-1, engine.constituent("CCC"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonFinitePricesAreRejected() {
+        final NavEngine engine = engine();
+        engine.tick(engine.constituent("AAA"), Double.NaN);
+    }
+}
@@ -0,0 +1,62 @@
+package com.cts.service;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReferenceIndexTests {
+
+    @Test
+    public void followsTheProducedAndConsumedStatesOfAFund() {
+        final ReferenceIndex index = new ReferenceIndex(10);
+        final StateRef incepted = ref();
+        final StateRef exercised = ref();
+        index.produced("ETF-1", incepted);
+        assertEquals(incepted, index.get("ETF-1"));
+
+        // The exercise's output can be reported before its input is.
+        index.produced("ETF-1", exercised);
+        index.consumed("ETF-1", incepted);
+        assertEquals(exercised, index.get("ETF-1"));
+
+        index.consumed("ETF-1", exercised);
+        assertNull(index.get("ETF-1"));
+    }
+
+    @Test
+    public void aStateReadFromTheVaultNeverReplacesOneFromTheFeed() {
+        final ReferenceIndex index = new ReferenceIndex(10);
+        final StateRef fromVault = ref();
+        final StateRef fromFeed = ref();
+        // The feed reports the exercise before the read of the old state is applied.
+        index.produced("ETF-1", fromFeed);
+        index.consumed("ETF-1", fromVault);
+        index.read("ETF-1", fromVault);
+        assertEquals(fromFeed, index.get("ETF-1"));
+
+        index.read("ETF-2", fromVault);
+        assertEquals(fromVault, index.get("ETF-2"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedFund() {
+        final ReferenceIndex index = new ReferenceIndex(2);
+        final StateRef first = ref();
+        index.produced("ETF-1", first);
+        index.produced("ETF-2", ref());
+        assertEquals(first, index.get("ETF-1"));
+        index.produced("ETF-3", ref());
+
+        assertEquals(2, index.size());
+        assertEquals(first, index.get("ETF-1"));
+        assertNull(index.get("ETF-2"));
+    }
+
+    private static StateRef ref() {
+        return new StateRef(SecureHash.randomSHA256(), 0);
+    }
+}